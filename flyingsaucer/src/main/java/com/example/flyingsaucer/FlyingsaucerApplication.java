@@ -1,7 +1,12 @@
 package com.example.flyingsaucer;
 
+import com.example.flyingsaucer.service.StartupWarmUp;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
 
 @SpringBootApplication
 public class FlyingsaucerApplication {
@@ -10,4 +15,17 @@ public class FlyingsaucerApplication {
 		SpringApplication.run(FlyingsaucerApplication.class, args);
 	}
 
+	// Runners finish before readiness is reported, so the warm-up renders happen before any traffic is routed here.
+	// A training run (mvn -Pcds package) exits once warmed up, leaving every class it loaded in the CDS archive
+	@Bean
+	public ApplicationRunner pdfWarmUp(StartupWarmUp startupWarmUp, ConfigurableApplicationContext context,
+									   @Value("${pdf.warmup.training-run:false}") boolean trainingRun) {
+		return args -> {
+			startupWarmUp.run();
+			if (trainingRun) {
+				System.exit(SpringApplication.exit(context));
+			}
+		};
+	}
+
 }
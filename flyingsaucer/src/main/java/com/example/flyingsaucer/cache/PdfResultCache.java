@@ -0,0 +1,372 @@
+package com.example.flyingsaucer.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed cache of generated PDFs. A PDF is stored under the SHA-256 of the HTML it
+ * was rendered from, so identical input is only rendered once and the hash doubles as the ETag.
+ * <p>
+ * The memory tier is bounded in bytes and evicts least recently used PDFs; the optional disk tier
+ * keeps them under {@code pdf.result-cache.dir} across evictions and restarts. A small index,
+ * bounded to {@code pdf.result-cache.index-max-entries} least recently used invoices, remembers
+ * which hash a stored invoice rendered to, so repeat downloads skip the database and Thymeleaf
+ * too; it is cleared for an invoice whenever that invoice is saved.
+ */
+@Component
+public class PdfResultCache {
+
+    private static final Logger log = LoggerFactory.getLogger(PdfResultCache.class);
+
+    private final long maxBytes;
+    private final boolean diskEnabled;
+    private final Path directory;
+    private final long indexTtlMillis;
+    private final int indexMaxEntries;
+
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(64, 0.75f, true);
+    private long currentBytes;
+    // Access ordered and guarded by itself, so the least recently used invoice is dropped first
+    private final LinkedHashMap<IndexKey, IndexEntry> invoiceIndex = new LinkedHashMap<>(64, 0.75f, true);
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public PdfResultCache(@Value("${pdf.result-cache.max-bytes:67108864}") long maxBytes,
+                          @Value("${pdf.result-cache.disk-enabled:false}") boolean diskEnabled,
+                          @Value("${pdf.result-cache.dir:generated-pdfs/cache}") String directory,
+                          @Value("${pdf.result-cache.index-ttl-ms:300000}") long indexTtlMillis,
+                          @Value("${pdf.result-cache.index-max-entries:10000}") int indexMaxEntries,
+                          MeterRegistry meterRegistry) {
+        this.maxBytes = maxBytes;
+        this.diskEnabled = diskEnabled;
+        this.directory = Paths.get(directory);
+        this.indexTtlMillis = indexTtlMillis;
+        this.indexMaxEntries = indexMaxEntries;
+
+        FunctionCounter.builder("pdf.result.cache.requests", memoryHits, AtomicLong::get)
+                .description("Rendered PDF cache lookups")
+                .tags("result", "hit", "tier", "memory")
+                .register(meterRegistry);
+        FunctionCounter.builder("pdf.result.cache.requests", diskHits, AtomicLong::get)
+                .description("Rendered PDF cache lookups")
+                .tags("result", "hit", "tier", "disk")
+                .register(meterRegistry);
+        FunctionCounter.builder("pdf.result.cache.requests", misses, AtomicLong::get)
+                .description("Rendered PDF cache lookups")
+                .tags("result", "miss", "tier", "none")
+                .register(meterRegistry);
+        FunctionCounter.builder("pdf.result.cache.evictions", evictions, AtomicLong::get)
+                .description("PDFs evicted from memory to stay within the size limit")
+                .register(meterRegistry);
+        Gauge.builder("pdf.result.cache.size", this, PdfResultCache::getSizeInBytes)
+                .description("Heap held by cached PDFs")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("pdf.result.cache.index.size", this, PdfResultCache::getIndexSize)
+                .description("Stored invoices whose last rendered hash is remembered")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (diskEnabled) {
+            Files.createDirectories(directory);
+        }
+    }
+
+    /**
+     * Cache key for HTML rendered with the given variant (base URL, output settings, ...).
+     */
+    public static String key(String html, String variant) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(Objects.toString(variant, "").getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(html.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Returns the cached PDF for the key from memory or disk, or null.
+     */
+    public byte[] get(String key) {
+        synchronized (this) {
+            byte[] pdf = memory.get(key);
+            if (pdf != null) {
+                memoryHits.incrementAndGet();
+                return pdf;
+            }
+        }
+        if (diskEnabled) {
+            Path file = fileFor(key);
+            if (Files.exists(file)) {
+                try {
+                    byte[] pdf = Files.readAllBytes(file);
+                    diskHits.incrementAndGet();
+                    putInMemory(key, pdf);
+                    return pdf;
+                } catch (IOException e) {
+                    log.warn("Could not read cached PDF {}: {}", file, e.getMessage());
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String key, byte[] pdf) {
+        putInMemory(key, pdf);
+        if (diskEnabled) {
+            Path file = fileFor(key);
+            if (Files.exists(file)) {
+                return;
+            }
+            // Write under a temporary name and rename, so readers never see a partial file
+            try {
+                Path temp = Files.createTempFile(directory, key, ".tmp");
+                Files.write(temp, pdf);
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                log.warn("Could not write cached PDF {}: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns a stream that keeps a copy of what is written to it and stores it under the key on
+     * {@link Capture#commit()}, or null if the memory tier is disabled. It stops copying once the
+     * PDF outgrows what the cache would keep.
+     */
+    public Capture capture(String key) {
+        return maxBytes > 0 ? new Capture(key) : null;
+    }
+
+    /**
+     * Returns the key a stored invoice last rendered to with the given variant, if that is still known.
+     */
+    public String getInvoiceKey(Long id, String variant) {
+        IndexKey indexKey = new IndexKey(id, variant);
+        synchronized (invoiceIndex) {
+            IndexEntry entry = invoiceIndex.get(indexKey);
+            if (entry == null) {
+                return null;
+            }
+            if (indexTtlMillis >= 0 && System.currentTimeMillis() - entry.createdAt() > indexTtlMillis) {
+                invoiceIndex.remove(indexKey);
+                return null;
+            }
+            return entry.key();
+        }
+    }
+
+    /**
+     * Records the key a stored invoice rendered to. Call it only once that PDF was rendered.
+     */
+    public void rememberInvoice(Long id, String variant, String invoiceNumber, String key) {
+        synchronized (invoiceIndex) {
+            invoiceIndex.put(new IndexKey(id, variant), new IndexEntry(invoiceNumber, key, System.currentTimeMillis()));
+            Iterator<IndexEntry> eldest = invoiceIndex.values().iterator();
+            while (invoiceIndex.size() > indexMaxEntries && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Forgets what a stored invoice rendered to, matching either its database id or its
+     * business invoice number. Cached PDFs stay, since their keys depend on content only.
+     */
+    public void invalidateInvoice(Long id, String invoiceNumber) {
+        synchronized (invoiceIndex) {
+            if (id != null) {
+                invoiceIndex.keySet().removeIf(indexKey -> id.equals(indexKey.id()));
+            }
+            if (invoiceNumber != null) {
+                invoiceIndex.values().removeIf(entry -> invoiceNumber.equals(entry.invoiceNumber()));
+            }
+        }
+    }
+
+    /**
+     * Forgets what every stored invoice rendered to, e.g. after a template changed. Cached PDFs stay.
+     */
+    public void clearInvoiceIndex() {
+        synchronized (invoiceIndex) {
+            invoiceIndex.clear();
+        }
+    }
+
+    // Several invoices saved at once, e.g. by bulk ingest; new invoices only matter by their number
+    public void invalidateInvoiceNumbers(Collection<String> invoiceNumbers) {
+        synchronized (invoiceIndex) {
+            if (!invoiceNumbers.isEmpty() && !invoiceIndex.isEmpty()) {
+                invoiceIndex.values().removeIf(entry -> invoiceNumbers.contains(entry.invoiceNumber()));
+            }
+        }
+    }
+
+    /**
+     * Drops every cached PDF, e.g. after a stylesheet or image they were rendered with changed.
+     */
+    public void clear() {
+        synchronized (this) {
+            memory.clear();
+            currentBytes = 0;
+        }
+        clearInvoiceIndex();
+        if (diskEnabled) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.pdf")) {
+                for (Path file : files) {
+                    Files.deleteIfExists(file);
+                }
+            } catch (IOException e) {
+                log.warn("Could not clear cached PDFs in {}: {}", directory, e.getMessage());
+            }
+        }
+    }
+
+    public synchronized long getSizeInBytes() {
+        return currentBytes;
+    }
+
+    public int getIndexSize() {
+        synchronized (invoiceIndex) {
+            return invoiceIndex.size();
+        }
+    }
+
+    private synchronized void putInMemory(String key, byte[] pdf) {
+        if (pdf.length > maxBytes) {
+            return;
+        }
+        byte[] previous = memory.put(key, pdf);
+        if (previous != null) {
+            currentBytes -= previous.length;
+        }
+        currentBytes += pdf.length;
+
+        Iterator<Map.Entry<String, byte[]>> eldest = memory.entrySet().iterator();
+        while (currentBytes > maxBytes && eldest.hasNext()) {
+            currentBytes -= eldest.next().getValue().length;
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private Path fileFor(String key) {
+        return directory.resolve(key + ".pdf");
+    }
+
+    private record IndexKey(Long id, String variant) {
+    }
+
+    /**
+     * Copy of a PDF as it is streamed elsewhere. Bytes are kept in fixed-size chunks rather than a
+     * growing array, and copied once into the array the cache keeps, releasing each chunk as it goes.
+     */
+    public final class Capture extends OutputStream {
+
+        private static final int CHUNK_SIZE = 64 * 1024;
+
+        private final String key;
+        private final List<byte[]> chunks = new ArrayList<>();
+        private byte[] current;
+        private int position;
+        private long size;
+
+        private Capture(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (size < 0) {
+                return;
+            }
+            if (size + len > maxBytes) {
+                // Too big to cache; drop what was copied so far and ignore the rest
+                discard();
+                return;
+            }
+            size += len;
+            while (len > 0) {
+                if (current == null || position == current.length) {
+                    current = new byte[CHUNK_SIZE];
+                    chunks.add(current);
+                    position = 0;
+                }
+                int n = Math.min(len, current.length - position);
+                System.arraycopy(b, off, current, position, n);
+                position += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * Stores the copied PDF in the cache, unless it outgrew the cache's limit.
+         */
+        public void commit() {
+            if (size < 0) {
+                return;
+            }
+            byte[] pdf = new byte[(int) size];
+            int offset = 0;
+            for (int i = 0; i < chunks.size(); i++) {
+                byte[] chunk = chunks.set(i, null);
+                int n = Math.min(chunk.length, pdf.length - offset);
+                System.arraycopy(chunk, 0, pdf, offset, n);
+                offset += n;
+            }
+            discard();
+            put(key, pdf);
+        }
+
+        private void discard() {
+            chunks.clear();
+            current = null;
+            size = -1;
+        }
+    }
+
+    private record IndexEntry(String invoiceNumber, String key, long createdAt) {
+    }
+}
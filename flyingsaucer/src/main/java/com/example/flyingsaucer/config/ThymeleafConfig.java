@@ -0,0 +1,57 @@
+package com.example.flyingsaucer.config;
+
+import com.example.flyingsaucer.template.TemplateLinkBuilder;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.thymeleaf.TemplateEngine;
+import org.thymeleaf.templatemode.TemplateMode;
+import org.thymeleaf.templateresolver.AbstractConfigurableTemplateResolver;
+import org.thymeleaf.templateresolver.FileTemplateResolver;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+@Configuration
+public class ThymeleafConfig {
+
+    // Parsed templates stay in Thymeleaf's cache (spring.thymeleaf.cache) until this TTL expires,
+    // after which they are re-read and re-parsed once. A negative TTL keeps them forever.
+    // Relative links in templates resolve against the template's own base URL.
+    @Bean
+    public static BeanPostProcessor templateCacheTtlPostProcessor(
+            @Value("${pdf.template.cache-ttl-ms:-1}") long cacheTtlMillis) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+                if (bean instanceof AbstractConfigurableTemplateResolver resolver && cacheTtlMillis >= 0) {
+                    resolver.setCacheTTLMs(cacheTtlMillis);
+                }
+                if (bean instanceof TemplateEngine templateEngine) {
+                    templateEngine.setLinkBuilder(new TemplateLinkBuilder());
+                }
+                return bean;
+            }
+        };
+    }
+
+    // Templates in pdf.templates.dir are looked up before the built-in ones (which are ordered by
+    // spring.thymeleaf.template-resolver-order); TemplateRegistry evicts them when they change
+    @Bean
+    @ConditionalOnExpression("'${pdf.templates.dir:}' != ''")
+    public FileTemplateResolver directoryTemplateResolver(@Value("${pdf.templates.dir}") String directory) {
+        FileTemplateResolver resolver = new FileTemplateResolver();
+        resolver.setPrefix(Paths.get(directory).toAbsolutePath().normalize() + File.separator);
+        resolver.setSuffix(".html");
+        resolver.setTemplateMode(TemplateMode.HTML);
+        resolver.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        resolver.setCheckExistence(true);
+        resolver.setCacheable(true);
+        resolver.setOrder(0);
+        return resolver;
+    }
+}
@@ -1,7 +1,23 @@
 package com.example.flyingsaucer.controller;
 
+import com.example.flyingsaucer.cache.PdfResultCache;
+import com.example.flyingsaucer.metrics.RenderTrace;
+import com.example.flyingsaucer.model.BatchPdfRequest;
+import com.example.flyingsaucer.model.InvoicePdf;
+import com.example.flyingsaucer.model.InvoiceView;
+import com.example.flyingsaucer.model.PdfJob;
+import com.example.flyingsaucer.model.PdfMergeRequest;
 import com.example.flyingsaucer.model.PdfRequest;
+import com.example.flyingsaucer.renderer.OutputProfiles;
+import com.example.flyingsaucer.renderer.OutputSettings;
+import com.example.flyingsaucer.renderer.RenderAdmission;
+import com.example.flyingsaucer.service.BatchPdfService;
+import com.example.flyingsaucer.service.InvoiceIngestService;
+import com.example.flyingsaucer.service.PdfJobService;
+import com.example.flyingsaucer.service.PdfMergeService;
 import com.example.flyingsaucer.service.PdfService;
+import com.example.flyingsaucer.storage.PdfFileStore;
+import com.example.flyingsaucer.template.TemplateRegistry;
 import com.itextpdf.text.DocumentException;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
@@ -10,28 +26,108 @@ import io.swagger.v3.oas.annotations.media.ExampleObject;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncManager;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 @RestController
 @RequestMapping("/api/pdf")
 @Tag(name = "PDF Generation API", description = "APIs for generating and managing PDF invoices")
 public class PdfController {
 
+    private static final Logger log = LoggerFactory.getLogger(PdfController.class);
+
+    private static final int STREAM_BUFFER_SIZE = 16 * 1024;
+
+    private static final String OUTPUT_DESCRIPTION = "Output profile: standard, or optimized for smaller files "
+            + "(downsampled images, maximum compression, PDF 1.5 object streams). Defaults to pdf.output.default";
+
+    // Request attributes of Tomcat's sendfile support, as used by its DefaultServlet
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
     @Autowired
     private PdfService pdfService;
 
+    @Autowired
+    private BatchPdfService batchPdfService;
+
+    @Autowired
+    private PdfJobService pdfJobService;
+
+    @Autowired
+    private InvoiceIngestService invoiceIngestService;
+
+    @Autowired
+    private PdfResultCache pdfResultCache;
+
+    @Autowired
+    private PdfFileStore pdfFileStore;
+
+    @Autowired
+    private PdfMergeService pdfMergeService;
+
+    @Autowired
+    private OutputProfiles outputProfiles;
+
+    @Autowired
+    private TemplateRegistry templateRegistry;
+
+    @Autowired
+    private RenderAdmission renderAdmission;
+
+    @Value("${pdf.response.streaming:true}")
+    private boolean streamingEnabled;
+
+    @Value("${pdf.response.timeout-ms:120000}")
+    private long responseTimeoutMillis;
+
+    @Value("${pdf.response.bulk-timeout-ms:0}")
+    private long bulkTimeoutMillis;
+
+    @Value("${pdf.ingest.timeout-ms:0}")
+    private long ingestTimeoutMillis;
+
     @Operation(
         summary = "Generate PDF from JSON request",
         description = "Creates a PDF invoice from the provided JSON data and returns it as a downloadable file"
@@ -40,43 +136,127 @@ public class PdfController {
         @ApiResponse(responseCode = "200", description = "PDF generated successfully", 
                     content = @Content(mediaType = "application/pdf")),
         @ApiResponse(responseCode = "400", description = "Invalid input data"),
-        @ApiResponse(responseCode = "500", description = "Internal server error")
+        @ApiResponse(responseCode = "500", description = "Internal server error"),
+        @ApiResponse(responseCode = "429", description = "Render budget exhausted, retry after the Retry-After seconds")
     })
     @PostMapping(value = "/generate", produces = MediaType.APPLICATION_PDF_VALUE)
-    public ResponseEntity<byte[]> generatePdf(
+    public ResponseEntity<StreamingResponseBody> generatePdf(
             @Parameter(description = "PDF request data", required = true)
-            @Valid @RequestBody PdfRequest request) {
+            @Valid @RequestBody PdfRequest request,
+            @Parameter(description = "Render fully before responding so Content-Length is set")
+            @RequestParam(defaultValue = "false") boolean buffered,
+            @Parameter(description = OUTPUT_DESCRIPTION, example = "optimized")
+            @RequestParam(required = false) String output) {
+        asyncTimeout(responseTimeoutMillis);
+        OutputSettings settings;
         try {
+            settings = outputSettings(output);
+        } catch (IllegalArgumentException e) {
+            return errorResponse(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        RenderAdmission.Ticket ticket;
+        try {
+            ticket = renderAdmission.admit("invoice", pdfService.itemCount(request));
+        } catch (RenderAdmission.Rejected e) {
+            return overloaded(e);
+        }
+        try {
+            if (pdfService.isLargeDocument(request)) {
+                return releaseAfter(ticket, largePdfResponse(request, "invoice.pdf", settings));
+            }
             String html = pdfService.renderHtmlFromTemplate(request, "invoice");
-            byte[] pdfBytes = generatePdfAsBytes(html);
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_PDF);
-            headers.setContentDispositionFormData("attachment", "invoice.pdf");
-            headers.setContentLength(pdfBytes.length);
+            return releaseAfter(ticket, pdfResponse(html, "invoice.pdf", buffered, null, settings, null));
+        } catch (Exception e) {
+            ticket.close();
+            log.error("PDF generation failed for invoice {}", request.getInvoiceId(), e);
+            return errorResponse(HttpStatus.INTERNAL_SERVER_ERROR, "PDF generation failed: " + e.getMessage());
+        }
+    }
 
-            return new ResponseEntity<>(pdfBytes, headers, HttpStatus.OK);
+    @Operation(
+        summary = "Render any registered template",
+        description = "Fills the named template with the fields of the JSON object and returns the PDF. "
+                + "Templates are the built-in ones plus the .html files in pdf.templates.dir"
+    )
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "PDF generated successfully",
+                    content = @Content(mediaType = "application/pdf")),
+        @ApiResponse(responseCode = "400", description = "Unknown output profile"),
+        @ApiResponse(responseCode = "404", description = "No template with that name"),
+        @ApiResponse(responseCode = "500", description = "Internal server error"),
+        @ApiResponse(responseCode = "429", description = "Render budget exhausted, retry after the Retry-After seconds")
+    })
+    @PostMapping(value = "/render/{template}", produces = MediaType.APPLICATION_PDF_VALUE)
+    public ResponseEntity<StreamingResponseBody> renderTemplate(
+            @Parameter(description = "Template name", example = "invoice", required = true)
+            @PathVariable String template,
+            @Parameter(description = "Template variables", required = true)
+            @RequestBody Map<String, Object> model,
+            @Parameter(description = "Render fully before responding so Content-Length is set")
+            @RequestParam(defaultValue = "false") boolean buffered,
+            @Parameter(description = OUTPUT_DESCRIPTION, example = "optimized")
+            @RequestParam(required = false) String output) {
+        asyncTimeout(responseTimeoutMillis);
+        OutputSettings settings;
+        try {
+            settings = outputSettings(output);
+        } catch (IllegalArgumentException e) {
+            return errorResponse(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        RenderAdmission.Ticket ticket;
+        try {
+            ticket = renderAdmission.admit(template, pdfService.itemCount(model));
+        } catch (RenderAdmission.Rejected e) {
+            return overloaded(e);
+        }
+        try {
+            String html = pdfService.renderHtmlFromTemplate(model, template);
+            return releaseAfter(ticket, pdfResponse(html, template + ".pdf", buffered, null, settings, null));
+        } catch (NoSuchElementException e) {
+            ticket.close();
+            return errorResponse(HttpStatus.NOT_FOUND, e.getMessage());
         } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
+            ticket.close();
+            log.error("PDF generation failed for template {}", template, e);
+            return errorResponse(HttpStatus.INTERNAL_SERVER_ERROR, "PDF generation failed: " + e.getMessage());
         }
     }
 
+    @Operation(
+        summary = "List templates",
+        description = "Names of the templates that documents can be rendered with"
+    )
+    @GetMapping("/templates")
+    public ResponseEntity<Set<String>> listTemplates() {
+        return ResponseEntity.ok(templateRegistry.getNames());
+    }
+
     @Operation(
         summary = "Generate PDF with download link",
         description = "Creates a PDF invoice and returns JSON with file information and download URL"
     )
     @ApiResponses({
         @ApiResponse(responseCode = "200", description = "PDF generated successfully"),
-        @ApiResponse(responseCode = "500", description = "PDF generation failed")
+        @ApiResponse(responseCode = "500", description = "PDF generation failed"),
+        @ApiResponse(responseCode = "429", description = "Render budget exhausted, retry after the Retry-After seconds")
     })
     @PostMapping("/generate-with-link")
     public ResponseEntity<Map<String, String>> generatePdfWithLink(
             @Parameter(description = "PDF request data", required = true)
-            @Valid @RequestBody PdfRequest request) {
+            @Valid @RequestBody PdfRequest request,
+            @Parameter(description = OUTPUT_DESCRIPTION, example = "optimized")
+            @RequestParam(required = false) String output) {
+        OutputSettings settings;
         try {
-            String html = pdfService.renderHtmlFromTemplate(request, "invoice");
+            settings = outputSettings(output);
+        } catch (IllegalArgumentException e) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", e.getMessage());
+            return ResponseEntity.badRequest().body(error);
+        }
+        try (RenderAdmission.Ticket ticket = renderAdmission.admit("invoice", pdfService.itemCount(request))) {
             String fileName = "invoice_" + UUID.randomUUID();
-            String filePath = pdfService.generatePdfFromHtml(html, fileName);
+            String filePath = pdfService.generatePdfFile(request, "invoice", settings, fileName);
 
             Map<String, String> response = new HashMap<>();
             response.put("message", "PDF generated successfully");
@@ -84,13 +264,46 @@ public class PdfController {
             response.put("downloadUrl", "/api/pdf/download/" + fileName + ".pdf");
 
             return ResponseEntity.ok(response);
+        } catch (RenderAdmission.Rejected e) {
+            return overloadedJson(e);
         } catch (Exception e) {
+            log.error("PDF generation failed for invoice {}", request.getInvoiceId(), e);
             Map<String, String> error = new HashMap<>();
             error.put("error", "PDF generation failed: " + e.getMessage());
             return ResponseEntity.status(500).body(error);
         }
     }
 
+    @Operation(
+        summary = "Download a generated PDF",
+        description = "Returns a PDF written by generate-with-link. Supports HTTP Range requests for resumed downloads"
+    )
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "Generated PDF",
+                    content = @Content(mediaType = "application/pdf")),
+        @ApiResponse(responseCode = "206", description = "Requested byte range of the PDF"),
+        @ApiResponse(responseCode = "400", description = "Invalid file name"),
+        @ApiResponse(responseCode = "404", description = "No such file, or it has expired"),
+        @ApiResponse(responseCode = "416", description = "Range not satisfiable")
+    })
+    @GetMapping(value = "/download/{fileName:.+}", produces = MediaType.APPLICATION_PDF_VALUE)
+    public ResponseEntity<Resource> downloadPdf(
+            @Parameter(description = "File name from the download URL", example = "invoice_1.pdf", required = true)
+            @PathVariable String fileName,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+            HttpServletRequest request) {
+        Path file;
+        try {
+            file = pdfFileStore.find(fileName);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (file == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return fileResponse(file, range, request);
+    }
+
     @Operation(
         summary = "Get PDF from database by ID",
         description = "Retrieves an invoice from the database and returns it as a PDF file"
@@ -98,22 +311,82 @@ public class PdfController {
     @ApiResponses({
         @ApiResponse(responseCode = "200", description = "PDF generated successfully",
                     content = @Content(mediaType = "application/pdf")),
+        @ApiResponse(responseCode = "400", description = "Unknown output profile"),
         @ApiResponse(responseCode = "404", description = "Invoice not found"),
-        @ApiResponse(responseCode = "500", description = "Internal server error")
+        @ApiResponse(responseCode = "500", description = "Internal server error"),
+        @ApiResponse(responseCode = "503", description = "An identical render in progress did not finish in time"),
+        @ApiResponse(responseCode = "429", description = "Render budget exhausted, retry after the Retry-After seconds")
     })
     @GetMapping(value = "/invoice/{id}", produces = MediaType.APPLICATION_PDF_VALUE)
-    public ResponseEntity<byte[]> getPdfFromDatabase(
+    public ResponseEntity<StreamingResponseBody> getPdfFromDatabase(
             @Parameter(description = "Invoice ID", example = "1", required = true)
-            @PathVariable Long id) {
+            @PathVariable Long id,
+            @Parameter(description = "Render fully before responding so Content-Length is set; "
+                    + "always the case while pdf.render.single-flight.enabled is on")
+            @RequestParam(defaultValue = "false") boolean buffered,
+            @Parameter(description = "ETag of a copy the client already has")
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @Parameter(description = OUTPUT_DESCRIPTION, example = "optimized")
+            @RequestParam(required = false) String output) {
+        asyncTimeout(responseTimeoutMillis);
+        String fileName = "invoice_" + id + ".pdf";
+        OutputSettings settings;
         try {
-            byte[] pdfBytes = pdfService.generatePdfBytesFromDatabase(id);
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_PDF);
-            headers.setContentDispositionFormData("attachment", "invoice_" + id + ".pdf");
-            headers.setContentLength(pdfBytes.length);
-            return new ResponseEntity<>(pdfBytes, headers, HttpStatus.OK);
+            settings = outputSettings(output);
+        } catch (IllegalArgumentException e) {
+            return errorResponse(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        String variant = PdfService.cacheVariant(settings);
+        try {
+            // Serve a repeat download without touching the database or re-rendering
+            String key = pdfResultCache.getInvoiceKey(id, variant);
+            if (key != null) {
+                if (etagMatches(ifNoneMatch, key)) {
+                    return notModified(key);
+                }
+                byte[] cached = pdfResultCache.get(key);
+                if (cached != null) {
+                    return bufferedResponse(cached, key, fileName);
+                }
+            }
+
+            if (pdfService.isSingleFlightEnabled()) {
+                // Rendered to memory so concurrent requests for this invoice can share the result;
+                // the shared render is admitted once, by the request that runs it
+                InvoicePdf rendered = pdfService.renderInvoice(id, settings);
+                if (rendered.isLargeDocument()) {
+                    // Each request streams a large invoice itself, so each is admitted on its own
+                    RenderAdmission.Ticket ticket = renderAdmission.admit("invoice", pdfService.itemCount(rendered.invoice()));
+                    return releaseAfter(ticket, largePdfResponse(rendered.invoice(), fileName, settings));
+                }
+                if (etagMatches(ifNoneMatch, rendered.key())) {
+                    return notModified(rendered.key());
+                }
+                return bufferedResponse(rendered.pdf(), rendered.key(), fileName);
+            }
+
+            InvoiceView invoice = pdfService.findInvoiceView(id);
+            RenderAdmission.Ticket ticket = renderAdmission.admit("invoice", pdfService.itemCount(invoice));
+            try {
+                if (pdfService.isLargeDocument(invoice)) {
+                    return releaseAfter(ticket, largePdfResponse(invoice, fileName, settings));
+                }
+                String html = pdfService.renderHtmlFromTemplate(invoice, "invoice");
+                return releaseAfter(ticket, pdfResponse(html, fileName, buffered, ifNoneMatch, settings,
+                        renderedKey -> pdfResultCache.rememberInvoice(id, variant, invoice.invoiceId(), renderedKey)));
+            } catch (Exception e) {
+                ticket.close();
+                throw e;
+            }
+        } catch (RenderAdmission.Rejected e) {
+            return overloaded(e);
+        } catch (NoSuchElementException e) {
+            return errorResponse(HttpStatus.NOT_FOUND, e.getMessage());
+        } catch (TimeoutException e) {
+            return errorResponse(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
         } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
+            log.error("PDF generation failed for invoice {}", id, e);
+            return errorResponse(HttpStatus.INTERNAL_SERVER_ERROR, "PDF generation failed: " + e.getMessage());
         }
     }
 
@@ -123,24 +396,35 @@ public class PdfController {
     )
     @ApiResponses({
         @ApiResponse(responseCode = "200", description = "PDF generated successfully"),
-        @ApiResponse(responseCode = "404", description = "Invoice not found")
+        @ApiResponse(responseCode = "404", description = "Invoice not found"),
+        @ApiResponse(responseCode = "429", description = "Render budget exhausted, retry after the Retry-After seconds")
     })
     @GetMapping("/generate/{id}")
     public ResponseEntity<Map<String, String>> generatePdfFromDb(
             @Parameter(description = "Invoice ID", example = "1", required = true)
             @PathVariable Long id) {
         try {
-            String filePath = pdfService.generatePdfFromDatabase(id);
+            InvoiceView invoice = pdfService.findInvoiceView(id);
+            String filePath;
+            try (RenderAdmission.Ticket ticket = renderAdmission.admit("invoice", pdfService.itemCount(invoice))) {
+                filePath = pdfService.generatePdfFromDatabase(invoice);
+            }
             Map<String, String> response = new HashMap<>();
             response.put("message", "PDF generated from database");
             response.put("filePath", filePath);
             response.put("invoiceId", id.toString());
             response.put("downloadUrl", "/api/pdf/invoice/" + id);
             return ResponseEntity.ok(response);
+        } catch (RenderAdmission.Rejected e) {
+            return overloadedJson(e);
         } catch (Exception e) {
             Map<String, String> error = new HashMap<>();
             error.put("error", "Failed to generate PDF from DB: " + e.getMessage());
-            return ResponseEntity.status(404).body(error);
+            if (e instanceof NoSuchElementException) {
+                return ResponseEntity.status(404).body(error);
+            }
+            log.error("PDF generation failed for invoice {}", id, e);
+            return ResponseEntity.status(500).body(error);
         }
     }
 
@@ -175,17 +459,522 @@ public class PdfController {
             response.put("pdfUrl", "/api/pdf/invoice/" + saved.getId());
             return ResponseEntity.ok(response);
         } catch (Exception e) {
+            log.error("Saving invoice {} failed", request.getInvoiceId(), e);
             return ResponseEntity.status(500).body("Save failed: " + e.getMessage());
         }
     }
 
-    private byte[] generatePdfAsBytes(String html) throws IOException, DocumentException {
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-            org.xhtmlrenderer.pdf.ITextRenderer renderer = new org.xhtmlrenderer.pdf.ITextRenderer();
-            renderer.setDocumentFromString(html);
-            renderer.layout();
-            renderer.createPDF(outputStream);
-            return outputStream.toByteArray();
+    @Operation(
+        summary = "Save many invoices in one call",
+        description = "Reads a JSON array of invoices or NDJSON (one invoice per line) as a stream and saves them " +
+                      "in batched transactions of pdf.ingest.batch-size. Streams back NDJSON with one result per " +
+                      "invoice in input order, then a summary line with the totals and ingest rate. Invalid " +
+                      "invoices are reported as FAILED without stopping the ingest"
+    )
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "Per-invoice results and summary",
+                    content = @Content(mediaType = "application/x-ndjson"))
+    })
+    @PostMapping(value = "/ingest", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<StreamingResponseBody> ingestInvoices(
+            @Parameter(description = "Invoices as a JSON array or NDJSON", required = true,
+                      content = @Content(examples = @ExampleObject(value =
+                              "{\"invoiceId\": \"INV-001\", \"customerName\": \"John Doe\", \"date\": \"2024-01-15\", " +
+                              "\"items\": [{\"name\": \"Item 1\", \"quantity\": 2, \"price\": 100}], \"totalAmount\": 200}\n" +
+                              "{\"invoiceId\": \"INV-002\", \"customerName\": \"Jane Roe\", \"date\": \"2024-01-16\", " +
+                              "\"items\": [{\"name\": \"Item 2\", \"quantity\": 1, \"price\": 50}], \"totalAmount\": 50}")))
+            HttpServletRequest request) {
+        asyncTimeout(ingestTimeoutMillis);
+        // The body is read while the results are written, so it is never held in memory as a whole
+        StreamingResponseBody body = outputStream -> invoiceIngestService.ingest(request.getInputStream(), outputStream);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
+
+    @Operation(
+        summary = "Render many invoices in one call",
+        description = "Renders invoices selected by database IDs, a date range or inline request data in parallel " +
+                      "and streams them back as a ZIP with one PDF per invoice plus batch-report.json, " +
+                      "or as one merged PDF when merge is true. Invoices that fail are listed in the report"
+    )
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "Batch rendered successfully",
+                    content = {@Content(mediaType = "application/zip"), @Content(mediaType = "application/pdf")}),
+        @ApiResponse(responseCode = "400", description = "No or conflicting invoice selection"),
+        @ApiResponse(responseCode = "429", description = "Render queue is full, retry later")
+    })
+    @PostMapping("/batch")
+    public ResponseEntity<StreamingResponseBody> generateBatch(
+            @Parameter(description = "Batch request", required = true,
+                      content = @Content(examples = @ExampleObject(value = "{\n" +
+                              "  \"invoiceIds\": [1, 2, 3],\n" +
+                              "  \"merge\": false\n" +
+                              "}")))
+            @RequestBody BatchPdfRequest request) {
+        asyncTimeout(bulkTimeoutMillis);
+        try {
+            batchPdfService.validate(request);
+        } catch (Exception e) {
+            return errorResponse(HttpStatus.BAD_REQUEST, "Invalid batch request: " + e.getMessage());
+        }
+        // Each document is admitted as it is rendered; once the response has started it can only wait
+        try {
+            renderAdmission.checkQueue();
+        } catch (RenderAdmission.Rejected e) {
+            return overloaded(e);
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        RenderTrace trace = RenderTrace.current();
+        StreamingResponseBody body;
+        if (request.isMerge()) {
+            headers.setContentType(MediaType.APPLICATION_PDF);
+            headers.setContentDispositionFormData("attachment", "invoices.pdf");
+            body = outputStream -> {
+                try (RenderTrace.Scope scope = trace.attach()) {
+                    batchPdfService.writeMergedPdf(request, outputStream);
+                } catch (DocumentException e) {
+                    throw new IOException("Merging batch PDF failed", e);
+                }
+            };
+        } else {
+            headers.setContentType(MediaType.parseMediaType("application/zip"));
+            headers.setContentDispositionFormData("attachment", "invoices.zip");
+            body = outputStream -> {
+                try (RenderTrace.Scope scope = trace.attach()) {
+                    batchPdfService.writeZip(request, outputStream);
+                }
+            };
+        }
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
+    }
+
+    @Operation(
+        summary = "Merge rendered PDFs",
+        description = "Combines stored PDFs and invoices into one PDF, reusing cached renderings. " +
+                      "Shared images and fonts are stored once; the result is streamed"
+    )
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "Merged PDF",
+                    content = @Content(mediaType = "application/pdf")),
+        @ApiResponse(responseCode = "400", description = "Invalid merge request"),
+        @ApiResponse(responseCode = "404", description = "A file or invoice does not exist"),
+        @ApiResponse(responseCode = "429", description = "Render queue is full, retry later")
+    })
+    @PostMapping("/merge")
+    public ResponseEntity<StreamingResponseBody> mergePdfs(
+            @Parameter(description = "Merge request", required = true,
+                      content = @Content(examples = @ExampleObject(value = "{\n" +
+                              "  \"invoiceIds\": [1, 2, 3],\n" +
+                              "  \"fileName\": \"statement.pdf\"\n" +
+                              "}")))
+            @RequestBody PdfMergeRequest request) {
+        asyncTimeout(bulkTimeoutMillis);
+        try {
+            pdfMergeService.validate(request);
+            pdfMergeService.checkSourcesExist(request);
+        } catch (IllegalArgumentException e) {
+            return errorResponse(HttpStatus.BAD_REQUEST, "Invalid merge request: " + e.getMessage());
+        } catch (NoSuchElementException e) {
+            return errorResponse(HttpStatus.NOT_FOUND, e.getMessage());
+        }
+        try {
+            renderAdmission.checkQueue();
+        } catch (RenderAdmission.Rejected e) {
+            return overloaded(e);
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_PDF);
+        headers.setContentDispositionFormData("attachment",
+                request.getFileName() != null ? request.getFileName() : "statement.pdf");
+        RenderTrace trace = RenderTrace.current();
+        StreamingResponseBody body = outputStream -> {
+            try (RenderTrace.Scope scope = trace.attach()) {
+                pdfMergeService.writeMerged(request, outputStream);
+            } catch (DocumentException e) {
+                throw new IOException("Merging PDFs failed", e);
+            }
+        };
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
+    }
+
+    @Operation(
+        summary = "Queue a PDF render job",
+        description = "Queues the invoice for rendering and returns a job id immediately. " +
+                      "Poll /api/pdf/jobs/{jobId} for the status and download the result once it is DONE"
+    )
+    @ApiResponses({
+        @ApiResponse(responseCode = "202", description = "Job queued"),
+        @ApiResponse(responseCode = "429", description = "Render queue is full, retry later")
+    })
+    @PostMapping("/jobs")
+    public ResponseEntity<Map<String, Object>> submitJob(
+            @Parameter(description = "PDF request data", required = true)
+            @Valid @RequestBody PdfRequest request,
+            @Parameter(description = "Jobs with a higher priority are rendered first", example = "0")
+            @RequestParam(defaultValue = "0") int priority) {
+        try {
+            return jobAccepted(pdfJobService.submit(request, priority));
+        } catch (RejectedExecutionException e) {
+            return queueFull(e);
+        }
+    }
+
+    @Operation(
+        summary = "Queue a PDF render job for a stored invoice",
+        description = "Queues rendering of an invoice from the database and returns a job id immediately"
+    )
+    @ApiResponses({
+        @ApiResponse(responseCode = "202", description = "Job queued"),
+        @ApiResponse(responseCode = "429", description = "Render queue is full, retry later")
+    })
+    @PostMapping("/jobs/invoice/{id}")
+    public ResponseEntity<Map<String, Object>> submitJobFromDatabase(
+            @Parameter(description = "Invoice ID", example = "1", required = true)
+            @PathVariable Long id,
+            @Parameter(description = "Jobs with a higher priority are rendered first", example = "0")
+            @RequestParam(defaultValue = "0") int priority) {
+        try {
+            return jobAccepted(pdfJobService.submitFromDatabase(id, priority));
+        } catch (RejectedExecutionException e) {
+            return queueFull(e);
+        }
+    }
+
+    @Operation(
+        summary = "Get render job status",
+        description = "Reports whether the job is QUEUED, RUNNING, DONE or FAILED"
+    )
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "Job status"),
+        @ApiResponse(responseCode = "404", description = "Unknown or expired job")
+    })
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<Map<String, Object>> getJobStatus(
+            @Parameter(description = "Job ID", required = true)
+            @PathVariable String jobId) {
+        PdfJob job = pdfJobService.getJob(jobId);
+        if (job == null) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("error", "Job not found: " + jobId);
+            return ResponseEntity.status(404).body(error);
+        }
+        return ResponseEntity.ok(jobStatus(job));
+    }
+
+    @Operation(
+        summary = "Download the result of a render job",
+        description = "Returns the generated PDF once the job is DONE"
+    )
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "Generated PDF",
+                    content = @Content(mediaType = "application/pdf")),
+        @ApiResponse(responseCode = "404", description = "Unknown job or job not finished")
+    })
+    @GetMapping(value = "/jobs/{jobId}/result", produces = MediaType.APPLICATION_PDF_VALUE)
+    public ResponseEntity<Resource> getJobResult(
+            @Parameter(description = "Job ID", required = true)
+            @PathVariable String jobId,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+            HttpServletRequest request) {
+        PdfJob job = pdfJobService.getJob(jobId);
+        if (job == null || job.getStatus() != PdfJob.Status.DONE) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
+        }
+        Path file = Paths.get(job.getFilePath());
+        if (!Files.isRegularFile(file)) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
+        }
+        return fileResponse(file, range, request);
+    }
+
+    // Serve a stored PDF, whole or one byte range. When the connector supports sendfile, Tomcat
+    // copies the file to the socket itself (FileChannel.transferTo) once the handler returns, so
+    // the bytes never pass through the heap. Otherwise Spring streams the resource and handles
+    // Range, including multiple ranges, on its own.
+    private ResponseEntity<Resource> fileResponse(Path file, String range, HttpServletRequest request) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_PDF);
+        headers.setContentDispositionFormData("attachment", file.getFileName().toString());
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        long length;
+        try {
+            length = Files.size(file);
+            headers.setLastModified(Files.getLastModifiedTime(file).toMillis());
+        } catch (IOException e) {
+            // Swept between lookup and response
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+
+        if (!Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            return new ResponseEntity<>(new FileSystemResource(file), headers, HttpStatus.OK);
+        }
+
+        List<HttpRange> ranges;
+        try {
+            ranges = HttpRange.parseRanges(range);
+        } catch (IllegalArgumentException e) {
+            return rangeNotSatisfiable(length);
+        }
+        if (ranges.size() > 1) {
+            return new ResponseEntity<>(new FileSystemResource(file), headers, HttpStatus.OK);
+        }
+
+        long start = 0;
+        long end = length - 1;
+        HttpStatus status = HttpStatus.OK;
+        if (ranges.size() == 1) {
+            try {
+                start = ranges.get(0).getRangeStart(length);
+                end = ranges.get(0).getRangeEnd(length);
+            } catch (IllegalArgumentException e) {
+                return rangeNotSatisfiable(length);
+            }
+            if (start >= length || end < start) {
+                return rangeNotSatisfiable(length);
+            }
+            status = HttpStatus.PARTIAL_CONTENT;
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+        }
+        headers.setContentLength(end - start + 1);
+        request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+        request.setAttribute(SENDFILE_START, start);
+        request.setAttribute(SENDFILE_END, end + 1);
+        return new ResponseEntity<>(headers, status);
+    }
+
+    private static ResponseEntity<Resource> rangeNotSatisfiable(long length) {
+        return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                .header(HttpHeaders.CONTENT_RANGE, "bytes */" + length)
+                .build();
+    }
+
+    private ResponseEntity<Map<String, Object>> jobAccepted(PdfJob job) {
+        Map<String, Object> response = jobStatus(job);
+        response.put("message", "PDF job queued");
+        response.put("queueDepth", pdfJobService.getQueueDepth());
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .header(HttpHeaders.LOCATION, "/api/pdf/jobs/" + job.getId())
+                .body(response);
+    }
+
+    private ResponseEntity<Map<String, Object>> queueFull(RejectedExecutionException e) {
+        Map<String, Object> error = new HashMap<>();
+        error.put("error", e.getMessage());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, "5")
+                .body(error);
+    }
+
+    // The render's cost does not fit the admission budget now; the client is told when to come back
+    private ResponseEntity<StreamingResponseBody> overloaded(RenderAdmission.Rejected e) {
+        byte[] body = String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8);
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .contentType(MediaType.TEXT_PLAIN)
+                .contentLength(body.length)
+                .body(outputStream -> outputStream.write(body));
+    }
+
+    private ResponseEntity<Map<String, String>> overloadedJson(RenderAdmission.Rejected e) {
+        Map<String, String> error = new HashMap<>();
+        error.put("error", e.getMessage());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(error);
+    }
+
+    // Streamed bodies render after the handler returns, so the admission ticket is given back
+    // once the body has been written rather than when the response entity is built. An async
+    // request that ends otherwise (timed out, failed, or its task was never run) gives it back too
+    private static ResponseEntity<StreamingResponseBody> releaseAfter(RenderAdmission.Ticket ticket,
+                                                                      ResponseEntity<StreamingResponseBody> response) {
+        StreamingResponseBody body = response.getBody();
+        if (body == null) {
+            ticket.close();
+            return response;
+        }
+        asyncManager().registerCallableInterceptor(ticket, new CallableProcessingInterceptor() {
+            @Override
+            public <T> void afterCompletion(NativeWebRequest webRequest, Callable<T> task) {
+                ticket.close();
+            }
+        });
+        StreamingResponseBody releasing = outputStream -> {
+            try (ticket) {
+                body.writeTo(outputStream);
+            }
+        };
+        return new ResponseEntity<>(releasing, response.getHeaders(), response.getStatusCode());
+    }
+
+    // Streamed bodies are written on an async request, which the container cuts off after its
+    // default timeout. Each endpoint sets its own limit for that; 0 or less means none
+    private static void asyncTimeout(long timeoutMillis) {
+        asyncManager().registerCallableInterceptor("asyncTimeout",
+                new CallableProcessingInterceptor() {
+                    @Override
+                    public <T> void beforeConcurrentHandling(NativeWebRequest webRequest, Callable<T> task) {
+                        ((AsyncWebRequest) webRequest).setTimeout(timeoutMillis > 0 ? timeoutMillis : -1);
+                    }
+                });
+    }
+
+    private static WebAsyncManager asyncManager() {
+        HttpServletRequest request = ((ServletRequestAttributes) RequestContextHolder.currentRequestAttributes()).getRequest();
+        return WebAsyncUtils.getAsyncManager(request);
+    }
+
+    private Map<String, Object> jobStatus(PdfJob job) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("jobId", job.getId());
+        response.put("status", job.getStatus());
+        response.put("priority", job.getPriority());
+        response.put("createdAt", job.getCreatedAt());
+        response.put("statusUrl", "/api/pdf/jobs/" + job.getId());
+        if (job.getStartedAt() != null) {
+            response.put("startedAt", job.getStartedAt());
+        }
+        if (job.getFinishedAt() != null) {
+            response.put("finishedAt", job.getFinishedAt());
+        }
+        if (job.getStatus() == PdfJob.Status.DONE) {
+            response.put("filePath", job.getFilePath());
+            response.put("downloadUrl", "/api/pdf/jobs/" + job.getId() + "/result");
+        }
+        if (job.getError() != null) {
+            response.put("error", job.getError());
+        }
+        return response;
+    }
+
+    // By default the PDF is written straight to the response as it is produced (chunked, no
+    // Content-Length). Buffered mode renders it into memory first so the length is known.
+    // Either way the result is cached under the hash of the HTML, which is also sent as the ETag.
+    // onRendered, if given, is called with that hash once the PDF exists.
+    private ResponseEntity<StreamingResponseBody> pdfResponse(String html, String fileName, boolean buffered,
+                                                              String ifNoneMatch, OutputSettings settings,
+                                                              Consumer<String> onRendered)
+            throws IOException, DocumentException {
+        String key = PdfResultCache.key(html, PdfService.cacheVariant(settings));
+        if (etagMatches(ifNoneMatch, key)) {
+            return notModified(key);
+        }
+        Consumer<String> rendered = onRendered != null ? onRendered : k -> { };
+        byte[] cached = pdfResultCache.get(key);
+        if (cached != null) {
+            rendered.accept(key);
+            return bufferedResponse(cached, key, fileName);
+        }
+
+        if (buffered || !streamingEnabled) {
+            byte[] pdfBytes = pdfService.generatePdfBytesFromHtml(html, settings);
+            pdfResultCache.put(key, pdfBytes);
+            rendered.accept(key);
+            return bufferedResponse(pdfBytes, key, fileName);
+        }
+
+        HttpHeaders headers = pdfHeaders(key, fileName);
+        RenderTrace trace = RenderTrace.current();
+        StreamingResponseBody body = outputStream -> {
+            // Keep a copy of what is streamed, if it fits, so the next request is served from the cache
+            PdfResultCache.Capture capture = pdfResultCache.capture(key);
+            OutputStream target = capture == null ? outputStream : new FilterOutputStream(outputStream) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    capture.write(b, off, len);
+                }
+            };
+            BufferedOutputStream bufferedOutput = new BufferedOutputStream(target, STREAM_BUFFER_SIZE);
+            try (RenderTrace.Scope scope = trace.attach()) {
+                pdfService.writePdf(html, settings, bufferedOutput);
+            } catch (DocumentException e) {
+                throw new IOException("PDF generation failed", e);
+            }
+            bufferedOutput.flush();
+            if (capture != null) {
+                capture.commit();
+            }
+            rendered.accept(key);
+        };
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
+    }
+
+    // Large documents are always streamed as their chunks are written, and never buffered or
+    // cached, since holding the whole PDF in memory is what chunked rendering avoids
+    private ResponseEntity<StreamingResponseBody> largePdfResponse(Object data, String fileName,
+                                                                   OutputSettings settings) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_PDF);
+        headers.setContentDispositionFormData("attachment", fileName);
+        RenderTrace trace = RenderTrace.current();
+        StreamingResponseBody body = outputStream -> {
+            BufferedOutputStream bufferedOutput = new BufferedOutputStream(outputStream, STREAM_BUFFER_SIZE);
+            try (RenderTrace.Scope scope = trace.attach()) {
+                pdfService.writeLargePdf(data, "invoice", settings, bufferedOutput);
+            } catch (DocumentException e) {
+                throw new IOException("PDF generation failed", e);
+            }
+            bufferedOutput.flush();
+        };
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
+    }
+
+    // Settings for the requested output profile, recorded on the trace so every phase is tagged with it
+    private OutputSettings outputSettings(String output) {
+        OutputSettings settings = outputProfiles.resolve(output);
+        RenderTrace.current().setOutput(settings.name());
+        return settings;
+    }
+
+    private ResponseEntity<StreamingResponseBody> bufferedResponse(byte[] pdfBytes, String key, String fileName) {
+        HttpHeaders headers = pdfHeaders(key, fileName);
+        headers.setContentLength(pdfBytes.length);
+        return new ResponseEntity<>(outputStream -> outputStream.write(pdfBytes), headers, HttpStatus.OK);
+    }
+
+    private ResponseEntity<StreamingResponseBody> errorResponse(HttpStatus status, String message) {
+        byte[] body = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+        return ResponseEntity.status(status)
+                .contentType(MediaType.TEXT_PLAIN)
+                .contentLength(body.length)
+                .body(outputStream -> outputStream.write(body));
+    }
+
+    private ResponseEntity<StreamingResponseBody> notModified(String key) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag(key)).build();
+    }
+
+    private HttpHeaders pdfHeaders(String key, String fileName) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_PDF);
+        headers.setContentDispositionFormData("attachment", fileName);
+        headers.setETag(etag(key));
+        return headers;
+    }
+
+    private static String etag(String key) {
+        return "\"" + key + "\"";
+    }
+
+    // If-None-Match may list several ETags, possibly weak, or be "*"
+    private static boolean etagMatches(String ifNoneMatch, String key) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag(key))) {
+                return true;
+            }
         }
+        return false;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,86 @@
+package com.example.flyingsaucer.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes {@link RenderTrace}s: a timer per phase, size/page/item distributions per finished
+ * document and failure counts, all tagged by endpoint, template and output profile, so the size
+ * and time of standard and optimized output can be compared. Documents slower than
+ * {@code pdf.metrics.slow-render-ms} are logged with their phase breakdown.
+ */
+@Component
+public class RenderMetrics {
+
+    private static final Logger log = LoggerFactory.getLogger(RenderMetrics.class);
+
+    private final MeterRegistry meterRegistry;
+    private final long slowRenderNanos;
+
+    public RenderMetrics(MeterRegistry meterRegistry,
+                         @Value("${pdf.metrics.slow-render-ms:0}") long slowRenderMillis) {
+        this.meterRegistry = meterRegistry;
+        this.slowRenderNanos = TimeUnit.MILLISECONDS.toNanos(slowRenderMillis);
+    }
+
+    public void recordPhase(RenderTrace trace, RenderTrace.Phase phase, long nanos) {
+        trace.add(phase, nanos);
+        Timer.builder("pdf.render.phase")
+                .description("Time spent in each phase of producing a PDF")
+                .tag("phase", phase.tag())
+                .tag("endpoint", trace.getEndpoint())
+                .tag("template", trace.getTemplate())
+                .tag("output", trace.getOutput())
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    // A PDF has been written completely
+    public void recordDocument(RenderTrace trace, long bytes, int pages) {
+        summary("pdf.render.output.size", "Size of generated PDFs", "bytes", trace).record(bytes);
+        summary("pdf.render.pages", "Pages per generated PDF", "pages", trace).record(pages);
+        if (trace.getItemCount() >= 0) {
+            summary("pdf.render.items", "Invoice items per generated PDF", "items", trace).record(trace.getItemCount());
+        }
+
+        if (slowRenderNanos > 0 && trace.getTotalNanos() >= slowRenderNanos) {
+            StringJoiner phases = new StringJoiner(", ", "[", "]");
+            for (RenderTrace.Phase phase : RenderTrace.Phase.values()) {
+                phases.add(phase.tag() + "=" + TimeUnit.NANOSECONDS.toMillis(trace.getNanos(phase)) + " ms");
+            }
+            log.warn("Slow PDF render for invoice {} (endpoint={}, template={}, output={}): {} ms {}, {} pages, {} bytes, {} items",
+                    trace.getInvoiceId(), trace.getEndpoint(), trace.getTemplate(), trace.getOutput(),
+                    TimeUnit.NANOSECONDS.toMillis(trace.getTotalNanos()), phases, pages, bytes, trace.getItemCount());
+        }
+    }
+
+    public void recordFailure(RenderTrace trace, RenderTrace.Phase phase) {
+        Counter.builder("pdf.render.failures")
+                .description("PDF renders that failed, by the phase that failed")
+                .tag("phase", phase.tag())
+                .tag("endpoint", trace.getEndpoint())
+                .tag("template", trace.getTemplate())
+                .tag("output", trace.getOutput())
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private DistributionSummary summary(String name, String description, String unit, RenderTrace trace) {
+        return DistributionSummary.builder(name)
+                .description(description)
+                .baseUnit(unit)
+                .tag("endpoint", trace.getEndpoint())
+                .tag("template", trace.getTemplate())
+                .tag("output", trace.getOutput())
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.flyingsaucer.metrics;
+
+import java.util.Locale;
+
+/**
+ * Timings and facts collected while one PDF is produced. The trace is bound to the current
+ * thread, so {@code PdfService} can record phases without extra parameters; work that continues
+ * on another thread (streamed responses, batch and job workers) re-attaches it there.
+ */
+public class RenderTrace {
+
+    public enum Phase {
+        DB, TEMPLATE, PARSE, LAYOUT, WRITE;
+
+        public String tag() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * Restores whatever trace was bound before {@link #attach()} when closed.
+     */
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    public static final String NONE = "none";
+
+    private static final ThreadLocal<RenderTrace> CURRENT = new ThreadLocal<>();
+
+    private final String endpoint;
+    private final long[] phaseNanos = new long[Phase.values().length];
+    private String template = NONE;
+    private String invoiceId;
+    private int itemCount = -1;
+    private String output = NONE;
+
+    public RenderTrace(String endpoint) {
+        this.endpoint = endpoint != null ? endpoint : NONE;
+    }
+
+    /**
+     * Starts a new trace for the given endpoint and binds it to the current thread.
+     */
+    public static Scope begin(String endpoint) {
+        return new RenderTrace(endpoint).attach();
+    }
+
+    /**
+     * The trace bound to this thread, or a new unbound one when nothing is being traced.
+     */
+    public static RenderTrace current() {
+        RenderTrace trace = CURRENT.get();
+        return trace != null ? trace : new RenderTrace(NONE);
+    }
+
+    public Scope attach() {
+        RenderTrace previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        };
+    }
+
+    public synchronized void add(Phase phase, long nanos) {
+        phaseNanos[phase.ordinal()] += nanos;
+    }
+
+    public synchronized long getNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    public synchronized long getTotalNanos() {
+        long total = 0;
+        for (long nanos : phaseNanos) {
+            total += nanos;
+        }
+        return total;
+    }
+
+    public String getEndpoint() { return endpoint; }
+
+    public synchronized String getTemplate() { return template; }
+    public synchronized void setTemplate(String template) { this.template = template; }
+
+    public synchronized String getInvoiceId() { return invoiceId; }
+    public synchronized void setInvoiceId(String invoiceId) { this.invoiceId = invoiceId; }
+
+    public synchronized int getItemCount() { return itemCount; }
+    public synchronized void setItemCount(int itemCount) { this.itemCount = itemCount; }
+
+    public synchronized String getOutput() { return output; }
+    public synchronized void setOutput(String output) { this.output = output; }
+}
@@ -0,0 +1,45 @@
+package com.example.flyingsaucer.metrics;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Starts a {@link RenderTrace} for every controller call, tagged with the matched URL pattern
+ * (e.g. {@code /api/pdf/invoice/{id}}), and unbinds it when the request thread is done.
+ */
+public class RenderTraceInterceptor implements AsyncHandlerInterceptor {
+
+    private static final String SCOPE_ATTRIBUTE = RenderTraceInterceptor.class.getName() + ".scope";
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (handler instanceof HandlerMethod) {
+            Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            String endpoint = pattern != null ? pattern.toString() : request.getRequestURI();
+            request.setAttribute(SCOPE_ATTRIBUTE, RenderTrace.begin(endpoint));
+        }
+        return true;
+    }
+
+    // Streaming responses continue on another thread, which attaches the trace itself
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        unbind(request);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        unbind(request);
+    }
+
+    private static void unbind(HttpServletRequest request) {
+        Object scope = request.getAttribute(SCOPE_ATTRIBUTE);
+        if (scope instanceof RenderTrace.Scope) {
+            request.removeAttribute(SCOPE_ATTRIBUTE);
+            ((RenderTrace.Scope) scope).close();
+        }
+    }
+}
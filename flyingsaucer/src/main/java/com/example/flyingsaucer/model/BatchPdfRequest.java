@@ -0,0 +1,40 @@
+package com.example.flyingsaucer.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.util.List;
+
+
+@Schema(description = "Request object for rendering many invoices in one call. Set exactly one of invoiceIds, requests or fromDate/toDate")
+public class BatchPdfRequest {
+
+    @Schema(description = "Database IDs of the invoices to render", example = "[1, 2, 3]")
+    private List<Long> invoiceIds;
+
+    @Schema(description = "Invoice data to render directly, without the database")
+    private List<PdfRequest> requests;
+
+    @Schema(description = "Render every stored invoice dated on or after this day (YYYY-MM-DD)", example = "2024-01-01")
+    private String fromDate;
+
+    @Schema(description = "Render every stored invoice dated on or before this day (YYYY-MM-DD)", example = "2024-01-31")
+    private String toDate;
+
+    @Schema(description = "Return one merged PDF instead of a ZIP with one PDF per invoice", example = "false")
+    private boolean merge;
+
+    // Getters and Setters
+    public List<Long> getInvoiceIds() { return invoiceIds; }
+    public void setInvoiceIds(List<Long> invoiceIds) { this.invoiceIds = invoiceIds; }
+
+    public List<PdfRequest> getRequests() { return requests; }
+    public void setRequests(List<PdfRequest> requests) { this.requests = requests; }
+
+    public String getFromDate() { return fromDate; }
+    public void setFromDate(String fromDate) { this.fromDate = fromDate; }
+
+    public String getToDate() { return toDate; }
+    public void setToDate(String toDate) { this.toDate = toDate; }
+
+    public boolean isMerge() { return merge; }
+    public void setMerge(boolean merge) { this.merge = merge; }
+}
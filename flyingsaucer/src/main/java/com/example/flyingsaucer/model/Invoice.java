@@ -2,6 +2,7 @@ package com.example.flyingsaucer.model;
 
 import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.persistence.*;
+import org.hibernate.annotations.BatchSize;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.List;
@@ -12,7 +13,8 @@ import java.util.List;
 public class Invoice {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "invoices_seq")
+    @SequenceGenerator(name = "invoices_seq", sequenceName = "invoices_seq", allocationSize = 50)
     @Schema(description = "Unique identifier of the invoice", example = "1", accessMode = Schema.AccessMode.READ_ONLY)
     private Long id;
 
@@ -32,7 +34,10 @@ public class Invoice {
     @Schema(description = "Total amount of the invoice", example = "299.99", required = true)
     private BigDecimal totalAmount;
 
-    @OneToMany(cascade = CascadeType.ALL, fetch = FetchType.EAGER, mappedBy = "invoice")
+    // Loaded on demand; render paths fetch items together with the invoice (see InvoiceRepository)
+    @OneToMany(cascade = CascadeType.ALL, fetch = FetchType.LAZY, mappedBy = "invoice")
+    @OrderBy("id")
+    @BatchSize(size = 100)
     @Schema(description = "List of items included in the invoice")
     private List<InvoiceItem> items;
 
@@ -10,7 +10,8 @@ import java.math.BigDecimal;
 public class InvoiceItem {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "invoice_items_seq")
+    @SequenceGenerator(name = "invoice_items_seq", sequenceName = "invoice_items_seq", allocationSize = 50)
     @Schema(description = "Unique identifier of the invoice item", example = "1", accessMode = Schema.AccessMode.READ_ONLY)
     private Long id;
 
@@ -23,7 +24,7 @@ public class InvoiceItem {
     @Schema(description = "Price per unit of the item", example = "99.99", required = true)
     private BigDecimal price;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "invoice_id", nullable = false)
     @Schema(description = "Parent invoice that contains this item", accessMode = Schema.AccessMode.READ_ONLY)
     private Invoice invoice;
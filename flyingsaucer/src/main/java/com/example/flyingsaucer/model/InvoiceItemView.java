@@ -0,0 +1,9 @@
+package com.example.flyingsaucer.model;
+
+import java.math.BigDecimal;
+
+/**
+ * Read-only line of an {@link InvoiceView}.
+ */
+public record InvoiceItemView(String name, int quantity, BigDecimal price) {
+}
@@ -0,0 +1,12 @@
+package com.example.flyingsaucer.model;
+
+/**
+ * A stored invoice and its PDF, rendered to memory under the given result cache key. Large
+ * invoices have neither key nor PDF, as they are streamed chunk by chunk rather than held in memory.
+ */
+public record InvoicePdf(InvoiceView invoice, String key, byte[] pdf) {
+
+    public boolean isLargeDocument() {
+        return pdf == null;
+    }
+}
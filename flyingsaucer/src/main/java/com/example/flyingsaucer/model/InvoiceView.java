@@ -0,0 +1,13 @@
+package com.example.flyingsaucer.model;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Read-only copy of an invoice for rendering. Loaded with a constructor query, so nothing ends
+ * up in the persistence context to be snapshotted, dirty-checked or lazily loaded later.
+ */
+public record InvoiceView(Long id, String invoiceId, String customerName, LocalDate date,
+                          BigDecimal totalAmount, List<InvoiceItemView> items) {
+}
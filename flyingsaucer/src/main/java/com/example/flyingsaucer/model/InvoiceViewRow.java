@@ -0,0 +1,12 @@
+package com.example.flyingsaucer.model;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * One row of the joined invoice and item select behind {@link InvoiceView}. The item columns
+ * are null for an invoice without items.
+ */
+public record InvoiceViewRow(Long id, String invoiceId, String customerName, LocalDate date, BigDecimal totalAmount,
+                             Long itemId, String itemName, Integer quantity, BigDecimal price) {
+}
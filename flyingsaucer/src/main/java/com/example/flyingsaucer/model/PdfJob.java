@@ -0,0 +1,73 @@
+package com.example.flyingsaucer.model;
+
+import java.time.Instant;
+import java.util.concurrent.Callable;
+
+/**
+ * An asynchronous PDF render queued by {@code PdfJobService}. The task produces the path of the
+ * generated file; status fields are updated by the worker thread and read by status requests.
+ */
+public class PdfJob implements Comparable<PdfJob> {
+
+    public enum Status { QUEUED, RUNNING, DONE, FAILED }
+
+    private final String id;
+    private final int priority;
+    private final long sequence;
+    private final Callable<String> task;
+    private final Instant createdAt = Instant.now();
+    private final long createdNanos = System.nanoTime();
+
+    private volatile Status status = Status.QUEUED;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile String filePath;
+    private volatile String error;
+
+    public PdfJob(String id, int priority, long sequence, Callable<String> task) {
+        this.id = id;
+        this.priority = priority;
+        this.sequence = sequence;
+        this.task = task;
+    }
+
+    // Higher priority first, then first come first served
+    @Override
+    public int compareTo(PdfJob other) {
+        int byPriority = Integer.compare(other.priority, priority);
+        return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+    }
+
+    public void markRunning() {
+        startedAt = Instant.now();
+        status = Status.RUNNING;
+    }
+
+    public void markDone(String filePath) {
+        this.filePath = filePath;
+        finishedAt = Instant.now();
+        status = Status.DONE;
+    }
+
+    public void markFailed(String error) {
+        this.error = error;
+        finishedAt = Instant.now();
+        status = Status.FAILED;
+    }
+
+    public boolean isFinished() {
+        return status == Status.DONE || status == Status.FAILED;
+    }
+
+    // Getters
+    public String getId() { return id; }
+    public int getPriority() { return priority; }
+    public Callable<String> getTask() { return task; }
+    public Instant getCreatedAt() { return createdAt; }
+    public long getCreatedNanos() { return createdNanos; }
+    public Status getStatus() { return status; }
+    public Instant getStartedAt() { return startedAt; }
+    public Instant getFinishedAt() { return finishedAt; }
+    public String getFilePath() { return filePath; }
+    public String getError() { return error; }
+}
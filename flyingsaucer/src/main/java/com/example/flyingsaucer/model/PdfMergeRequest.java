@@ -0,0 +1,28 @@
+package com.example.flyingsaucer.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.util.List;
+
+
+@Schema(description = "Request object for merging already rendered PDFs into one document. Stored files come first, then invoices, each in the order given")
+public class PdfMergeRequest {
+
+    @Schema(description = "Names of PDFs returned by generate-with-link", example = "[\"invoice_1.pdf\"]")
+    private List<String> files;
+
+    @Schema(description = "Database IDs of invoices; their cached PDF is used, or they are rendered once", example = "[1, 2, 3]")
+    private List<Long> invoiceIds;
+
+    @Schema(description = "File name of the merged PDF", example = "statement.pdf")
+    private String fileName;
+
+    // Getters and Setters
+    public List<String> getFiles() { return files; }
+    public void setFiles(List<String> files) { this.files = files; }
+
+    public List<Long> getInvoiceIds() { return invoiceIds; }
+    public void setInvoiceIds(List<Long> invoiceIds) { this.invoiceIds = invoiceIds; }
+
+    public String getFileName() { return fileName; }
+    public void setFileName(String fileName) { this.fileName = fileName; }
+}
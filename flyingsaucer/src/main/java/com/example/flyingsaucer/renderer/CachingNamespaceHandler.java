@@ -0,0 +1,42 @@
+package com.example.flyingsaucer.renderer;
+
+import org.w3c.dom.Document;
+import org.xhtmlrenderer.css.sheet.Stylesheet;
+import org.xhtmlrenderer.css.sheet.StylesheetInfo;
+import org.xhtmlrenderer.extend.UserAgentCallback;
+import org.xhtmlrenderer.simple.extend.XhtmlNamespaceHandler;
+
+/**
+ * XHTML namespace handler that attaches already parsed stylesheets from the shared
+ * {@link StylesheetCache} to the document's {@code <link>} references, so Flying Saucer
+ * skips loading and parsing them.
+ */
+public class CachingNamespaceHandler extends XhtmlNamespaceHandler {
+
+    private final StylesheetCache stylesheetCache;
+    private final UserAgentCallback userAgent;
+
+    public CachingNamespaceHandler(StylesheetCache stylesheetCache, UserAgentCallback userAgent) {
+        this.stylesheetCache = stylesheetCache;
+        this.userAgent = userAgent;
+    }
+
+    @Override
+    public StylesheetInfo[] getStylesheets(Document doc) {
+        StylesheetInfo[] infos = super.getStylesheets(doc);
+        for (StylesheetInfo info : infos) {
+            if (info.isInline() || info.getUri() == null) {
+                continue;
+            }
+            String uri = userAgent.resolveURI(info.getUri());
+            if (uri == null) {
+                continue;
+            }
+            Stylesheet stylesheet = stylesheetCache.get(uri, info.getOrigin(), userAgent);
+            if (stylesheet != null) {
+                info.setStylesheet(stylesheet);
+            }
+        }
+        return infos;
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.flyingsaucer.renderer;
+
+import com.itextpdf.text.Image;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xhtmlrenderer.extend.FSImage;
+import org.xhtmlrenderer.pdf.ITextFSImage;
+import org.xhtmlrenderer.pdf.ITextOutputDevice;
+import org.xhtmlrenderer.pdf.ITextUserAgent;
+import org.xhtmlrenderer.resource.CSSResource;
+import org.xhtmlrenderer.resource.ImageResource;
+import org.xhtmlrenderer.util.ImageUtil;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * User agent that serves images, stylesheets and other binaries from the shared
+ * {@link ResourceCache}, so every pooled renderer reads and decodes a resource only once.
+ * <p>
+ * It also understands the {@code classpath:} URLs used by the templates, which the stock
+ * user agent cannot open.
+ */
+public class CachingUserAgent extends ITextUserAgent {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingUserAgent.class);
+
+    private static final String CLASSPATH_PREFIX = "classpath:";
+    private static final byte[] PDF_MAGIC = "%PDF".getBytes(StandardCharsets.US_ASCII);
+
+    private final ResourceCache resourceCache;
+
+    public CachingUserAgent(ITextOutputDevice outputDevice, ResourceCache resourceCache) {
+        super(outputDevice);
+        this.resourceCache = resourceCache;
+    }
+
+    @Override
+    public ImageResource getImageResource(String uri) {
+        if (ImageUtil.isEmbeddedBase64Image(uri)) {
+            return super.getImageResource(uri);
+        }
+        String resolved = resolveURI(uri);
+        ITextFSImage image = null;
+        try {
+            image = resourceCache.get(ResourceCache.imageKey(resolved), () -> loadImage(resolved), CachingUserAgent::weigh);
+        } catch (Exception e) {
+            log.warn("Can't read image '{}'", resolved, e);
+        }
+        if (image == null) {
+            // PDFs used as images and unreadable files take the stock path
+            return super.getImageResource(uri);
+        }
+        // Layout scales images in place, so every document gets its own copy
+        return new ImageResource(resolved, (FSImage) image.clone());
+    }
+
+    /**
+     * Returns the image at the URI resampled to the given size in pixels and sized to the given
+     * displayed size in dots, or null if it cannot be decoded. The resampled image is cached, so
+     * each source image is downsampled once per size and quality. Opaque images are re-encoded as
+     * JPEG when a quality is given; everything else stays lossless.
+     */
+    public FSImage getDownsampledImage(String uri, int width, int height, float jpegQuality, int compressionLevel,
+                                       float displayWidth, float displayHeight) {
+        String resolved = resolveURI(uri);
+        if (resolved == null) {
+            return null;
+        }
+        String key = ResourceCache.downsampledImageKey(resolved, width, height, jpegQuality, compressionLevel);
+        ITextFSImage image = null;
+        try {
+            image = resourceCache.get(key, () -> downsample(resolved, width, height, jpegQuality, compressionLevel),
+                    CachingUserAgent::weigh);
+        } catch (Exception e) {
+            log.warn("Can't downsample image '{}'", resolved, e);
+        }
+        if (image == null) {
+            return null;
+        }
+        // Clones keep the serial id, so a document that shows the image many times embeds it once
+        ITextFSImage copy = (ITextFSImage) image.clone();
+        copy.getImage().scaleAbsolute(displayWidth, displayHeight);
+        return copy;
+    }
+
+    @Override
+    public CSSResource getCSSResource(String uri) {
+        byte[] css = getCachedBytes(uri);
+        if (css == null) {
+            return super.getCSSResource(uri);
+        }
+        return new CSSResource(new ByteArrayInputStream(css));
+    }
+
+    @Override
+    public byte[] getBinaryResource(String uri) {
+        byte[] bytes = getCachedBytes(uri);
+        return bytes != null ? bytes : super.getBinaryResource(uri);
+    }
+
+    @Override
+    protected InputStream openStream(String uri) throws IOException {
+        if (uri.startsWith(CLASSPATH_PREFIX)) {
+            String path = uri.substring(CLASSPATH_PREFIX.length());
+            if (path.startsWith("/")) {
+                path = path.substring(1);
+            }
+            InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(path);
+            if (is == null) {
+                is = CachingUserAgent.class.getClassLoader().getResourceAsStream(path);
+            }
+            if (is == null) {
+                throw new FileNotFoundException(uri);
+            }
+            return is;
+        }
+        return super.openStream(uri);
+    }
+
+    private byte[] getCachedBytes(String uri) {
+        String resolved = resolveURI(uri);
+        if (resolved == null) {
+            return null;
+        }
+        try {
+            return resourceCache.get(ResourceCache.bytesKey(resolved), () -> readResource(resolved), bytes -> bytes.length);
+        } catch (Exception e) {
+            log.warn("Can't read resource '{}'", resolved, e);
+            return null;
+        }
+    }
+
+    private byte[] readResource(String resolved) throws IOException {
+        InputStream is = resolveAndOpenStream(resolved);
+        if (is == null) {
+            return null;
+        }
+        try (is) {
+            return is.readAllBytes();
+        }
+    }
+
+    private ITextFSImage loadImage(String resolved) throws Exception {
+        byte[] bytes = readResource(resolved);
+        if (bytes == null || startsWith(bytes, PDF_MAGIC)) {
+            return null;
+        }
+        Image image = Image.getInstance(bytes);
+        float factor = getSharedContext().getDotsPerPixel();
+        if (factor != 1.0f) {
+            image.scaleAbsolute(image.getPlainWidth() * factor, image.getPlainHeight() * factor);
+        }
+        return new ITextFSImage(image);
+    }
+
+    private ITextFSImage downsample(String resolved, int width, int height, float jpegQuality,
+                                    int compressionLevel) throws Exception {
+        byte[] bytes = getCachedBytes(resolved);
+        if (bytes == null) {
+            return null;
+        }
+        BufferedImage source = ImageIO.read(new ByteArrayInputStream(bytes));
+        if (source == null) {
+            return null;
+        }
+        boolean opaque = !source.getColorModel().hasAlpha();
+        BufferedImage scaled = resample(source, width, height, opaque);
+
+        Image image;
+        if (opaque && jpegQuality > 0) {
+            image = Image.getInstance(encodeJpeg(scaled, jpegQuality));
+        } else {
+            image = Image.getInstance(scaled, null);
+            image.setCompressionLevel(compressionLevel);
+        }
+        return new ITextFSImage(image);
+    }
+
+    // Halve the image until it is within twice the target, then scale the rest of the way, which
+    // keeps bilinear filtering from skipping source pixels on large reductions
+    private static BufferedImage resample(BufferedImage source, int width, int height, boolean opaque) {
+        BufferedImage current = source;
+        int currentWidth = source.getWidth();
+        int currentHeight = source.getHeight();
+        do {
+            currentWidth = Math.max(width, currentWidth / 2);
+            currentHeight = Math.max(height, currentHeight / 2);
+            BufferedImage step = new BufferedImage(currentWidth, currentHeight,
+                    opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+            Graphics2D graphics = step.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = step;
+        } while (currentWidth > width || currentHeight > height);
+        return current;
+    }
+
+    private static byte[] encodeJpeg(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(bytes)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(Math.min(quality, 1f));
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static long weigh(ITextFSImage image) {
+        byte[] raw = image.getImage().getRawData();
+        if (raw != null) {
+            return raw.length;
+        }
+        return (long) image.getImage().getWidth() * (long) image.getImage().getHeight() * 4;
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        if (bytes.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
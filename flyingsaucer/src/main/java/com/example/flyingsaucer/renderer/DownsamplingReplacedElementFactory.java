@@ -0,0 +1,60 @@
+package com.example.flyingsaucer.renderer;
+
+import org.w3c.dom.Element;
+import org.xhtmlrenderer.extend.FSImage;
+import org.xhtmlrenderer.extend.ReplacedElement;
+import org.xhtmlrenderer.extend.UserAgentCallback;
+import org.xhtmlrenderer.layout.LayoutContext;
+import org.xhtmlrenderer.pdf.ITextFSImage;
+import org.xhtmlrenderer.pdf.ITextImageElement;
+import org.xhtmlrenderer.pdf.ITextOutputDevice;
+import org.xhtmlrenderer.pdf.ITextReplacedElementFactory;
+import org.xhtmlrenderer.render.BlockBox;
+
+/**
+ * Replaced element factory that, when the output settings have an image DPI, swaps each {@code <img>} for a copy
+ * downsampled to the pixels it needs at its displayed size. The size is only known here, after
+ * CSS has been applied; the downsampled images come from the {@link CachingUserAgent}, which
+ * keeps one per source image and size.
+ */
+public class DownsamplingReplacedElementFactory extends ITextReplacedElementFactory {
+
+    private static final float POINTS_PER_INCH = 72f;
+
+    private final ITextOutputDevice outputDevice;
+    private OutputSettings settings = OutputSettings.STANDARD;
+
+    public DownsamplingReplacedElementFactory(ITextOutputDevice outputDevice) {
+        super(outputDevice);
+        this.outputDevice = outputDevice;
+    }
+
+    public void setOutputSettings(OutputSettings settings) {
+        this.settings = settings;
+    }
+
+    @Override
+    public ReplacedElement createReplacedElement(LayoutContext context, BlockBox box, UserAgentCallback userAgent,
+                                                 int cssWidth, int cssHeight) {
+        ReplacedElement element = super.createReplacedElement(context, box, userAgent, cssWidth, cssHeight);
+        int imageDpi = settings.imageDpi();
+        if (imageDpi <= 0 || !(element instanceof ITextImageElement imageElement)
+                || !(imageElement.getImage() instanceof ITextFSImage image)
+                || !(userAgent instanceof CachingUserAgent cachingUserAgent)) {
+            return element;
+        }
+
+        // Displayed size is in dots; convert to the pixels needed at the target resolution
+        float dotsPerPixel = outputDevice.getDotsPerPoint() * POINTS_PER_INCH / imageDpi;
+        int width = Math.max(1, Math.round(image.getWidth() / dotsPerPixel));
+        int height = Math.max(1, Math.round(image.getHeight() / dotsPerPixel));
+        if (width >= image.getImage().getWidth() && height >= image.getImage().getHeight()) {
+            return element;
+        }
+
+        Element img = box.getElement();
+        FSImage downsampled = cachingUserAgent.getDownsampledImage(img.getAttribute("src"), width, height,
+                settings.jpegQuality(), settings.compressionLevel(), image.getWidth(), image.getHeight());
+        return downsampled != null ? new ITextImageElement(downsampled) : element;
+    }
+}
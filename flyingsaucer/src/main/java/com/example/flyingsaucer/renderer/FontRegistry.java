@@ -0,0 +1,116 @@
+package com.example.flyingsaucer.renderer;
+
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.pdf.BaseFont;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.xhtmlrenderer.pdf.ITextFontResolver;
+import org.xhtmlrenderer.pdf.TrueTypeUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+/**
+ * Loads the custom fonts under {@code pdf.fonts.dir} once at startup, and those of templates as
+ * they are registered. The {@link BaseFont}s are
+ * created through iText's font cache, so when each pooled renderer registers them later it gets
+ * the already parsed fonts and adding branded fonts does not add font parsing to each render.
+ */
+@Component
+public class FontRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(FontRegistry.class);
+
+    private final String fontDirectory;
+    private final boolean embedded;
+    private final List<String> fontPaths = new CopyOnWriteArrayList<>();
+    private final Set<String> familyNames = Collections.synchronizedSet(new LinkedHashSet<>());
+
+    public FontRegistry(@Value("${pdf.fonts.dir:}") String fontDirectory,
+                        @Value("${pdf.fonts.embedded:true}") boolean embedded) {
+        this.fontDirectory = fontDirectory;
+        this.embedded = embedded;
+    }
+
+    @PostConstruct
+    public void load() throws IOException {
+        if (fontDirectory == null || fontDirectory.isBlank()) {
+            return;
+        }
+        Path dir = Paths.get(fontDirectory);
+        if (!Files.isDirectory(dir)) {
+            log.warn("Font directory {} does not exist, no custom fonts registered", dir.toAbsolutePath());
+            return;
+        }
+        addFonts(dir);
+    }
+
+    /**
+     * Loads the fonts under a directory that are not registered yet and returns how many were
+     * added. Renderers created before this only see them once the pool replaces them.
+     */
+    public synchronized int addFonts(Path dir) throws IOException {
+        long start = System.nanoTime();
+        int fonts = 0;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.filter(Files::isRegularFile).sorted().toList()) {
+                String lower = path.getFileName().toString().toLowerCase(Locale.ROOT);
+                if (fontPaths.contains(path.toString()) || fontPaths.contains(path + ",0")) {
+                    continue;
+                }
+                try {
+                    if (lower.endsWith(".ttf") || lower.endsWith(".otf")) {
+                        addTrueTypeFont(path.toString());
+                        fonts++;
+                    } else if (lower.endsWith(".ttc")) {
+                        String[] names = BaseFont.enumerateTTCNames(path.toString());
+                        for (int i = 0; i < names.length; i++) {
+                            addTrueTypeFont(path + "," + i);
+                            fonts++;
+                        }
+                    }
+                } catch (Exception e) {
+                    log.warn("Skipping font {}: {}", path, e.getMessage());
+                }
+            }
+        }
+        if (fonts > 0) {
+            log.info("Registered {} fonts in {} families from {} in {} ms", fonts, familyNames.size(),
+                    dir.toAbsolutePath(), (System.nanoTime() - start) / 1_000_000);
+        }
+        return fonts;
+    }
+
+    /**
+     * Adds every registered font to a renderer's font resolver.
+     */
+    public void registerWith(ITextFontResolver fontResolver) throws DocumentException, IOException {
+        for (String path : fontPaths) {
+            fontResolver.addFont(path, BaseFont.IDENTITY_H, embedded);
+        }
+    }
+
+    public Set<String> getFamilyNames() {
+        return familyNames;
+    }
+
+    private void addTrueTypeFont(String path) throws DocumentException, IOException {
+        // cached = true keeps the parsed font in iText's process-wide font cache
+        BaseFont font = BaseFont.createFont(path, BaseFont.IDENTITY_H, embedded, true, null, null);
+        familyNames.addAll(Arrays.asList(TrueTypeUtil.getFamilyNames(font)));
+        fontPaths.add(path);
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.flyingsaucer.renderer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The output settings a request can choose by name: {@code standard} writes PDFs as Flying Saucer
+ * does out of the box, {@code optimized} applies the {@code pdf.output.optimized.*} settings
+ * (including stamping page furniture on every page, which changes the layout).
+ * Requests that do not choose get {@code pdf.output.default}.
+ */
+@Component
+public class OutputProfiles {
+
+    private final OutputSettings optimized;
+    private final OutputSettings defaultSettings;
+
+    public OutputProfiles(@Value("${pdf.output.optimized.compression-level:9}") int compressionLevel,
+                          @Value("${pdf.output.optimized.image-dpi:150}") int imageDpi,
+                          @Value("${pdf.output.optimized.jpeg-quality:0}") float jpegQuality,
+                          @Value("${pdf.output.optimized.object-streams:true}") boolean objectStreams,
+                          @Value("${pdf.output.optimized.page-furniture:true}") boolean pageFurniture,
+                          @Value("${pdf.output.default:standard}") String defaultProfile) {
+        this.optimized = new OutputSettings("optimized", compressionLevel, imageDpi, jpegQuality, objectStreams,
+                pageFurniture);
+        this.defaultSettings = byName(defaultProfile);
+    }
+
+    public OutputSettings getDefault() {
+        return defaultSettings;
+    }
+
+    // Every profile, for callers that exercise each one (start-up warm-up)
+    public List<OutputSettings> getAll() {
+        return List.of(OutputSettings.STANDARD, optimized);
+    }
+
+    /**
+     * Settings for the named profile, or the default for a null or empty name.
+     *
+     * @throws IllegalArgumentException for an unknown profile
+     */
+    public OutputSettings resolve(String name) {
+        if (name == null || name.isBlank()) {
+            return defaultSettings;
+        }
+        return byName(name);
+    }
+
+    private OutputSettings byName(String name) {
+        switch (name.trim().toLowerCase(Locale.ROOT)) {
+            case "standard":
+                return OutputSettings.STANDARD;
+            case "optimized":
+                return optimized;
+            default:
+                throw new IllegalArgumentException("Unknown output profile '" + name + "', expected standard or optimized");
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.flyingsaucer.renderer;
+
+/**
+ * How a PDF is written, independently of its content.
+ *
+ * @param name             profile name, used in metrics and cache keys
+ * @param compressionLevel zlib level for page and image streams (0-9, -1 = iText's default)
+ * @param imageDpi         downsample images to this resolution at their displayed size (0 = keep original pixels)
+ * @param jpegQuality      re-encode downsampled opaque images as JPEG at this quality (0-1, 0 = keep lossless)
+ * @param objectStreams    pack objects into PDF 1.5 object streams with a compressed cross-reference stream
+ * @param pageFurniture    lay out the document's header and footer once and stamp them on every page
+ *                         (see {@link PageFurniture})
+ */
+public record OutputSettings(String name, int compressionLevel, int imageDpi, float jpegQuality, boolean objectStreams,
+                             boolean pageFurniture) {
+
+    public static final OutputSettings STANDARD = new OutputSettings("standard", -1, 0, 0f, false, false);
+
+    /**
+     * Identifies the settings in cache keys, so PDFs written differently are cached apart.
+     */
+    public String variant() {
+        return "compression=" + compressionLevel + ";dpi=" + imageDpi + ";jpeg=" + jpegQuality
+                + ";objstm=" + objectStreams + ";furniture=" + pageFurniture;
+    }
+}
@@ -0,0 +1,386 @@
+package com.example.flyingsaucer.renderer;
+
+import com.itextpdf.text.Document;
+import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfImportedPage;
+import com.itextpdf.text.pdf.PdfPageEventHelper;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xhtmlrenderer.css.style.CalculatedStyle;
+import org.xhtmlrenderer.layout.LayoutContext;
+import org.xhtmlrenderer.pdf.ITextRenderer;
+import org.xhtmlrenderer.render.Box;
+import org.xhtmlrenderer.render.PageBox;
+import org.xhtmlrenderer.util.XRRuntimeException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Header and footer regions that are the same on every page, laid out once and stamped on each
+ * page as PDF form XObjects. A template marks them with {@code data-pdf-furniture="header"} and
+ * {@code data-pdf-furniture="footer"}; their content must not depend on the document's data.
+ * <p>
+ * {@link #extract} takes the regions out of a parsed document and reserves room for them with
+ * {@code @page} margins, so only the variable content is laid out. The regions themselves are laid
+ * out into a small two-page PDF (header on the first page, footer on the second) the first time
+ * their markup is seen with given output settings; that PDF is kept in a small LRU cache, so a
+ * template change simply produces a new entry. Documents that need a layout already in progress
+ * wait for it rather than laying out the same furniture again. While the document is written,
+ * {@link Stamp} imports both pages once and draws them on every page by reference.
+ */
+@Component
+public class PageFurniture {
+
+    public static final String ATTRIBUTE = "data-pdf-furniture";
+
+    /**
+     * A laid out header and footer and where they go on the page, in points.
+     *
+     * @param pdf           the furniture PDF: the header page, then the footer page (either may be missing)
+     * @param headerPage    page of the header in {@code pdf}, 0 when there is none
+     * @param footerPage    page of the footer in {@code pdf}, 0 when there is none
+     * @param marginTop     page margin above the content, to which the header height is added
+     * @param marginBottom  page margin below the content, to which the footer height is added
+     * @param headerHeight  room the header takes at the top of every page
+     * @param footerHeight  room the footer takes at the bottom of every page
+     * @param footerOffset  vertical shift moving the footer from the top of its page to the bottom
+     */
+    public record Layout(byte[] pdf, int headerPage, int footerPage, float marginTop, float marginBottom,
+                         float headerHeight, float footerHeight, float footerOffset) {
+
+        // Page rule appended to the document, making room for the furniture on every page
+        String pageRule() {
+            return String.format(Locale.ROOT, "@page { margin-top: %.2fpt; margin-bottom: %.2fpt; }",
+                    marginTop + headerHeight, marginBottom + footerHeight);
+        }
+    }
+
+    private final RendererPool rendererPool;
+    private final RenderPermits renderPermits;
+    // Layouts in progress are cached too, so concurrent cold renders of a template lay it out once
+    private final Map<String, CompletableFuture<Layout>> layouts;
+    private final Timer layoutTimer;
+    private final Counter hits;
+
+    public PageFurniture(RendererPool rendererPool, RenderPermits renderPermits, MeterRegistry meterRegistry,
+                         @Value("${pdf.furniture.cache-entries:16}") int cacheEntries) {
+        this.rendererPool = rendererPool;
+        this.renderPermits = renderPermits;
+        this.layouts = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<Layout>> eldest) {
+                return size() > cacheEntries;
+            }
+        };
+        this.layoutTimer = Timer.builder("pdf.furniture.layouts")
+                .description("Header and footer layouts; one per template version and output profile")
+                .register(meterRegistry);
+        this.hits = Counter.builder("pdf.furniture.reuses")
+                .description("Documents that reused an already laid out header and footer")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Removes the furniture regions from the document and adds a page rule that leaves room for
+     * them. Lays the regions out first if their markup has not been seen with these settings.
+     * Must be called before a renderer is borrowed for the document itself, as the layout borrows
+     * one of its own.
+     *
+     * @return where to stamp the furniture, or {@code null} when the document has none
+     */
+    public Layout extract(org.w3c.dom.Document document, String baseUrl, OutputSettings settings)
+            throws IOException {
+        Element header = find(document, "header");
+        Element footer = find(document, "footer");
+        if (header == null && footer == null) {
+            return null;
+        }
+
+        String key = key(document, header, footer, baseUrl, settings);
+        CompletableFuture<Layout> future;
+        boolean leader = false;
+        synchronized (layouts) {
+            future = layouts.get(key);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                layouts.put(key, future);
+                leader = true;
+            }
+        }
+        Layout layout;
+        if (leader) {
+            try {
+                long start = System.nanoTime();
+                layout = layOut(document, header, footer, baseUrl, settings);
+                layoutTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                future.complete(layout);
+            } catch (Throwable t) {
+                // Waiting documents fail the same way; the next one tries again
+                synchronized (layouts) {
+                    layouts.remove(key, future);
+                }
+                future.completeExceptionally(t);
+                throw t;
+            }
+        } else {
+            hits.increment();
+            layout = await(future);
+        }
+
+        for (Element region : new Element[]{header, footer}) {
+            if (region != null) {
+                region.getParentNode().removeChild(region);
+            }
+        }
+        Element style = document.createElement("style");
+        style.setAttribute("type", "text/css");
+        style.setTextContent(layout.pageRule());
+        head(document).appendChild(style);
+        return layout;
+    }
+
+    private static Layout await(CompletableFuture<Layout> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the page furniture layout", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException exception) {
+                throw exception;
+            }
+            if (cause instanceof RuntimeException exception) {
+                throw exception;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new XRRuntimeException("Can't lay out the page furniture. " + cause.getMessage(), cause);
+        }
+    }
+
+    // Forget all layouts, e.g. after the stylesheets or images they use have changed
+    public void clear() {
+        synchronized (layouts) {
+            layouts.clear();
+        }
+    }
+
+    // Lay out a copy of the document holding only the furniture: the header on page 1, the footer on page 2
+    private Layout layOut(org.w3c.dom.Document document, Element header, Element footer, String baseUrl,
+                          OutputSettings settings) throws IOException {
+        org.w3c.dom.Document copy = (org.w3c.dom.Document) document.cloneNode(true);
+        Element body = (Element) copy.getElementsByTagName("body").item(0);
+        while (body.getFirstChild() != null) {
+            body.removeChild(body.getFirstChild());
+        }
+        // overflow:hidden keeps each region's margins inside its wrapper, so they are measured with it
+        Element headerWrapper = header != null ? wrap(copy, body, header, "overflow: hidden;") : null;
+        Element footerWrapper = footer != null
+                ? wrap(copy, body, footer, "overflow: hidden;" + (header != null ? " page-break-before: always;" : ""))
+                : null;
+
+        RendererPool.Lease lease;
+        try {
+            lease = rendererPool.borrow();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a PDF renderer", e);
+        }
+        try (RenderPermits.Permit permit = renderPermits.acquire()) {
+            lease.setOutputSettings(settings);
+            lease.setDocument(copy, baseUrl);
+            ITextRenderer renderer = lease.getRenderer();
+            renderer.layout();
+            ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+            renderer.createPDF(pdf);
+
+            float dotsPerPoint = renderer.getDotsPerPoint();
+            LayoutContext context = renderer.getSharedContext().newLayoutContextInstance();
+            List<?> pages = renderer.getRootBox().getLayer().getPages();
+            PageBox first = (PageBox) pages.get(0);
+            float pageHeight = first.getHeight(context) / dotsPerPoint;
+            float marginTop = first.getMarginBorderPadding(context, CalculatedStyle.TOP) / dotsPerPoint;
+            float marginBottom = first.getMarginBorderPadding(context, CalculatedStyle.BOTTOM) / dotsPerPoint;
+
+            // Header: from the top of the content area to the bottom of its margin box
+            float headerHeight = 0;
+            if (headerWrapper != null) {
+                Box box = box(renderer, headerWrapper);
+                headerHeight = (box.getAbsY() + box.getHeight() - first.getTop()) / dotsPerPoint;
+            }
+            // Footer: its margin box, moved down so its bottom sits on the bottom margin
+            float footerHeight = 0;
+            float footerOffset = 0;
+            int footerPage = 0;
+            if (footerWrapper != null) {
+                footerPage = header != null ? 2 : 1;
+                PageBox page = (PageBox) pages.get(footerPage - 1);
+                Box box = box(renderer, footerWrapper);
+                float top = (box.getAbsY() - page.getTop()) / dotsPerPoint;
+                footerHeight = box.getHeight() / dotsPerPoint;
+                float bottomInPdf = pageHeight - marginTop - top - footerHeight;
+                footerOffset = marginBottom - bottomInPdf;
+            }
+            return new Layout(pdf.toByteArray(), header != null ? 1 : 0, footerPage, marginTop, marginBottom,
+                    headerHeight, footerHeight, footerOffset);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a CPU permit", e);
+        } catch (IOException | RuntimeException e) {
+            lease.invalidate();
+            throw e;
+        } catch (Exception e) {
+            lease.invalidate();
+            throw new XRRuntimeException("Can't lay out the page furniture. " + e.getMessage(), e);
+        } finally {
+            lease.close();
+        }
+    }
+
+    private static Element wrap(org.w3c.dom.Document copy, Element body, Element region, String style) {
+        Element wrapper = copy.createElement("div");
+        wrapper.setAttribute("style", style);
+        wrapper.appendChild(copy.importNode(region, true));
+        body.appendChild(wrapper);
+        return wrapper;
+    }
+
+    private static Box box(ITextRenderer renderer, Element element) {
+        List<?> boxes = renderer.getRootBox().getElementBoxes(element);
+        if (boxes.isEmpty()) {
+            throw new XRRuntimeException("Page furniture was not laid out; is it hidden with display: none?");
+        }
+        return (Box) boxes.get(0);
+    }
+
+    private static Element find(org.w3c.dom.Document document, String region) {
+        NodeList elements = document.getElementsByTagName("*");
+        for (int i = 0; i < elements.getLength(); i++) {
+            Element element = (Element) elements.item(i);
+            if (region.equals(element.getAttribute(ATTRIBUTE))) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    private static Element head(org.w3c.dom.Document document) {
+        NodeList heads = document.getElementsByTagName("head");
+        if (heads.getLength() > 0) {
+            return (Element) heads.item(0);
+        }
+        Element root = document.getDocumentElement();
+        Element head = document.createElement("head");
+        root.insertBefore(head, root.getFirstChild());
+        return head;
+    }
+
+    // Hash of everything the furniture layout depends on: the regions, the document head and the settings
+    private static String key(org.w3c.dom.Document document, Element header, Element footer, String baseUrl,
+                              OutputSettings settings) {
+        StringBuilder markup = new StringBuilder(1024);
+        markup.append(settings.variant()).append('\n').append(baseUrl).append('\n');
+        List<Node> nodes = new ArrayList<>(3);
+        nodes.add(head(document));
+        nodes.add(header);
+        nodes.add(footer);
+        for (Node node : nodes) {
+            append(markup, node);
+            markup.append('\n');
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(markup.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static void append(StringBuilder markup, Node node) {
+        if (node == null) {
+            return;
+        }
+        if (node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE) {
+            markup.append(node.getNodeValue());
+            return;
+        }
+        if (node.getNodeType() != Node.ELEMENT_NODE) {
+            return;
+        }
+        markup.append('<').append(node.getNodeName());
+        NamedNodeMap attributes = node.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attribute = (Attr) attributes.item(i);
+            markup.append(' ').append(attribute.getName()).append("=\"").append(attribute.getValue()).append('"');
+        }
+        markup.append('>');
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            append(markup, child);
+        }
+        markup.append("</").append(node.getNodeName()).append('>');
+    }
+
+    /**
+     * Page event that draws the furniture on every page. The furniture pages are imported once per
+     * document, so each page only adds a reference to the same form XObjects.
+     */
+    public static class Stamp extends PdfPageEventHelper {
+
+        // The reader is left open: the writer copies the imported pages out of it when the document is closed,
+        // after the last page event
+
+        private final Layout layout;
+        private PdfReader reader;
+        private PdfImportedPage header;
+        private PdfImportedPage footer;
+
+        public Stamp(Layout layout) {
+            this.layout = layout;
+        }
+
+        @Override
+        public void onEndPage(PdfWriter writer, Document document) {
+            if (reader == null) {
+                try {
+                    reader = new PdfReader(layout.pdf());
+                } catch (IOException e) {
+                    throw new XRRuntimeException("Can't read the page furniture. " + e.getMessage(), e);
+                }
+                header = layout.headerPage() > 0 ? writer.getImportedPage(reader, layout.headerPage()) : null;
+                footer = layout.footerPage() > 0 ? writer.getImportedPage(reader, layout.footerPage()) : null;
+            }
+            PdfContentByte canvas = writer.getDirectContent();
+            if (header != null) {
+                canvas.addTemplate(header, 0, 0);
+            }
+            if (footer != null) {
+                canvas.addTemplate(footer, 0, layout.footerOffset());
+            }
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package com.example.flyingsaucer.renderer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for renders, by estimated cost rather than by count. A 20,000-item invoice
+ * costs hundreds of times the CPU of a one-page one, so {@link RenderPermits} alone lets a few big
+ * documents hold every permit while small ones queue behind them, and enough of them at once can
+ * exhaust the heap.
+ * <p>
+ * Before any template processing a render is given a cost from its template and item count: CPU
+ * units, one per {@code pdf.admission.items-per-unit} items times the template's weight, and an
+ * estimate of the heap it holds while rendering (large documents only hold one chunk at a time).
+ * The cost is charged against a budget of units and a heap budget until the render is done.
+ * Requests that don't fit wait in arrival order; interactive requests are turned away with a
+ * {@link Rejected} when the queue is full or they waited {@code pdf.admission.max-wait-ms}, while
+ * background work (jobs, batch and merge documents) waits as long as it takes. One render is
+ * charged at most {@code pdf.admission.max-share} of the unit budget, so the biggest documents
+ * never take all of it, and at most the whole heap budget, so they still run when nothing else does.
+ */
+@Component
+public class RenderAdmission {
+
+    private final boolean enabled;
+    private final int unitBudget;
+    private final long heapBudget;
+    private final int itemsPerUnit;
+    private final int maxUnits;
+    private final long heapBaseBytes;
+    private final long heapPerItemBytes;
+    private final int largeDocumentThreshold;
+    private final int largeDocumentChunkItems;
+    private final Map<String, Double> templateWeights;
+    private final int maxQueued;
+    private final long maxWaitMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    // One placeholder per waiting render, compared by identity
+    private final ArrayDeque<Object> queue = new ArrayDeque<>();
+    private int usedUnits;
+    private long usedHeap;
+    private int queuedUnits;
+    // Recent seconds a render holds its budget per unit of cost, for Retry-After
+    private double secondsPerUnit = 0.5;
+
+    private final Timer waitTimer;
+    private final Counter admitted;
+    private final Counter rejected;
+    private final DistributionSummary costSummary;
+
+    public RenderAdmission(@Value("${pdf.admission.enabled:true}") boolean enabled,
+                           @Value("${pdf.admission.budget:0}") int unitBudget,
+                           @Value("${pdf.admission.items-per-unit:100}") int itemsPerUnit,
+                           @Value("${pdf.admission.max-share:0.5}") double maxShare,
+                           @Value("${pdf.admission.template-weights:}") String templateWeights,
+                           @Value("${pdf.admission.heap-budget-bytes:0}") long heapBudget,
+                           @Value("${pdf.admission.heap-fraction:0.5}") double heapFraction,
+                           @Value("${pdf.admission.heap-base-bytes:2097152}") long heapBaseBytes,
+                           @Value("${pdf.admission.heap-per-item-bytes:16384}") long heapPerItemBytes,
+                           @Value("${pdf.admission.max-queued:64}") int maxQueued,
+                           @Value("${pdf.admission.max-wait-ms:5000}") long maxWaitMillis,
+                           @Value("${pdf.large-document.threshold-items:2000}") int largeDocumentThreshold,
+                           @Value("${pdf.large-document.chunk-items:500}") int largeDocumentChunkItems,
+                           RenderPermits renderPermits,
+                           MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        // Enough typical renders to keep every CPU permit busy with some queued behind each
+        this.unitBudget = unitBudget > 0 ? unitBudget : 8 * renderPermits.getPermits();
+        this.heapBudget = heapBudget > 0 ? heapBudget : (long) (heapFraction * Runtime.getRuntime().maxMemory());
+        this.itemsPerUnit = Math.max(1, itemsPerUnit);
+        this.maxUnits = Math.max(1, (int) (maxShare * this.unitBudget));
+        this.heapBaseBytes = heapBaseBytes;
+        this.heapPerItemBytes = heapPerItemBytes;
+        this.largeDocumentThreshold = largeDocumentThreshold;
+        this.largeDocumentChunkItems = largeDocumentChunkItems;
+        this.templateWeights = parseWeights(templateWeights);
+        this.maxQueued = maxQueued;
+        this.maxWaitMillis = maxWaitMillis;
+
+        this.waitTimer = Timer.builder("pdf.admission.wait")
+                .description("Time renders waited for their cost to fit the admission budget")
+                .register(meterRegistry);
+        this.admitted = Counter.builder("pdf.admission.requests").tag("result", "admitted")
+                .description("Renders admitted or turned away by admission control")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("pdf.admission.requests").tag("result", "rejected")
+                .description("Renders admitted or turned away by admission control")
+                .register(meterRegistry);
+        this.costSummary = DistributionSummary.builder("pdf.admission.cost")
+                .description("Estimated cost of admitted renders in budget units")
+                .register(meterRegistry);
+        Gauge.builder("pdf.admission.units.used", this, RenderAdmission::getUsedUnits)
+                .description("Budget units charged to renders in progress")
+                .register(meterRegistry);
+        Gauge.builder("pdf.admission.units.limit", this, admission -> admission.unitBudget)
+                .description("Budget units available to renders")
+                .register(meterRegistry);
+        Gauge.builder("pdf.admission.heap.used", this, RenderAdmission::getUsedHeap)
+                .description("Estimated heap held by renders in progress")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("pdf.admission.heap.limit", this, admission -> admission.heapBudget)
+                .description("Heap budget for renders")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("pdf.admission.queued", this, RenderAdmission::getQueued)
+                .description("Renders waiting for their cost to fit the budget")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Estimated cost of rendering {@code items} items with the template, before the cost caps.
+     */
+    public Cost estimate(String template, int items) {
+        double weight = templateWeights.getOrDefault(template, 1.0);
+        int units = (int) Math.max(1, Math.round(weight * (1 + (double) items / itemsPerUnit)));
+        // Large documents are laid out one chunk at a time, so only a chunk's worth is on the heap
+        int itemsHeld = items > largeDocumentThreshold ? Math.min(items, largeDocumentChunkItems) : items;
+        long heapBytes = (long) (weight * (heapBaseBytes + itemsHeld * heapPerItemBytes));
+        return new Cost(units, heapBytes);
+    }
+
+    /**
+     * Admits an interactive render, waiting up to {@code pdf.admission.max-wait-ms} for its cost
+     * to fit. Closing the returned ticket gives the cost back.
+     *
+     * @throws Rejected if the queue is full or the render could not be admitted in time
+     */
+    public Ticket admit(String template, int items) {
+        return admit(estimate(template, items), TimeUnit.MILLISECONDS.toNanos(maxWaitMillis), true);
+    }
+
+    /**
+     * Admits background work, which has its own queue in front: waits however long it takes and
+     * is never turned away for a full queue.
+     *
+     * @throws Rejected only if the thread is interrupted while waiting
+     */
+    public Ticket acquire(String template, int items) {
+        return admit(estimate(template, items), Long.MAX_VALUE, false);
+    }
+
+    /**
+     * Turns a request away up front if the queue is already full, for requests that admit their
+     * documents one at a time later, after the response has started.
+     */
+    public void checkQueue() {
+        if (!enabled) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (queue.size() >= maxQueued) {
+                throw reject("Render queue is full (" + queue.size() + " waiting)", 0);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Ticket admit(Cost estimate, long waitNanos, boolean shed) {
+        if (!enabled) {
+            return new Ticket(new Cost(0, 0));
+        }
+        Cost cost = new Cost(Math.min(estimate.units(), maxUnits), Math.min(estimate.heapBytes(), heapBudget));
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            if (shed && queue.size() >= maxQueued) {
+                throw reject("Render queue is full (" + queue.size() + " waiting)", cost.units());
+            }
+            Object waiter = new Object();
+            queue.addLast(waiter);
+            queuedUnits += cost.units();
+            try {
+                long remaining = waitNanos;
+                // First come, first served: a big render at the head holds back smaller ones behind it
+                while (queue.peekFirst() != waiter || !fits(cost)) {
+                    if (remaining <= 0) {
+                        throw reject("Render budget exhausted: " + usedUnits + " of " + unitBudget + " units and "
+                                + (usedHeap >> 20) + " of " + (heapBudget >> 20) + " MB heap in use", cost.units());
+                    }
+                    remaining = shed ? changed.awaitNanos(remaining) : awaitUnbounded();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw reject("Interrupted while waiting for render budget", cost.units());
+            } finally {
+                queue.remove(waiter);
+                queuedUnits -= cost.units();
+                // The next in line may fit now, or be at the head now
+                changed.signalAll();
+            }
+            usedUnits += cost.units();
+            usedHeap += cost.heapBytes();
+        } finally {
+            lock.unlock();
+        }
+        waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        admitted.increment();
+        costSummary.record(cost.units());
+        return new Ticket(cost);
+    }
+
+    private long awaitUnbounded() throws InterruptedException {
+        changed.await();
+        return Long.MAX_VALUE;
+    }
+
+    private boolean fits(Cost cost) {
+        return usedUnits + cost.units() <= unitBudget && usedHeap + cost.heapBytes() <= heapBudget;
+    }
+
+    // Called with the lock held
+    private Rejected reject(String message, int units) {
+        rejected.increment();
+        // Roughly how long until what is ahead of this request has been worked off at the recent rate
+        long seconds = (long) Math.ceil(secondsPerUnit * (queuedUnits + units) / unitBudget);
+        return new Rejected(message, Math.max(1, Math.min(60, seconds)));
+    }
+
+    private void release(Cost cost, long heldNanos) {
+        lock.lock();
+        try {
+            usedUnits -= cost.units();
+            usedHeap -= cost.heapBytes();
+            if (cost.units() > 0) {
+                secondsPerUnit = 0.9 * secondsPerUnit + 0.1 * (heldNanos / 1e9 / cost.units());
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // "statement=2.5,letter=0.5": templates that cost more or less than the invoice per item
+    private static Map<String, Double> parseWeights(String spec) {
+        Map<String, Double> weights = new HashMap<>();
+        for (String entry : spec.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] parts = entry.split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid pdf.admission.template-weights entry: " + entry);
+            }
+            weights.put(parts[0].trim(), Double.parseDouble(parts[1].trim()));
+        }
+        return weights;
+    }
+
+    public int getUnitBudget() {
+        return unitBudget;
+    }
+
+    public long getHeapBudget() {
+        return heapBudget;
+    }
+
+    public int getUsedUnits() {
+        lock.lock();
+        try {
+            return usedUnits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getUsedHeap() {
+        lock.lock();
+        try {
+            return usedHeap;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Budget units and estimated heap bytes a render is charged.
+     */
+    public record Cost(int units, long heapBytes) {
+    }
+
+    public class Ticket implements AutoCloseable {
+
+        private final Cost cost;
+        private final long admittedAt = System.nanoTime();
+        private boolean released;
+
+        private Ticket(Cost cost) {
+            this.cost = cost;
+        }
+
+        public Cost getCost() {
+            return cost;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!released) {
+                released = true;
+                if (cost.units() > 0 || cost.heapBytes() > 0) {
+                    release(cost, System.nanoTime() - admittedAt);
+                }
+            }
+        }
+    }
+
+    /**
+     * The render was not admitted; the client should retry after {@link #getRetryAfterSeconds()}.
+     */
+    public static class Rejected extends RejectedExecutionException {
+
+        private final long retryAfterSeconds;
+
+        public Rejected(String message, long retryAfterSeconds) {
+            super(message);
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public long getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+    }
+}
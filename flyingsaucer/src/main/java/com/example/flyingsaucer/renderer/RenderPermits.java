@@ -0,0 +1,77 @@
+package com.example.flyingsaucer.renderer;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps how many threads run Flying Saucer's CPU-bound work ({@code layout()} and
+ * {@code createPDF()}) at once, independently of how many requests are in flight. With virtual
+ * threads there is no request thread pool to act as a limit any more, so without this every
+ * waiting request would start laying out at the same time and the CPU would thrash.
+ */
+@Component
+public class RenderPermits {
+
+    private final int permits;
+    private final long timeoutMillis;
+    private final Semaphore semaphore;
+    private final Timer waitTimer;
+
+    public RenderPermits(@Value("${pdf.render.cpu-permits:0}") int permits,
+                         @Value("${pdf.render.cpu-permit-timeout-ms:30000}") long timeoutMillis,
+                         MeterRegistry meterRegistry) {
+        this.permits = permits > 0 ? permits : Runtime.getRuntime().availableProcessors();
+        this.timeoutMillis = timeoutMillis;
+        this.semaphore = new Semaphore(this.permits, true);
+
+        this.waitTimer = Timer.builder("pdf.render.cpu.wait")
+                .description("Time spent waiting for a CPU permit before layout")
+                .register(meterRegistry);
+        Gauge.builder("pdf.render.cpu.active", this, RenderPermits::getActiveCount)
+                .description("Renders currently holding a CPU permit")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Waits up to the configured timeout for a permit. Closing the returned permit releases it.
+     */
+    public Permit acquire() throws InterruptedException {
+        long start = System.nanoTime();
+        boolean acquired = semaphore.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+        waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (!acquired) {
+            throw new IllegalStateException("No CPU permit for rendering became available within " + timeoutMillis + " ms");
+        }
+        return new Permit();
+    }
+
+    public int getPermits() {
+        return permits;
+    }
+
+    public int getActiveCount() {
+        return permits - semaphore.availablePermits();
+    }
+
+    public class Permit implements AutoCloseable {
+
+        private boolean released;
+
+        private Permit() {
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                semaphore.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package com.example.flyingsaucer.renderer;
+
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.pdf.PdfWriter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.w3c.dom.Document;
+import org.xhtmlrenderer.css.sheet.StylesheetInfo;
+import org.xhtmlrenderer.extend.UserAgentCallback;
+import org.xhtmlrenderer.layout.SharedContext;
+import org.xhtmlrenderer.pdf.DefaultPDFCreationListener;
+import org.xhtmlrenderer.pdf.ITextOutputDevice;
+import org.xhtmlrenderer.pdf.ITextRenderer;
+import org.xhtmlrenderer.resource.FSEntityResolver;
+import org.xhtmlrenderer.util.XRRuntimeException;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed-size pool of pre-warmed {@link ITextRenderer} instances.
+ * <p>
+ * Each renderer owns its SharedContext, user agent, font resolver and CSS defaults, so
+ * borrowing one avoids rebuilding them for every request. A renderer is used by one
+ * thread at a time and is scrubbed of per-document state before it goes back to the pool.
+ * {@link ITextRenderer} has no public way to clear that state or to share a SharedContext with a
+ * new instance, so the scrub resets private fields; it is only done on the Flying Saucer release
+ * it was checked against ({@link #RESET_VERIFIED_VERSION}). On any other release renderers are
+ * replaced after every document instead of reused.
+ * All renderers load their images, stylesheets and fonts through the shared {@link ResourceCache},
+ * take parsed stylesheets from the {@link StylesheetCache} and have the {@link FontRegistry} fonts.
+ */
+@Component
+public class RendererPool {
+
+    private static final Logger log = LoggerFactory.getLogger(RendererPool.class);
+
+    // The Flying Saucer release whose private renderer fields reset() clears; see RendererPoolTest
+    static final String RESET_VERIFIED_VERSION = "9.1.22";
+
+    private static final String FLYING_SAUCER_POM =
+            "/META-INF/maven/org.xhtmlrenderer/flying-saucer-pdf-itext5/pom.properties";
+
+    private static final List<String> IMAGE_SUFFIXES = List.of(".png", ".jpg", ".jpeg", ".gif", ".bmp");
+
+    private static final String WARM_UP_HTML = "<html><head><title>warm-up</title></head><body>"
+            + "<h1>INVOICE</h1><table><tr><th>Item</th><th>Total</th></tr>"
+            + "<tr><td>Warm-up</td><td>$0.00</td></tr></table></body></html>";
+
+    // Like XMLResource: report recoverable problems, fail on malformed documents
+    private static final ErrorHandler PARSE_ERRORS = new ErrorHandler() {
+        @Override
+        public void warning(SAXParseException e) {
+            log.debug("XHTML parse warning: {}", e.getMessage());
+        }
+
+        @Override
+        public void error(SAXParseException e) {
+            log.debug("XHTML parse error: {}", e.getMessage());
+        }
+
+        @Override
+        public void fatalError(SAXParseException e) throws SAXParseException {
+            throw e;
+        }
+    };
+
+    private final int size;
+    private final long borrowTimeoutMillis;
+    private final ResourceCache resourceCache;
+    private final StylesheetCache stylesheetCache;
+    private final FontRegistry fontRegistry;
+    private final boolean reuseRenderers;
+    private final BlockingQueue<ITextRenderer> idle;
+    private final DocumentBuilderFactory parserFactory;
+    private final ConcurrentLinkedQueue<DocumentBuilder> parsers = new ConcurrentLinkedQueue<>();
+    private final Timer borrowWaitTimer;
+    private final Timer inUseTimer;
+    // Bumped by recycle(); renderers created before the current generation are replaced
+    private final AtomicInteger generation = new AtomicInteger();
+    private final Map<ITextRenderer, Integer> generations = new ConcurrentHashMap<>();
+
+    public RendererPool(@Value("${pdf.renderer.pool-size:0}") int size,
+                        @Value("${pdf.renderer.borrow-timeout-ms:30000}") long borrowTimeoutMillis,
+                        ResourceCache resourceCache,
+                        StylesheetCache stylesheetCache,
+                        FontRegistry fontRegistry,
+                        MeterRegistry meterRegistry) {
+        this.size = size > 0 ? size : Runtime.getRuntime().availableProcessors();
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.resourceCache = resourceCache;
+        this.stylesheetCache = stylesheetCache;
+        this.fontRegistry = fontRegistry;
+        String version = flyingSaucerVersion();
+        this.reuseRenderers = RESET_VERIFIED_VERSION.equals(version);
+        if (!reuseRenderers) {
+            log.warn("Flying Saucer {} is not {}, the release pooled renderers are reset for; "
+                    + "renderers are replaced after every document", version, RESET_VERIFIED_VERSION);
+        }
+        this.idle = new ArrayBlockingQueue<>(this.size);
+        this.parserFactory = DocumentBuilderFactory.newInstance();
+        this.parserFactory.setNamespaceAware(true);
+        this.parserFactory.setValidating(false);
+
+        this.borrowWaitTimer = Timer.builder("pdf.renderer.borrow.wait")
+                .description("Time spent waiting for a pooled PDF renderer")
+                .register(meterRegistry);
+        this.inUseTimer = Timer.builder("pdf.renderer.in.use")
+                .description("Time a pooled PDF renderer was held by a caller")
+                .register(meterRegistry);
+        Gauge.builder("pdf.renderer.pool.size", this, RendererPool::getSize)
+                .description("Configured number of pooled PDF renderers")
+                .register(meterRegistry);
+        Gauge.builder("pdf.renderer.pool.idle", idle, Collection::size)
+                .description("Pooled PDF renderers currently available")
+                .register(meterRegistry);
+    }
+
+    // Fill the pool and run one tiny document through every renderer so class loading,
+    // font metrics and default CSS are paid for at startup rather than on a customer request.
+    @PostConstruct
+    public void warmUp() {
+        long start = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            ITextRenderer renderer = newRenderer();
+            try {
+                install(renderer, parse(WARM_UP_HTML), null);
+                renderer.layout();
+                renderer.createPDF(OutputStream.nullOutputStream());
+            } catch (Exception e) {
+                log.warn("Warm-up render failed, renderer will warm up on first use", e);
+            }
+            idle.offer(reuseRenderers && reset(renderer) ? renderer : replace(renderer));
+        }
+        log.info("Warmed {} PDF renderers in {} ms", size,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Borrows a renderer, waiting up to the configured timeout for one to become free.
+     * The returned lease must be closed to give the renderer back.
+     */
+    public Lease borrow() throws InterruptedException {
+        long start = System.nanoTime();
+        ITextRenderer renderer = idle.poll(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+        borrowWaitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (renderer == null) {
+            throw new IllegalStateException("No PDF renderer became available within " + borrowTimeoutMillis + " ms");
+        }
+        return new Lease(renderer);
+    }
+
+    /**
+     * Replaces every renderer, so documents rendered from now on see fonts registered since the
+     * renderers were created. Renderers in use are replaced when they are given back.
+     */
+    public void recycle() {
+        generation.incrementAndGet();
+        List<ITextRenderer> drained = new ArrayList<>();
+        idle.drainTo(drained);
+        for (ITextRenderer renderer : drained) {
+            idle.offer(replace(renderer));
+        }
+        log.info("Replaced {} idle PDF renderers", drained.size());
+    }
+
+    /**
+     * Loads stylesheets and images at the given absolute URIs into the shared caches, so the
+     * first document that uses them does not have to.
+     */
+    public void preload(List<String> uris) throws InterruptedException {
+        try (Lease lease = borrow()) {
+            UserAgentCallback userAgent = lease.getRenderer().getSharedContext().getUserAgentCallback();
+            for (String uri : uris) {
+                String lower = uri.toLowerCase(Locale.ROOT);
+                if (lower.endsWith(".css")) {
+                    stylesheetCache.get(userAgent.resolveURI(uri), StylesheetInfo.AUTHOR, userAgent);
+                } else if (IMAGE_SUFFIXES.stream().anyMatch(lower::endsWith)) {
+                    userAgent.getImageResource(uri);
+                } else {
+                    userAgent.getBinaryResource(uri);
+                }
+            }
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    boolean isReusingRenderers() {
+        return reuseRenderers;
+    }
+
+    // Version of the flying-saucer-pdf-itext5 jar on the classpath, or null if it can't be told
+    static String flyingSaucerVersion() {
+        try (InputStream in = ITextRenderer.class.getResourceAsStream(FLYING_SAUCER_POM)) {
+            if (in == null) {
+                return null;
+            }
+            Properties properties = new Properties();
+            properties.load(in);
+            return properties.getProperty("version");
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void giveBack(ITextRenderer renderer, boolean broken, long borrowedAt) {
+        inUseTimer.record(System.nanoTime() - borrowedAt, TimeUnit.NANOSECONDS);
+        if (broken || !isCurrent(renderer) || !reuseRenderers || !reset(renderer)) {
+            renderer = replace(renderer);
+        }
+        idle.offer(renderer);
+    }
+
+    private boolean isCurrent(ITextRenderer renderer) {
+        Integer created = generations.get(renderer);
+        return created != null && created == generation.get();
+    }
+
+    private ITextRenderer replace(ITextRenderer renderer) {
+        generations.remove(renderer);
+        return newRenderer();
+    }
+
+    private ITextRenderer newRenderer() {
+        ITextRenderer renderer = new ITextRenderer();
+        SharedContext sharedContext = renderer.getSharedContext();
+        CachingUserAgent userAgent = new CachingUserAgent(renderer.getOutputDevice(), resourceCache);
+        userAgent.setSharedContext(sharedContext);
+        sharedContext.setUserAgentCallback(userAgent);
+        sharedContext.getCss().setUserAgentCallback(userAgent);
+        sharedContext.setReplacedElementFactory(new DownsamplingReplacedElementFactory(renderer.getOutputDevice()));
+        try {
+            fontRegistry.registerWith(renderer.getFontResolver());
+        } catch (Exception e) {
+            log.warn("Could not register custom fonts with a PDF renderer", e);
+        }
+        generations.put(renderer, generation.get());
+        return renderer;
+    }
+
+    // Parse straight into a DOM with a pooled DocumentBuilder. XMLResource.load would run a SAX
+    // parse plus an identity transform into a DOMResult, several times slower on large invoices.
+    // Public for callers that change the DOM before handing it to Lease.setDocument
+    public Document parse(String html) {
+        DocumentBuilder parser = parsers.poll();
+        try {
+            if (parser == null) {
+                parser = parserFactory.newDocumentBuilder();
+            }
+            parser.setEntityResolver(FSEntityResolver.instance());
+            parser.setErrorHandler(PARSE_ERRORS);
+            return parser.parse(new InputSource(new StringReader(html)));
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            throw new XRRuntimeException("Can't parse the XHTML document. " + e.getMessage(), e);
+        } finally {
+            if (parser != null) {
+                parser.reset();
+                parsers.offer(parser);
+            }
+        }
+    }
+
+    private void install(ITextRenderer renderer, Document document, String baseUrl) {
+        UserAgentCallback userAgent = renderer.getSharedContext().getUserAgentCallback();
+        renderer.setDocument(document, baseUrl, new CachingNamespaceHandler(stylesheetCache, userAgent));
+    }
+
+    // ITextOutputDevice keeps bookmarks, metadata and PDF readers from the last document and
+    // has no public way to clear them; left alone they leak and end up in the next PDF.
+    // Only called on RESET_VERIFIED_VERSION, whose field names and meanings this relies on.
+    private static boolean reset(ITextRenderer renderer) {
+        try {
+            renderer.getSharedContext().reset();
+            setField(ITextRenderer.class, renderer, "_doc", null);
+            setField(ITextRenderer.class, renderer, "_root", null);
+            setField(ITextRenderer.class, renderer, "_pdfDoc", null);
+            setField(ITextRenderer.class, renderer, "_writer", null);
+            setField(ITextRenderer.class, renderer, "_pdfVersion", null);
+            renderer.setPDFEncryption(null);
+            renderer.setListener(null);
+            replacedElementFactory(renderer).setOutputSettings(OutputSettings.STANDARD);
+
+            ITextOutputDevice device = renderer.getOutputDevice();
+            setField(ITextOutputDevice.class, device, "_bookmarks", new ArrayList<>());
+            setField(ITextOutputDevice.class, device, "_metadata", new ArrayList<>());
+            ((Map<?, ?>) getField(ITextOutputDevice.class, device, "_readerCache")).clear();
+            setField(ITextOutputDevice.class, device, "_root", null);
+            setField(ITextOutputDevice.class, device, "_writer", null);
+            setField(ITextOutputDevice.class, device, "_currentPage", null);
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("Could not reset PDF renderer, replacing it", e);
+            return false;
+        }
+    }
+
+    private static DownsamplingReplacedElementFactory replacedElementFactory(ITextRenderer renderer) {
+        return (DownsamplingReplacedElementFactory) renderer.getSharedContext().getReplacedElementFactory();
+    }
+
+    private static Object getField(Class<?> type, Object target, String name) throws ReflectiveOperationException {
+        Field field = type.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(target);
+    }
+
+    private static void setField(Class<?> type, Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = type.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    /**
+     * Exclusive use of one pooled renderer. Call {@link #invalidate()} if rendering failed
+     * part way so the pool replaces the renderer instead of reusing it.
+     */
+    public class Lease implements AutoCloseable {
+
+        private final ITextRenderer renderer;
+        private final long borrowedAt = System.nanoTime();
+        private boolean broken;
+        private boolean closed;
+        private OutputSettings settings = OutputSettings.STANDARD;
+        private PageFurniture.Layout furniture;
+
+        private Lease(ITextRenderer renderer) {
+            this.renderer = renderer;
+        }
+
+        public ITextRenderer getRenderer() {
+            return renderer;
+        }
+
+        /**
+         * Parses the XHTML and makes it the renderer's document, with linked stylesheets
+         * taken from the shared cache. Use this instead of the renderer's own setters.
+         */
+        public void setDocumentFromString(String html, String baseUrl) {
+            install(renderer, parse(html), baseUrl);
+        }
+
+        public void setDocument(Document document, String baseUrl) {
+            install(renderer, document, baseUrl);
+        }
+
+        /**
+         * Chooses how the next PDF is written: image resolution, stream compression and object
+         * streams. Must be called before the document is laid out, as images are resampled then.
+         */
+        public void setOutputSettings(OutputSettings settings) {
+            this.settings = settings;
+            replacedElementFactory(renderer).setOutputSettings(settings);
+            updateListener();
+        }
+
+        /**
+         * Stamps the given page furniture on every page of the next PDF; {@code null} for none.
+         */
+        public void setPageFurniture(PageFurniture.Layout furniture) {
+            this.furniture = furniture;
+            updateListener();
+        }
+
+        private void updateListener() {
+            OutputSettings settings = this.settings;
+            PageFurniture.Layout furniture = this.furniture;
+            if (settings.equals(OutputSettings.STANDARD) && furniture == null) {
+                renderer.setListener(null);
+                return;
+            }
+            renderer.setListener(new DefaultPDFCreationListener() {
+                @Override
+                public void preOpen(ITextRenderer iTextRenderer) {
+                    PdfWriter writer = iTextRenderer.getWriter();
+                    writer.setCompressionLevel(settings.compressionLevel());
+                    if (settings.objectStreams()) {
+                        // Also raises the header to PDF 1.5
+                        try {
+                            writer.setFullCompression();
+                        } catch (DocumentException e) {
+                            throw new XRRuntimeException("Can't enable PDF object streams. " + e.getMessage(), e);
+                        }
+                    }
+                    if (furniture != null) {
+                        writer.setPageEvent(new PageFurniture.Stamp(furniture));
+                    }
+                }
+            });
+        }
+
+        public void invalidate() {
+            broken = true;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                giveBack(renderer, broken, borrowedAt);
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.flyingsaucer.renderer;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of resources loaded by the PDF user agents: decoded images and the raw
+ * bytes of stylesheets, fonts and other binaries. It is bounded by an approximate size in bytes
+ * and evicts the least recently used entries once that size is exceeded.
+ */
+@Component
+public class ResourceCache {
+
+    /**
+     * Loads a resource on a cache miss; returning null means "not loadable" and is not cached.
+     */
+    @FunctionalInterface
+    public interface Loader<T> {
+        T load() throws Exception;
+    }
+
+    /**
+     * Reports how many bytes a cached value holds on the heap.
+     */
+    @FunctionalInterface
+    public interface Weigher<T> {
+        long weigh(T value);
+    }
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long currentBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ResourceCache(@Value("${pdf.resource-cache.max-bytes:67108864}") long maxBytes,
+                         MeterRegistry meterRegistry) {
+        this.maxBytes = maxBytes;
+
+        FunctionCounter.builder("pdf.resource.cache.requests", hits, AtomicLong::get)
+                .description("Resource cache lookups")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        FunctionCounter.builder("pdf.resource.cache.requests", misses, AtomicLong::get)
+                .description("Resource cache lookups")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        FunctionCounter.builder("pdf.resource.cache.evictions", evictions, AtomicLong::get)
+                .description("Resources evicted to stay within the size limit")
+                .register(meterRegistry);
+        Gauge.builder("pdf.resource.cache.size", this, ResourceCache::getSizeInBytes)
+                .description("Approximate heap held by cached resources")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("pdf.resource.cache.entries", this, ResourceCache::getEntryCount)
+                .description("Number of cached resources")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the cached value for the key, loading and caching it on a miss. Two threads missing
+     * on the same key at once may both load it; the last one to finish wins.
+     */
+    public <T> T get(String key, Loader<T> loader, Weigher<T> weigher) throws Exception {
+        T value = getIfPresent(key);
+        if (value != null) {
+            return value;
+        }
+        value = loader.load();
+        if (value != null) {
+            put(key, value, weigher.weigh(value));
+        }
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized <T> T getIfPresent(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return (T) entry.value;
+    }
+
+    public synchronized void put(String key, Object value, long weight) {
+        if (weight > maxBytes) {
+            return;
+        }
+        Entry previous = entries.put(key, new Entry(value, weight));
+        if (previous != null) {
+            currentBytes -= previous.weight;
+        }
+        currentBytes += weight;
+
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && eldest.hasNext()) {
+            currentBytes -= eldest.next().getValue().weight;
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drops everything cached for a resource URI, e.g. after the file behind it changed.
+     */
+    public void invalidateResource(String uri) {
+        invalidate(imageKey(uri));
+        invalidate(bytesKey(uri));
+        invalidatePrefix(imageKey(uri) + "@");
+    }
+
+    public synchronized void invalidate(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            currentBytes -= removed.weight;
+        }
+    }
+
+    private synchronized void invalidatePrefix(String prefix) {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                currentBytes -= entry.getValue().weight;
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    public synchronized long getSizeInBytes() {
+        return currentBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    static String imageKey(String uri) {
+        return "image:" + uri;
+    }
+
+    // An image resampled to a given size in pixels and encoding, cached next to the original
+    static String downsampledImageKey(String uri, int width, int height, float jpegQuality, int compressionLevel) {
+        return imageKey(uri) + "@" + width + "x" + height + "/" + jpegQuality + "/" + compressionLevel;
+    }
+
+    static String bytesKey(String uri) {
+        return "bytes:" + uri;
+    }
+
+    private record Entry(Object value, long weight) {
+    }
+}
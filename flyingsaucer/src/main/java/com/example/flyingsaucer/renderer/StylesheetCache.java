@@ -0,0 +1,154 @@
+package com.example.flyingsaucer.renderer;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.xhtmlrenderer.context.StylesheetFactoryImpl;
+import org.xhtmlrenderer.css.sheet.Stylesheet;
+import org.xhtmlrenderer.css.sheet.StylesheetInfo;
+import org.xhtmlrenderer.extend.UserAgentCallback;
+import org.xhtmlrenderer.resource.CSSResource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of parsed stylesheets, keyed by resolved URI and revalidated against the
+ * resource's last-modified time. Flying Saucer only caches parsed CSS per renderer; this lets
+ * every renderer share one parse of {@code style.css}, the same way Flying Saucer already shares
+ * its default user-agent stylesheet.
+ */
+@Component
+public class StylesheetCache {
+
+    private static final Logger log = LoggerFactory.getLogger(StylesheetCache.class);
+
+    private static final String CLASSPATH_PREFIX = "classpath:";
+
+    private final long checkIntervalMillis;
+    private final ResourceCache resourceCache;
+    private final StylesheetFactoryImpl parser = new StylesheetFactoryImpl(null);
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public StylesheetCache(@Value("${pdf.stylesheet-cache.check-interval-ms:5000}") long checkIntervalMillis,
+                           ResourceCache resourceCache,
+                           MeterRegistry meterRegistry) {
+        this.checkIntervalMillis = checkIntervalMillis;
+        this.resourceCache = resourceCache;
+
+        FunctionCounter.builder("pdf.stylesheet.cache.requests", hits, AtomicLong::get)
+                .description("Parsed stylesheet cache lookups")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        FunctionCounter.builder("pdf.stylesheet.cache.requests", misses, AtomicLong::get)
+                .description("Parsed stylesheet cache lookups")
+                .tag("result", "miss")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the parsed stylesheet for an already resolved URI, parsing it through the user
+     * agent on a miss or when the underlying resource has changed. Returns null if it cannot
+     * be loaded.
+     */
+    public Stylesheet get(String uri, int origin, UserAgentCallback userAgent) {
+        String key = origin + ":" + uri;
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            if (checkIntervalMillis < 0 || now - entry.checkedAt < checkIntervalMillis) {
+                hits.incrementAndGet();
+                return entry.stylesheet;
+            }
+            long lastModified = lastModified(uri);
+            if (lastModified == entry.lastModified) {
+                entry.checkedAt = now;
+                hits.incrementAndGet();
+                return entry.stylesheet;
+            }
+            log.info("Stylesheet {} changed, reparsing", uri);
+            resourceCache.invalidateResource(uri);
+        }
+
+        misses.incrementAndGet();
+        long lastModified = lastModified(uri);
+        Stylesheet stylesheet = parse(uri, origin, userAgent);
+        if (stylesheet != null) {
+            entries.put(key, new Entry(stylesheet, lastModified, now));
+        }
+        return stylesheet;
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    // Drop the stylesheet at an already resolved URI, whatever origin it was loaded with
+    public void invalidate(String uri) {
+        entries.keySet().removeIf(key -> key.substring(key.indexOf(':') + 1).equals(uri));
+    }
+
+    private Stylesheet parse(String uri, int origin, UserAgentCallback userAgent) {
+        CSSResource resource = userAgent.getCSSResource(uri);
+        if (resource == null || resource.getResourceInputSource() == null
+                || resource.getResourceInputSource().getByteStream() == null) {
+            return null;
+        }
+        StylesheetInfo info = new StylesheetInfo();
+        info.setUri(uri);
+        info.setOrigin(origin);
+        try (InputStream is = resource.getResourceInputSource().getByteStream()) {
+            return parser.parse(new InputStreamReader(is, StandardCharsets.UTF_8), info);
+        } catch (IOException e) {
+            log.warn("Can't read stylesheet '{}'", uri, e);
+            return null;
+        }
+    }
+
+    // Only files on disk can change under a running app; jar entries and remote URLs report 0
+    private static long lastModified(String uri) {
+        try {
+            URL url;
+            if (uri.startsWith(CLASSPATH_PREFIX)) {
+                String path = uri.substring(CLASSPATH_PREFIX.length());
+                url = StylesheetCache.class.getClassLoader().getResource(path.startsWith("/") ? path.substring(1) : path);
+            } else {
+                url = URI.create(uri).toURL();
+            }
+            if (url == null || !"file".equals(url.getProtocol())) {
+                return 0;
+            }
+            return new File(url.toURI()).lastModified();
+        } catch (MalformedURLException | URISyntaxException | IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
+    private static final class Entry {
+        final Stylesheet stylesheet;
+        final long lastModified;
+        volatile long checkedAt;
+
+        Entry(Stylesheet stylesheet, long lastModified, long checkedAt) {
+            this.stylesheet = stylesheet;
+            this.lastModified = lastModified;
+            this.checkedAt = checkedAt;
+        }
+    }
+}
@@ -1,11 +1,80 @@
 package com.example.flyingsaucer.repository;
 
 import com.example.flyingsaucer.model.Invoice;
+import com.example.flyingsaucer.model.InvoiceItemView;
+import com.example.flyingsaucer.model.InvoiceView;
+import com.example.flyingsaucer.model.InvoiceViewRow;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
 @Repository
 public interface InvoiceRepository extends JpaRepository<Invoice, Long> {
     // You can add custom queries here if needed
     // e.g., findByInvoiceId(String invoiceId)
+
+    // Invoice and its items in one select (items are lazy otherwise)
+    @EntityGraph(attributePaths = "items")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    Optional<Invoice> findWithItemsById(Long id);
+
+    // Several invoices with their items in one select
+    @EntityGraph(attributePaths = "items")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    List<Invoice> findAllWithItemsByIdIn(Collection<Long> ids, Sort sort);
+
+    // A page of invoices with their items. Paging a collection fetch join would make Hibernate
+    // page in memory, so the page of ids is selected first and then fetched with the items.
+    default Page<Invoice> findAllWithItemsByIdIn(Collection<Long> ids, Pageable pageable) {
+        Page<Long> page = findIdsByIdIn(ids, pageable);
+        List<Invoice> invoices = page.hasContent()
+                ? findAllWithItemsByIdIn(page.getContent(), pageable.getSort())
+                : List.of();
+        return new PageImpl<>(invoices, pageable, page.getTotalElements());
+    }
+
+    @Query("select i.id from Invoice i where i.id in :ids")
+    Page<Long> findIdsByIdIn(@Param("ids") Collection<Long> ids, Pageable pageable);
+
+    // Page through the invoices of a period, e.g. for month-end batch rendering
+    @Query("select i.id from Invoice i where i.date between :from and :to")
+    Page<Long> findIdsByDateBetween(@Param("from") LocalDate from, @Param("to") LocalDate to, Pageable pageable);
+
+    // Read-only projection for rendering a single invoice: the invoice and its items in one select,
+    // one row per item with the invoice columns repeated
+    default Optional<InvoiceView> findViewById(Long id) {
+        List<InvoiceViewRow> rows = findViewRowsById(id);
+        if (rows.isEmpty()) {
+            return Optional.empty();
+        }
+        List<InvoiceItemView> items = new ArrayList<>(rows.size());
+        for (InvoiceViewRow row : rows) {
+            if (row.itemId() != null) {
+                items.add(new InvoiceItemView(row.itemName(), row.quantity(), row.price()));
+            }
+        }
+        InvoiceViewRow first = rows.get(0);
+        return Optional.of(new InvoiceView(first.id(), first.invoiceId(), first.customerName(), first.date(),
+                first.totalAmount(), items));
+    }
+
+    @Query("select new com.example.flyingsaucer.model.InvoiceViewRow(i.id, i.invoiceId, i.customerName, i.date, " +
+           "i.totalAmount, it.id, it.name, it.quantity, it.price) " +
+           "from Invoice i left join i.items it where i.id = :id order by it.id")
+    List<InvoiceViewRow> findViewRowsById(@Param("id") Long id);
 }
\ No newline at end of file
@@ -0,0 +1,328 @@
+package com.example.flyingsaucer.service;
+
+import com.example.flyingsaucer.metrics.RenderMetrics;
+import com.example.flyingsaucer.metrics.RenderTrace;
+import com.example.flyingsaucer.model.BatchPdfRequest;
+import com.example.flyingsaucer.model.Invoice;
+import com.example.flyingsaucer.model.PdfRequest;
+import com.example.flyingsaucer.renderer.RenderAdmission;
+import com.example.flyingsaucer.repository.InvoiceRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.PageSize;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfSmartCopy;
+import com.itextpdf.text.pdf.PdfString;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Renders many invoices in one call. Invoices are loaded from the database a page at a time and
+ * rendered in parallel on a bounded pool sized to the CPU count. Results are written to the
+ * response in request order while later invoices are still rendering, so at most a small window
+ * of finished PDFs is held in memory. A failing invoice is reported, not fatal to the batch.
+ */
+@Service
+public class BatchPdfService {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchPdfService.class);
+
+    private static final String REPORT_ENTRY = "batch-report.json";
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    @Autowired
+    private PdfService pdfService;
+
+    @Autowired
+    private RenderAdmission renderAdmission;
+
+    @Autowired
+    private InvoiceRepository invoiceRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private RenderMetrics renderMetrics;
+
+    @Value("${pdf.batch.threads:0}")
+    private int threads;
+
+    @Value("${pdf.batch.page-size:100}")
+    private int pageSize;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void start() {
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        if (virtualThreads) {
+            // Renders still queue for RenderPermits, so a thread per item cannot oversubscribe the CPU
+            executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("pdf-batch-", 1).factory());
+            return;
+        }
+        AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "pdf-batch-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    // Reject requests that select nothing or mix the different ways of selecting invoices
+    public void validate(BatchPdfRequest request) {
+        int sources = 0;
+        if (request.getInvoiceIds() != null && !request.getInvoiceIds().isEmpty()) sources++;
+        if (request.getRequests() != null && !request.getRequests().isEmpty()) sources++;
+        if (request.getFromDate() != null || request.getToDate() != null) {
+            if (request.getFromDate() == null || request.getToDate() == null) {
+                throw new IllegalArgumentException("Both fromDate and toDate are required for a date range");
+            }
+            LocalDate.parse(request.getFromDate());
+            LocalDate.parse(request.getToDate());
+            sources++;
+        }
+        if (sources != 1) {
+            throw new IllegalArgumentException("Specify exactly one of invoiceIds, requests or fromDate/toDate");
+        }
+    }
+
+    // Write one PDF per invoice into a ZIP, followed by a JSON report of every item
+    public void writeZip(BatchPdfRequest request, OutputStream outputStream) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(outputStream, OUTPUT_BUFFER_SIZE));
+        List<Map<String, Object>> report = new ArrayList<>();
+
+        renderAll(request, result -> {
+            report.add(result.toReport());
+            if (result.pdf() == null) {
+                return;
+            }
+            // PDFs are already compressed, so store them as-is instead of deflating again
+            CRC32 crc = new CRC32();
+            crc.update(result.pdf());
+            ZipEntry entry = new ZipEntry(result.fileName());
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(result.pdf().length);
+            entry.setCompressedSize(result.pdf().length);
+            entry.setCrc(crc.getValue());
+            zip.putNextEntry(entry);
+            zip.write(result.pdf());
+            zip.closeEntry();
+        });
+
+        zip.putNextEntry(new ZipEntry(REPORT_ENTRY));
+        zip.write(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(report));
+        zip.closeEntry();
+        zip.finish();
+        zip.flush();
+    }
+
+    // Concatenate every rendered invoice into one PDF; shared resources such as the logo are
+    // stored once. Failed items are skipped and listed in the document info under BatchFailures.
+    public void writeMergedPdf(BatchPdfRequest request, OutputStream outputStream) throws IOException, DocumentException {
+        BufferedOutputStream bufferedOutput = new BufferedOutputStream(outputStream, OUTPUT_BUFFER_SIZE);
+        Document document = new Document();
+        PdfSmartCopy copy = new PdfSmartCopy(document, bufferedOutput);
+        copy.setFullCompression();
+        document.open();
+
+        List<String> failures = new ArrayList<>();
+        AtomicInteger merged = new AtomicInteger();
+        renderAll(request, result -> {
+            if (result.pdf() == null) {
+                failures.add(result.label() + ": " + result.error());
+                return;
+            }
+            PdfReader reader = new PdfReader(result.pdf());
+            try {
+                copy.addDocument(reader);
+                copy.freeReader(reader);
+                merged.incrementAndGet();
+            } catch (DocumentException e) {
+                failures.add(result.label() + ": " + e.getMessage());
+            } finally {
+                reader.close();
+            }
+        });
+
+        if (merged.get() == 0) {
+            // iText refuses to close a document without pages
+            copy.addPage(PageSize.A4, 0);
+        }
+        if (!failures.isEmpty()) {
+            copy.getInfo().put(new PdfName("BatchFailures"), new PdfString(String.join("; ", failures)));
+        }
+        document.close();
+        bufferedOutput.flush();
+    }
+
+    private void renderAll(BatchPdfRequest request, ResultSink sink) throws IOException {
+        Deque<Future<BatchResult>> inFlight = new ArrayDeque<>();
+        int window = threads * 2;
+        long start = System.nanoTime();
+        AtomicInteger count = new AtomicInteger();
+        String endpoint = RenderTrace.current().getEndpoint();
+
+        boolean written = false;
+        try {
+            forEachItem(request, item -> {
+                int sequence = count.incrementAndGet();
+                inFlight.add(executor.submit(() -> render(sequence, item, endpoint)));
+                if (inFlight.size() >= window) {
+                    sink.accept(await(inFlight.poll()));
+                }
+            });
+            while (!inFlight.isEmpty()) {
+                sink.accept(await(inFlight.poll()));
+            }
+            written = true;
+        } finally {
+            if (!written) {
+                // Usually the client went away; nobody will read the renders still in the window
+                inFlight.forEach(future -> future.cancel(true));
+                log.info("Batch stopped after {} invoices, cancelled {} renders", count.get(), inFlight.size());
+            }
+        }
+        log.info("Batch rendered {} invoices in {} ms", count.get(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private BatchResult render(int sequence, BatchItem item, String endpoint) {
+        if (item.error() != null) {
+            return new BatchResult(sequence, item.label(), null, item.error());
+        }
+        try (RenderTrace.Scope scope = RenderTrace.begin(endpoint);
+             RenderAdmission.Ticket ticket = renderAdmission.acquire("invoice", pdfService.itemCount(item.data()))) {
+            return new BatchResult(sequence, item.label(), pdfService.generatePdfBytes(item.data(), "invoice"), null);
+        } catch (Exception e) {
+            log.warn("Batch item {} failed", item.label(), e);
+            return new BatchResult(sequence, item.label(), null, e.getMessage());
+        }
+    }
+
+    private static BatchResult await(Future<BatchResult> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rendering batch", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Batch rendering failed", e.getCause());
+        }
+    }
+
+    // Feed items in request order, loading stored invoices one page at a time
+    private void forEachItem(BatchPdfRequest request, ItemHandler handler) throws IOException {
+        if (request.getRequests() != null && !request.getRequests().isEmpty()) {
+            for (PdfRequest pdfRequest : request.getRequests()) {
+                handler.handle(new BatchItem(pdfRequest.getInvoiceId(), pdfRequest, null));
+            }
+        } else if (request.getInvoiceIds() != null && !request.getInvoiceIds().isEmpty()) {
+            List<Long> ids = request.getInvoiceIds();
+            for (int from = 0; from < ids.size(); from += pageSize) {
+                List<Long> pageIds = ids.subList(from, Math.min(from + pageSize, ids.size()));
+                long start = System.nanoTime();
+                Map<Long, Invoice> found = invoiceRepository.findAllWithItemsByIdIn(pageIds, Sort.by("id")).stream()
+                        .collect(Collectors.toMap(Invoice::getId, Function.identity(), (a, b) -> a, LinkedHashMap::new));
+                renderMetrics.recordPhase(RenderTrace.current(), RenderTrace.Phase.DB, System.nanoTime() - start);
+                for (Long id : pageIds) {
+                    Invoice invoice = found.get(id);
+                    String label = invoice != null ? invoice.getInvoiceId() : String.valueOf(id);
+                    handler.handle(new BatchItem(label, invoice, invoice == null ? "Invoice not found with id: " + id : null));
+                }
+            }
+        } else {
+            LocalDate fromDate = LocalDate.parse(request.getFromDate());
+            LocalDate toDate = LocalDate.parse(request.getToDate());
+            Page<Long> page;
+            int pageNumber = 0;
+            do {
+                long start = System.nanoTime();
+                page = invoiceRepository.findIdsByDateBetween(fromDate, toDate,
+                        PageRequest.of(pageNumber++, pageSize, Sort.by("id")));
+                List<Invoice> invoices = page.hasContent()
+                        ? invoiceRepository.findAllWithItemsByIdIn(page.getContent(), Sort.by("id"))
+                        : List.of();
+                renderMetrics.recordPhase(RenderTrace.current(), RenderTrace.Phase.DB, System.nanoTime() - start);
+                for (Invoice invoice : invoices) {
+                    handler.handle(new BatchItem(invoice.getInvoiceId(), invoice, null));
+                }
+            } while (page.hasNext());
+        }
+    }
+
+    @FunctionalInterface
+    private interface ItemHandler {
+        void handle(BatchItem item) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface ResultSink {
+        void accept(BatchResult result) throws IOException;
+    }
+
+    private record BatchItem(String label, Object data, String error) {
+    }
+
+    private record BatchResult(int sequence, String label, byte[] pdf, String error) {
+
+        String fileName() {
+            String safeLabel = label == null ? "invoice" : label.replaceAll("[^A-Za-z0-9._-]", "_");
+            return String.format("%05d_%s.pdf", sequence, safeLabel);
+        }
+
+        Map<String, Object> toReport() {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("sequence", sequence);
+            entry.put("invoice", label);
+            entry.put("status", pdf != null ? "OK" : "FAILED");
+            if (pdf != null) {
+                entry.put("file", fileName());
+                entry.put("bytes", pdf.length);
+            } else {
+                entry.put("error", error);
+            }
+            return entry;
+        }
+    }
+}
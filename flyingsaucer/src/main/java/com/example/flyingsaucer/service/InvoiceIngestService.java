@@ -0,0 +1,271 @@
+package com.example.flyingsaucer.service;
+
+import com.example.flyingsaucer.cache.PdfResultCache;
+import com.example.flyingsaucer.model.Invoice;
+import com.example.flyingsaucer.model.PdfRequest;
+import com.example.flyingsaucer.repository.InvoiceRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.exc.StreamReadException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves many invoices from one request body: a JSON array of {@link PdfRequest}s or NDJSON, one
+ * per line. The body is read with Jackson's streaming parser one record at a time, so only the
+ * current batch is held in memory. Valid records are saved in transactions of
+ * {@code pdf.ingest.batch-size}; with sequence ids and JDBC batching Hibernate sends each batch as a
+ * few multi-row statements. If a batch fails, its records are retried one by one so only the bad
+ * record fails.
+ * <p>
+ * Results are written as NDJSON, one line per record in input order as each batch commits, and a
+ * final summary line with the totals and ingest rate.
+ */
+@Service
+public class InvoiceIngestService {
+
+    private static final Logger log = LoggerFactory.getLogger(InvoiceIngestService.class);
+
+    @Autowired
+    private PdfService pdfService;
+
+    @Autowired
+    private InvoiceRepository invoiceRepository;
+
+    @Autowired
+    private PdfResultCache pdfResultCache;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${pdf.ingest.batch-size:500}")
+    private int batchSize;
+
+    private Counter savedRecords;
+    private Counter failedRecords;
+    private Timer batchTimer;
+
+    @PostConstruct
+    public void start() {
+        savedRecords = Counter.builder("pdf.ingest.records").tag("result", "saved")
+                .description("Invoices received by bulk ingest").register(meterRegistry);
+        failedRecords = Counter.builder("pdf.ingest.records").tag("result", "failed")
+                .description("Invoices received by bulk ingest").register(meterRegistry);
+        batchTimer = Timer.builder("pdf.ingest.batch")
+                .description("Time to save one batch of ingested invoices")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Reads every record from the input, saves the valid ones and writes one result line per
+     * record to the output. A syntax error in the body stops the ingest after the records before
+     * it have been saved; the summary line then has status {@code ABORTED}.
+     */
+    public void ingest(InputStream input, OutputStream output) throws IOException {
+        long start = System.nanoTime();
+        Totals totals = new Totals();
+        String error = null;
+        try (JsonParser parser = objectMapper.getFactory().createParser(input);
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(output)) {
+            // The caller owns the response stream; lines are separated by hand
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            List<Record> batch = new ArrayList<>(batchSize);
+            try {
+                JsonToken token = parser.nextToken();
+                boolean array = token == JsonToken.START_ARRAY;
+                if (array) {
+                    token = parser.nextToken();
+                }
+                int sequence = 0;
+                while (token != null && token != JsonToken.END_ARRAY) {
+                    JsonNode node = parser.readValueAsTree();
+                    batch.add(record(sequence++, node));
+                    if (batch.size() >= batchSize) {
+                        flush(batch, generator, totals);
+                    }
+                    token = parser.nextToken();
+                }
+            } catch (StreamReadException e) {
+                // Unreadable JSON; the parser can't find the next record, so stop after what was read
+                error = e.getOriginalMessage();
+                log.warn("Bulk ingest stopped by a malformed body after {} records: {}", totals.received + batch.size(), error);
+            }
+            flush(batch, generator, totals);
+
+            long elapsedNanos = System.nanoTime() - start;
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("status", error == null ? "DONE" : "ABORTED");
+            summary.put("received", totals.received);
+            summary.put("saved", totals.saved);
+            summary.put("failed", totals.failed);
+            summary.put("batches", totals.batches);
+            summary.put("elapsedMs", TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+            summary.put("recordsPerSecond", elapsedNanos > 0 ? Math.round(totals.received * 1e9 / elapsedNanos) : 0);
+            if (error != null) {
+                summary.put("error", error);
+            }
+            writeLine(generator, summary);
+        }
+    }
+
+    // Check and map one record; records that can't be saved carry their error instead of an entity
+    private Record record(int sequence, JsonNode node) {
+        String label = node.path("invoiceId").isTextual() ? node.get("invoiceId").asText() : null;
+        PdfRequest request;
+        try {
+            request = objectMapper.treeToValue(node, PdfRequest.class);
+        } catch (JsonProcessingException e) {
+            return new Record(sequence, label, null, "Invalid invoice: " + e.getOriginalMessage());
+        } catch (IllegalArgumentException e) {
+            return new Record(sequence, label, null, "Invalid invoice: " + e.getMessage());
+        }
+        String problem = validate(request);
+        if (problem != null) {
+            return new Record(sequence, label, null, problem);
+        }
+        return new Record(sequence, label, pdfService.toInvoice(request), null);
+    }
+
+    private static String validate(PdfRequest request) {
+        if (request.getInvoiceId() == null || request.getInvoiceId().isBlank()) {
+            return "invoiceId is required";
+        }
+        if (request.getCustomerName() == null || request.getCustomerName().isBlank()) {
+            return "customerName is required";
+        }
+        if (request.getDate() == null) {
+            return "date is required";
+        }
+        try {
+            LocalDate.parse(request.getDate());
+        } catch (DateTimeParseException e) {
+            return "date must be YYYY-MM-DD: " + request.getDate();
+        }
+        if (request.getItems() == null || request.getItems().contains(null)) {
+            return "items are required";
+        }
+        return null;
+    }
+
+    // Save the valid records of the batch in one transaction and report every record of it
+    private void flush(List<Record> batch, JsonGenerator generator, Totals totals) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Invoice> invoices = new ArrayList<>(batch.size());
+        for (Record record : batch) {
+            if (record.invoice() != null) {
+                invoices.add(record.invoice());
+            }
+        }
+
+        Map<Record, String> errors = new LinkedHashMap<>();
+        if (!invoices.isEmpty()) {
+            long start = System.nanoTime();
+            try {
+                transactionTemplate.executeWithoutResult(status -> invoiceRepository.saveAll(invoices));
+            } catch (RuntimeException e) {
+                log.debug("Bulk ingest batch failed, retrying its {} invoices one at a time", invoices.size(), e);
+                for (Record record : batch) {
+                    if (record.invoice() == null) {
+                        continue;
+                    }
+                    // The failed transaction may have assigned ids that were never committed
+                    clearIds(record.invoice());
+                    try {
+                        transactionTemplate.executeWithoutResult(status -> invoiceRepository.save(record.invoice()));
+                    } catch (RuntimeException single) {
+                        errors.put(record, "Save failed: " + rootMessage(single));
+                    }
+                }
+            }
+            batchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            totals.batches++;
+        }
+
+        // Cached renderings looked up by these invoice numbers are out of date now
+        Set<String> invoiceNumbers = new HashSet<>();
+        for (Record record : batch) {
+            String error = record.error() != null ? record.error() : errors.get(record);
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("sequence", record.sequence());
+            result.put("invoice", record.label());
+            result.put("status", error == null ? "OK" : "FAILED");
+            if (error == null) {
+                result.put("id", record.invoice().getId());
+                invoiceNumbers.add(record.invoice().getInvoiceId());
+                totals.saved++;
+                savedRecords.increment();
+            } else {
+                result.put("error", error);
+                totals.failed++;
+                failedRecords.increment();
+            }
+            totals.received++;
+            writeLine(generator, result);
+        }
+        pdfResultCache.invalidateInvoiceNumbers(invoiceNumbers);
+        generator.flush();
+        batch.clear();
+    }
+
+    private static void clearIds(Invoice invoice) {
+        invoice.setId(null);
+        invoice.getItems().forEach(item -> item.setId(null));
+    }
+
+    private static String rootMessage(Throwable e) {
+        Throwable root = e;
+        while (root.getCause() != null && root.getCause() != root) {
+            root = root.getCause();
+        }
+        return root.getMessage();
+    }
+
+    private static void writeLine(JsonGenerator generator, Map<String, Object> line) throws IOException {
+        generator.writeObject(line);
+        generator.writeRaw('\n');
+    }
+
+    private record Record(int sequence, String label, Invoice invoice, String error) {
+    }
+
+    private static class Totals {
+        int received;
+        int saved;
+        int failed;
+        int batches;
+    }
+}
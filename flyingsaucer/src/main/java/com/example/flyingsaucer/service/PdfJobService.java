@@ -0,0 +1,214 @@
+package com.example.flyingsaucer.service;
+
+import com.example.flyingsaucer.metrics.RenderTrace;
+import com.example.flyingsaucer.model.InvoiceView;
+import com.example.flyingsaucer.model.PdfJob;
+import com.example.flyingsaucer.model.PdfRequest;
+import com.example.flyingsaucer.renderer.RenderAdmission;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process render queue. Submitting returns a job id straight away; a fixed set of worker
+ * threads takes jobs from a bounded priority queue, renders them through {@link PdfService} into
+ * {@code generated-pdfs/} and records the outcome for status polling. When the queue is full new
+ * jobs are rejected instead of piling up, so callers can back off.
+ */
+@Service
+public class PdfJobService {
+
+    private static final Logger log = LoggerFactory.getLogger(PdfJobService.class);
+
+    @Autowired
+    private PdfService pdfService;
+
+    @Autowired
+    private RenderAdmission renderAdmission;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${pdf.jobs.workers:0}")
+    private int workers;
+
+    @Value("${pdf.jobs.queue-capacity:100}")
+    private int queueCapacity;
+
+    @Value("${pdf.jobs.retention-ms:3600000}")
+    private long retentionMillis;
+
+    @Value("${pdf.jobs.evict-interval-ms:60000}")
+    private long evictIntervalMillis;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    private final PriorityBlockingQueue<PdfJob> queue = new PriorityBlockingQueue<>();
+    private final Map<String, PdfJob> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger running = new AtomicInteger();
+    private final List<Thread> workerThreads = new ArrayList<>();
+    private ScheduledExecutorService evictor;
+
+    private Timer queueWaitTimer;
+    private Timer renderTimer;
+    private Counter rejectedCounter;
+    private Counter doneCounter;
+    private Counter failedCounter;
+
+    @PostConstruct
+    public void start() {
+        if (workers <= 0) {
+            workers = Runtime.getRuntime().availableProcessors();
+        }
+
+        queueWaitTimer = Timer.builder("pdf.jobs.queue.wait")
+                .description("Time a render job spent queued before a worker picked it up")
+                .register(meterRegistry);
+        renderTimer = Timer.builder("pdf.jobs.render")
+                .description("Time a worker spent rendering a job")
+                .register(meterRegistry);
+        rejectedCounter = Counter.builder("pdf.jobs.rejected")
+                .description("Render jobs rejected because the queue was full")
+                .register(meterRegistry);
+        doneCounter = Counter.builder("pdf.jobs.completed").tag("status", "done").register(meterRegistry);
+        failedCounter = Counter.builder("pdf.jobs.completed").tag("status", "failed").register(meterRegistry);
+        Gauge.builder("pdf.jobs.queue.depth", queue, PriorityBlockingQueue::size)
+                .description("Render jobs waiting for a worker")
+                .register(meterRegistry);
+        Gauge.builder("pdf.jobs.running", running, AtomicInteger::get)
+                .description("Render jobs currently being rendered")
+                .register(meterRegistry);
+
+        for (int i = 1; i <= workers; i++) {
+            Thread thread = virtualThreads
+                    ? Thread.ofVirtual().name("pdf-job-" + i).unstarted(this::work)
+                    : Thread.ofPlatform().name("pdf-job-" + i).daemon().unstarted(this::work);
+            thread.start();
+            workerThreads.add(thread);
+        }
+
+        // Submitting also evicts, but finished jobs must not pile up while nobody submits
+        if (evictIntervalMillis > 0) {
+            evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "pdf-job-evictor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            evictor.scheduleWithFixedDelay(this::evictExpired, evictIntervalMillis, evictIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        workerThreads.forEach(Thread::interrupt);
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+    }
+
+    // Queue rendering of JSON invoice data
+    public PdfJob submit(PdfRequest request, int priority) {
+        String id = UUID.randomUUID().toString();
+        return enqueue(id, priority, () -> {
+            try (RenderAdmission.Ticket ticket = renderAdmission.acquire("invoice", pdfService.itemCount(request))) {
+                return pdfService.generatePdfFile(request, "invoice", "invoice_" + id);
+            }
+        });
+    }
+
+    // Queue rendering of an invoice stored in the database
+    public PdfJob submitFromDatabase(Long invoiceId, int priority) {
+        return enqueue(UUID.randomUUID().toString(), priority, () -> {
+            InvoiceView invoice = pdfService.findInvoiceView(invoiceId);
+            try (RenderAdmission.Ticket ticket = renderAdmission.acquire("invoice", pdfService.itemCount(invoice))) {
+                return pdfService.generatePdfFromDatabase(invoice);
+            }
+        });
+    }
+
+    public PdfJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    private synchronized PdfJob enqueue(String id, int priority, Callable<String> task) {
+        evictExpired();
+        if (queue.size() >= queueCapacity) {
+            rejectedCounter.increment();
+            throw new RejectedExecutionException("Render queue is full (" + queueCapacity + " jobs)");
+        }
+        // Render under the submitting endpoint's name so job renders show up in its metrics
+        String endpoint = RenderTrace.current().getEndpoint();
+        Callable<String> tracedTask = () -> {
+            try (RenderTrace.Scope scope = RenderTrace.begin(endpoint)) {
+                return task.call();
+            }
+        };
+        PdfJob job = new PdfJob(id, priority, sequence.incrementAndGet(), tracedTask);
+        jobs.put(id, job);
+        queue.add(job);
+        return job;
+    }
+
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            PdfJob job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            queueWaitTimer.record(System.nanoTime() - job.getCreatedNanos(), TimeUnit.NANOSECONDS);
+            running.incrementAndGet();
+            job.markRunning();
+            long start = System.nanoTime();
+            try {
+                job.markDone(job.getTask().call());
+                doneCounter.increment();
+            } catch (Exception e) {
+                log.warn("Render job {} failed", job.getId(), e);
+                job.markFailed(e.getMessage());
+                failedCounter.increment();
+            } finally {
+                renderTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                running.decrementAndGet();
+            }
+        }
+    }
+
+    // Forget finished jobs once they are older than the retention period
+    private void evictExpired() {
+        Instant cutoff = Instant.now().minus(Duration.ofMillis(retentionMillis));
+        jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAt().isBefore(cutoff));
+    }
+}
@@ -0,0 +1,215 @@
+package com.example.flyingsaucer.service;
+
+import com.example.flyingsaucer.cache.PdfResultCache;
+import com.example.flyingsaucer.model.InvoiceView;
+import com.example.flyingsaucer.model.PdfMergeRequest;
+import com.example.flyingsaucer.renderer.OutputSettings;
+import com.example.flyingsaucer.renderer.RenderAdmission;
+import com.example.flyingsaucer.repository.InvoiceRepository;
+import com.example.flyingsaucer.storage.PdfFileStore;
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfSmartCopy;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Combines PDFs that were already rendered into one document, e.g. a statement of many invoices.
+ * Stored files are read from the {@link PdfFileStore}; invoices are taken from the
+ * {@link PdfResultCache} and only rendered (and cached) when no rendering of them is there.
+ * <p>
+ * Pages are copied with {@link PdfSmartCopy}, which writes resources that are byte-for-byte
+ * identical across documents, such as the logo and fonts, only once. Each source is released
+ * once its pages are written, and the merged document goes straight to the output stream.
+ */
+@Service
+public class PdfMergeService {
+
+    private static final Logger log = LoggerFactory.getLogger(PdfMergeService.class);
+
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    @Autowired
+    private PdfService pdfService;
+
+    @Autowired
+    private RenderAdmission renderAdmission;
+
+    @Autowired
+    private PdfFileStore pdfFileStore;
+
+    @Autowired
+    private PdfResultCache pdfResultCache;
+
+    @Autowired
+    private InvoiceRepository invoiceRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${pdf.merge.max-documents:1000}")
+    private int maxDocuments;
+
+    private Counter fileCounter;
+    private Counter cachedCounter;
+    private Counter renderedCounter;
+
+    @PostConstruct
+    public void start() {
+        fileCounter = Counter.builder("pdf.merge.documents").tag("source", "file")
+                .description("Documents merged, by where their PDF came from")
+                .register(meterRegistry);
+        cachedCounter = Counter.builder("pdf.merge.documents").tag("source", "cache")
+                .description("Documents merged, by where their PDF came from")
+                .register(meterRegistry);
+        renderedCounter = Counter.builder("pdf.merge.documents").tag("source", "rendered")
+                .description("Documents merged, by where their PDF came from")
+                .register(meterRegistry);
+    }
+
+    // Reject empty or oversized requests and bad file names before anything is streamed
+    public void validate(PdfMergeRequest request) {
+        int count = size(request.getFiles()) + size(request.getInvoiceIds());
+        if (count == 0) {
+            throw new IllegalArgumentException("Specify files and/or invoiceIds to merge");
+        }
+        if (count > maxDocuments) {
+            throw new IllegalArgumentException("Cannot merge more than " + maxDocuments + " documents");
+        }
+        if (request.getFiles() != null) {
+            request.getFiles().forEach(pdfFileStore::find);
+        }
+    }
+
+    // Fail with the missing sources up front, rather than halfway through the response
+    public void checkSourcesExist(PdfMergeRequest request) {
+        List<String> missing = new ArrayList<>();
+        if (request.getFiles() != null) {
+            for (String fileName : request.getFiles()) {
+                if (pdfFileStore.find(fileName) == null) {
+                    missing.add(fileName);
+                }
+            }
+        }
+        if (request.getInvoiceIds() != null && !request.getInvoiceIds().isEmpty()) {
+            Set<Long> ids = new LinkedHashSet<>(request.getInvoiceIds());
+            Set<Long> found = new HashSet<>(invoiceRepository.findIdsByIdIn(ids, Pageable.unpaged()).getContent());
+            ids.stream().filter(id -> !found.contains(id)).forEach(id -> missing.add("invoice " + id));
+        }
+        if (!missing.isEmpty()) {
+            throw new NoSuchElementException("Not found: " + String.join(", ", missing));
+        }
+    }
+
+    public void writeMerged(PdfMergeRequest request, OutputStream outputStream) throws IOException, DocumentException {
+        BufferedOutputStream bufferedOutput = new BufferedOutputStream(outputStream, OUTPUT_BUFFER_SIZE);
+        Document document = new Document();
+        PdfSmartCopy copy = new PdfSmartCopy(document, bufferedOutput);
+        copy.setFullCompression();
+        document.open();
+
+        long start = System.nanoTime();
+        int merged = 0;
+        if (request.getFiles() != null) {
+            for (String fileName : request.getFiles()) {
+                Path file = pdfFileStore.find(fileName);
+                if (file == null) {
+                    throw new NoSuchElementException("Not found: " + fileName);
+                }
+                // Partial mode reads objects from the file as they are copied instead of loading it whole
+                append(copy, new PdfReader(file.toString(), null, true));
+                fileCounter.increment();
+                merged++;
+            }
+        }
+        if (request.getInvoiceIds() != null) {
+            for (Long invoiceId : request.getInvoiceIds()) {
+                appendInvoice(copy, invoiceId);
+                merged++;
+            }
+        }
+
+        document.close();
+        bufferedOutput.flush();
+        log.info("Merged {} documents in {} ms", merged, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void appendInvoice(PdfSmartCopy copy, Long invoiceId) throws IOException, DocumentException {
+        OutputSettings settings = pdfService.getDefaultOutputSettings();
+        String variant = PdfService.cacheVariant(settings);
+        String key = pdfResultCache.getInvoiceKey(invoiceId, variant);
+        byte[] pdf = key != null ? pdfResultCache.get(key) : null;
+        if (pdf != null) {
+            append(copy, new PdfReader(pdf));
+            cachedCounter.increment();
+            return;
+        }
+
+        InvoiceView invoice = pdfService.findInvoiceView(invoiceId);
+        if (pdfService.isLargeDocument(invoice)) {
+            // Too big to hold in memory or the cache; go through a temporary file instead
+            Path temp = Files.createTempFile("merge-", ".pdf");
+            try {
+                try (RenderAdmission.Ticket ticket = renderAdmission.acquire("invoice", pdfService.itemCount(invoice));
+                     OutputStream fileOutput = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                    pdfService.writeLargePdf(invoice, "invoice", settings, fileOutput);
+                }
+                append(copy, new PdfReader(temp.toString(), null, true));
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            renderedCounter.increment();
+            return;
+        }
+
+        // Render like a download of the invoice would, so both share the cached result. Only the
+        // render is charged to the admission budget, not copying its pages to the output
+        try (RenderAdmission.Ticket ticket = renderAdmission.acquire("invoice", pdfService.itemCount(invoice))) {
+            String html = pdfService.renderHtmlFromTemplate(invoice, "invoice");
+            key = PdfResultCache.key(html, variant);
+            pdf = pdfResultCache.get(key);
+            if (pdf == null) {
+                pdf = pdfService.generatePdfBytesFromHtml(html, settings);
+                pdfResultCache.put(key, pdf);
+                renderedCounter.increment();
+            } else {
+                cachedCounter.increment();
+            }
+        }
+        pdfResultCache.rememberInvoice(invoiceId, variant, invoice.invoiceId(), key);
+        append(copy, new PdfReader(pdf));
+    }
+
+    private static void append(PdfSmartCopy copy, PdfReader reader) throws IOException, DocumentException {
+        try {
+            copy.addDocument(reader);
+            copy.freeReader(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static int size(List<?> list) {
+        return list != null ? list.size() : 0;
+    }
+}
@@ -1,11 +1,33 @@
 package com.example.flyingsaucer.service;
 
+import com.example.flyingsaucer.cache.PdfResultCache;
+import com.example.flyingsaucer.metrics.RenderMetrics;
+import com.example.flyingsaucer.metrics.RenderTrace;
 import com.example.flyingsaucer.model.Invoice;
 import com.example.flyingsaucer.model.InvoiceItem;
+import com.example.flyingsaucer.model.InvoicePdf;
+import com.example.flyingsaucer.model.InvoiceView;
 import com.example.flyingsaucer.model.PdfRequest;
+import com.example.flyingsaucer.renderer.OutputProfiles;
+import com.example.flyingsaucer.renderer.OutputSettings;
+import com.example.flyingsaucer.renderer.PageFurniture;
+import com.example.flyingsaucer.renderer.RenderAdmission;
+import com.example.flyingsaucer.renderer.RenderPermits;
+import com.example.flyingsaucer.renderer.RendererPool;
 import com.example.flyingsaucer.repository.InvoiceRepository;
+import com.example.flyingsaucer.storage.PdfFileStore;
+import com.example.flyingsaucer.template.DocumentTemplate;
+import com.example.flyingsaucer.template.TemplateLinkBuilder;
+import com.example.flyingsaucer.template.TemplateRegistry;
+import com.itextpdf.text.Document;
 import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.pdf.PdfCopy;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfSmartCopy;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.stereotype.Service;
 import org.thymeleaf.TemplateEngine;
@@ -13,11 +35,11 @@ import org.thymeleaf.context.Context;
 import org.xhtmlrenderer.pdf.ITextRenderer;
 
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.time.format.DateTimeFormatter;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 @Service
@@ -29,102 +51,443 @@ public class PdfService {
     @Autowired
     private InvoiceRepository invoiceRepository;
 
-    private static final String OUTPUT_DIR = "generated-pdfs/";
-    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    @Autowired
+    private RendererPool rendererPool;
+
+    @Autowired
+    private RenderPermits renderPermits;
+
+    @Autowired
+    private PdfResultCache pdfResultCache;
+
+    @Autowired
+    private PdfFileStore pdfFileStore;
+
+    @Autowired
+    private RenderMetrics renderMetrics;
+
+    @Autowired
+    private OutputProfiles outputProfiles;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private TemplateRegistry templateRegistry;
+
+    @Autowired
+    private PageFurniture pageFurniture;
+
+    @Autowired
+    private RenderAdmission renderAdmission;
+
+    // Concurrent requests for the same stored invoice share one load and render, at the cost of streaming
+    @Value("${pdf.render.single-flight.enabled:true}")
+    private boolean singleFlightEnabled;
+
+    @Value("${pdf.render.single-flight.timeout-ms:60000}")
+    private long singleFlightTimeoutMillis;
+
+    private SingleFlight<InvoicePdf> invoiceRenders;
+
+    // Invoices with more items than this are rendered a chunk of items at a time
+    @Value("${pdf.large-document.threshold-items:2000}")
+    private int largeDocumentThreshold = 2000;
+
+    @Value("${pdf.large-document.chunk-items:500}")
+    private int largeDocumentChunkItems = 500;
+
+    // Size of the last HTML rendered from each template, used to presize its next output buffer.
+    // Capped so one very long document does not make every later one start with a huge buffer
+    private static final int DEFAULT_HTML_LENGTH = 16 * 1024;
+    private static final int MAX_HTML_LENGTH_HINT = 1024 * 1024;
+    private final Map<String, Integer> lastHtmlLengths = new ConcurrentHashMap<>();
+
+    // Base URL used for HTML rendered without the logo base path
+    public static final String DEFAULT_BASE_URL = "file:///";
+
+    @PostConstruct
+    public void start() {
+        invoiceRenders = new SingleFlight<>("invoice-render", singleFlightTimeoutMillis, meterRegistry);
+    }
+
+    public boolean isSingleFlightEnabled() {
+        return singleFlightEnabled;
+    }
+
+    /**
+     * Loads and renders a stored invoice into memory, or takes it from the result cache. Callers
+     * asking for the same invoice and settings while this runs wait for its result instead of
+     * loading and rendering the invoice again, whether or not the result cache is enabled.
+     * Only the caller that runs the render is charged to admission control; those waiting for it
+     * are not. Large invoices are only loaded; the caller admits and streams them with
+     * {@link #writeLargePdf}.
+     *
+     * @throws java.util.concurrent.TimeoutException if an identical render in flight took too long
+     * @throws RenderAdmission.Rejected if the render was not admitted, for every caller sharing it
+     */
+    public InvoicePdf renderInvoice(Long invoiceId, OutputSettings settings) throws Exception {
+        String variant = cacheVariant(settings);
+        return invoiceRenders.execute(invoiceId + "|" + variant, () -> {
+            InvoiceView invoice = findInvoiceView(invoiceId);
+            if (isLargeDocument(invoice)) {
+                return new InvoicePdf(invoice, null, null);
+            }
+            String key;
+            byte[] pdf;
+            try (RenderAdmission.Ticket ticket = renderAdmission.admit("invoice", itemCount(invoice))) {
+                String html = renderHtmlFromTemplate(invoice, "invoice");
+                key = PdfResultCache.key(html, variant);
+                pdf = pdfResultCache.get(key);
+                if (pdf == null) {
+                    pdf = generatePdfBytesFromHtml(html, settings);
+                    pdfResultCache.put(key, pdf);
+                }
+            }
+            pdfResultCache.rememberInvoice(invoiceId, variant, invoice.invoiceId(), key);
+            return new InvoicePdf(invoice, key, pdf);
+        });
+    }
+
+    // Output settings used when a caller does not choose any
+    public OutputSettings getDefaultOutputSettings() {
+        return outputProfiles.getDefault();
+    }
+
+    // Cache variant of HTML rendered without the logo base path, so each output setting is cached apart
+    public static String cacheVariant(OutputSettings settings) {
+        return settings.equals(OutputSettings.STANDARD) ? DEFAULT_BASE_URL : DEFAULT_BASE_URL + "|" + settings.variant();
+    }
 
     // Generate PDF from direct JSON input (existing)
     public String generatePdfFromHtml(String html, String fileName) throws IOException, DocumentException {
-        Path outputDirectory = Paths.get(OUTPUT_DIR);
-        if (!Files.exists(outputDirectory)) {
-            Files.createDirectories(outputDirectory);
+        return generatePdfFromHtml(html, getDefaultOutputSettings(), fileName);
+    }
+
+    public String generatePdfFromHtml(String html, OutputSettings settings, String fileName)
+            throws IOException, DocumentException {
+        // Add image support
+        return pdfFileStore.write(fileName + ".pdf",
+                outputStream -> renderPdf(html, DEFAULT_BASE_URL, settings, outputStream)).toString();
+    }
+
+    // Generate PDF as byte array from already rendered HTML
+    public byte[] generatePdfBytesFromHtml(String html) throws IOException, DocumentException {
+        return generatePdfBytesFromHtml(html, getDefaultOutputSettings());
+    }
+
+    public byte[] generatePdfBytesFromHtml(String html, OutputSettings settings) throws IOException, DocumentException {
+        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
+            writePdf(html, settings, outputStream);
+            return outputStream.toByteArray();
+        }
+    }
+
+    // Stream a PDF for already rendered HTML straight into the given output stream
+    public void writePdf(String html, OutputStream outputStream) throws IOException, DocumentException {
+        writePdf(html, getDefaultOutputSettings(), outputStream);
+    }
+
+    public void writePdf(String html, OutputSettings settings, OutputStream outputStream)
+            throws IOException, DocumentException {
+        renderPdf(html, DEFAULT_BASE_URL, settings, outputStream);
+    }
+
+    // Lay out the HTML and write the PDF using a renderer borrowed from the pool
+    private void renderPdf(String html, String baseUrl, OutputSettings settings, OutputStream outputStream)
+            throws IOException, DocumentException {
+        RenderTrace trace = RenderTrace.current();
+        trace.setOutput(settings.name());
+        CountingOutputStream countingStream = new CountingOutputStream(outputStream);
+        int pages = renderDocument(html, baseUrl, settings, countingStream, trace);
+        renderMetrics.recordDocument(trace, countingStream.getCount(), pages);
+    }
+
+    // Parse, lay out and write one document, returning its page count
+    private int renderDocument(String html, String baseUrl, OutputSettings settings, OutputStream outputStream,
+                               RenderTrace trace) throws IOException, DocumentException {
+        // With page furniture the header and footer come out of the DOM before layout; laying them
+        // out (once per template version) borrows a renderer, so this happens before borrowing ours
+        org.w3c.dom.Document document = null;
+        PageFurniture.Layout furniture = null;
+        long parseNanos = 0;
+        if (settings.pageFurniture()) {
+            try {
+                long start = System.nanoTime();
+                document = rendererPool.parse(html);
+                parseNanos = System.nanoTime() - start;
+                furniture = pageFurniture.extract(document, baseUrl, settings);
+            } catch (IOException | RuntimeException e) {
+                renderMetrics.recordFailure(trace, RenderTrace.Phase.PARSE);
+                throw e;
+            }
+        }
+
+        RendererPool.Lease lease;
+        try {
+            lease = rendererPool.borrow();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a PDF renderer", e);
+        }
+        RenderTrace.Phase phase = RenderTrace.Phase.PARSE;
+        try {
+            ITextRenderer renderer = lease.getRenderer();
+            lease.setOutputSettings(settings);
+            lease.setPageFurniture(furniture);
+            long start = System.nanoTime();
+            if (document != null) {
+                lease.setDocument(document, baseUrl);
+            } else {
+                lease.setDocumentFromString(html, baseUrl);
+            }
+            long parsed = System.nanoTime();
+            renderMetrics.recordPhase(trace, phase, parseNanos + parsed - start);
+
+            // Layout and PDF writing are CPU-bound; only run as many at once as there are permits
+            phase = RenderTrace.Phase.LAYOUT;
+            try (RenderPermits.Permit permit = acquirePermit()) {
+                long laidOutStart = System.nanoTime();
+                renderer.layout();
+                long laidOut = System.nanoTime();
+                renderMetrics.recordPhase(trace, phase, laidOut - laidOutStart);
+
+                phase = RenderTrace.Phase.WRITE;
+                renderer.createPDF(outputStream);
+                renderMetrics.recordPhase(trace, phase, System.nanoTime() - laidOut);
+            }
+            return renderer.getRootBox().getLayer().getPages().size();
+        } catch (IOException | DocumentException | RuntimeException e) {
+            lease.invalidate();
+            renderMetrics.recordFailure(trace, phase);
+            throw e;
+        } finally {
+            lease.close();
         }
+    }
 
-        String filePath = OUTPUT_DIR + fileName + ".pdf";
-        try (OutputStream outputStream = new FileOutputStream(filePath)) {
-            ITextRenderer renderer = new ITextRenderer();
-            
-            // Add image support
-            renderer.getSharedContext().setBaseURL("file:///");
-            renderer.setDocumentFromString(html);
-            renderer.layout();
-            renderer.createPDF(outputStream);
+    private RenderPermits.Permit acquirePermit() throws IOException {
+        try {
+            return renderPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a CPU permit", e);
         }
-        return filePath;
     }
 
     // Render HTML from Thymeleaf template
     public String renderHtmlFromTemplate(Object data, String templateName) {
+        RenderTrace trace = RenderTrace.current();
+        Context context = templateContext(data, templateName, trace);
+        return processTemplate(templateName, context, trace);
+    }
+
+    // Fill the template variables through the template's registered model mapper
+    private Context templateContext(Object data, String templateName, RenderTrace trace) {
+        DocumentTemplate template = templateRegistry.get(templateName);
+        trace.setTemplate(templateName);
         Context context = new Context();
+        template.mapper().populate(data, context);
+        context.setVariable(TemplateLinkBuilder.BASE_URL_VARIABLE, template.baseUrl());
+
+        // Facts for metrics and slow-render logs, for documents that have them
+        Object documentId = context.getVariable("invoiceId");
+        if (documentId != null) {
+            trace.setInvoiceId(String.valueOf(documentId));
+        }
+        if (context.getVariable("items") instanceof Collection<?> items) {
+            trace.setItemCount(items.size());
+        }
+        return context;
+    }
+
+    private String processTemplate(String templateName, Context context, RenderTrace trace) {
+        // Write straight into a buffer sized for a typical document instead of letting it grow
+        long start = System.nanoTime();
+        int lastHtmlLength = lastHtmlLengths.getOrDefault(templateName, DEFAULT_HTML_LENGTH);
+        StringWriter writer = new StringWriter(lastHtmlLength + lastHtmlLength / 4);
+        templateEngine.process(templateName, context, writer);
+        String html = writer.toString();
+        lastHtmlLengths.put(templateName, Math.min(html.length(), MAX_HTML_LENGTH_HINT));
+        renderMetrics.recordPhase(trace, RenderTrace.Phase.TEMPLATE, System.nanoTime() - start);
+        return html;
+    }
+
+    /**
+     * Whether the data has so many items that its HTML, DOM and box tree should not be held in
+     * memory at once. Such documents go through {@link #writeLargePdf} instead.
+     */
+    public boolean isLargeDocument(Object data) {
+        return items(data).size() > largeDocumentThreshold;
+    }
+
+    // Number of items the data renders, which is what its render cost is estimated from
+    public int itemCount(Object data) {
+        return items(data).size();
+    }
+
+    // Render the items table a chunk at a time: each chunk is run through the template, laid out
+    // and written on its own, and its pages are copied to the output before the next chunk starts.
+    // The invoice header is only rendered with the first chunk and the total with the last, unless
+    // the header and footer are page furniture.
+    public void writeLargePdf(Object data, String templateName, OutputStream outputStream)
+            throws IOException, DocumentException {
+        writeLargePdf(data, templateName, getDefaultOutputSettings(), outputStream);
+    }
+
+    public void writeLargePdf(Object data, String templateName, OutputSettings settings, OutputStream outputStream)
+            throws IOException, DocumentException {
+        RenderTrace trace = RenderTrace.current();
+        trace.setOutput(settings.name());
+        List<?> items = items(data);
+        CountingOutputStream countingStream = new CountingOutputStream(outputStream);
+        Document document = new Document();
+        // Every chunk carries its own copy of the page furniture; the smart copy writes identical streams once
+        PdfCopy copy = settings.pageFurniture()
+                ? new PdfSmartCopy(document, countingStream)
+                : new PdfCopy(document, countingStream);
+        copy.setCloseStream(false);
+        // Page streams arrive compressed from the chunks; these apply to what the copy writes itself
+        copy.setCompressionLevel(settings.compressionLevel());
+        if (settings.objectStreams()) {
+            copy.setFullCompression();
+        }
+        document.open();
+
+        int pages = 0;
+        int from = 0;
+        do {
+            int to = Math.min(from + largeDocumentChunkItems, items.size());
+            Context context = templateContext(data, templateName, trace);
+            context.setVariable("items", items.subList(from, to));
+            context.setVariable("firstChunk", from == 0);
+            context.setVariable("lastChunk", to == items.size());
+            // Page furniture is stamped on every page, so every chunk has to carry it
+            context.setVariable("pageFurniture", settings.pageFurniture());
+            String html = processTemplate(templateName, context, trace);
+
+            ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+            renderDocument(html, DEFAULT_BASE_URL, settings, chunk, trace);
+            PdfReader reader = new PdfReader(chunk.toByteArray());
+            try {
+                pages += reader.getNumberOfPages();
+                copy.addDocument(reader);
+                copy.freeReader(reader);
+            } finally {
+                reader.close();
+            }
+            from = to;
+        } while (from < items.size());
+
+        document.close();
+        renderMetrics.recordDocument(trace, countingStream.getCount(), pages);
+    }
+
+    // Render data into a PDF file, chunked when it is a large document
+    public String generatePdfFile(Object data, String templateName, String fileName) throws IOException, DocumentException {
+        return generatePdfFile(data, templateName, getDefaultOutputSettings(), fileName);
+    }
+
+    public String generatePdfFile(Object data, String templateName, OutputSettings settings, String fileName)
+            throws IOException, DocumentException {
+        if (!isLargeDocument(data)) {
+            return generatePdfFromHtml(renderHtmlFromTemplate(data, templateName), settings, fileName);
+        }
+        return pdfFileStore.write(fileName + ".pdf",
+                outputStream -> writeLargePdf(data, templateName, settings, outputStream)).toString();
+    }
+
+    // Render data into a byte array, chunked when it is a large document
+    public byte[] generatePdfBytes(Object data, String templateName) throws IOException, DocumentException {
+        if (!isLargeDocument(data)) {
+            return generatePdfBytesFromHtml(renderHtmlFromTemplate(data, templateName));
+        }
+        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
+            writeLargePdf(data, templateName, outputStream);
+            return outputStream.toByteArray();
+        }
+    }
+
+    private static List<?> items(Object data) {
+        List<?> items = null;
         if (data instanceof PdfRequest) {
-            PdfRequest request = (PdfRequest) data;
-            context.setVariable("invoiceId", request.getInvoiceId());
-            context.setVariable("customerName", request.getCustomerName());
-            context.setVariable("date", request.getDate());
-            context.setVariable("items", request.getItems());
-            context.setVariable("totalAmount", request.getTotalAmount());
+            items = ((PdfRequest) data).getItems();
         } else if (data instanceof Invoice) {
-            Invoice invoice = (Invoice) data;
-            context.setVariable("invoiceId", invoice.getInvoiceId());
-            context.setVariable("customerName", invoice.getCustomerName());
-            context.setVariable("date", invoice.getDate().format(FORMATTER));
-            context.setVariable("items", invoice.getItems());
-            context.setVariable("totalAmount", invoice.getTotalAmount());
+            items = ((Invoice) data).getItems();
+        } else if (data instanceof InvoiceView) {
+            items = ((InvoiceView) data).items();
+        } else if (data instanceof Map<?, ?> map && map.get("items") instanceof List<?> list) {
+            items = list;
         }
-        return templateEngine.process(templateName, context);
+        return items != null ? items : List.of();
     }
 
     // Generate PDF from Database by invoice ID
     public String generatePdfFromDatabase(Long invoiceId) throws Exception {
-        Invoice invoice = invoiceRepository.findById(invoiceId)
-                .orElseThrow(() -> new RuntimeException("Invoice not found"));
+        return generatePdfFromDatabase(findInvoiceView(invoiceId));
+    }
+
+    // Same for an invoice already loaded, e.g. to estimate its render cost first
+    public String generatePdfFromDatabase(InvoiceView invoice) throws Exception {
+        // Invoice numbers are free text, e.g. INV/2024/001
+        String fileName = "invoice_db_" + PdfFileStore.safeNamePart(invoice.invoiceId()) + "_" + System.currentTimeMillis();
+        return generatePdfFile(invoice, "invoice", fileName);
+    }
+
+    // Load a read-only copy of an invoice and its items for rendering
+    public InvoiceView findInvoiceView(Long invoiceId) {
+        long start = System.nanoTime();
+        try {
+            return invoiceRepository.findViewById(invoiceId)
+                    .orElseThrow(() -> new NoSuchElementException("Invoice not found with id: " + invoiceId));
+        } finally {
+            renderMetrics.recordPhase(RenderTrace.current(), RenderTrace.Phase.DB, System.nanoTime() - start);
+        }
+    }
 
-        String html = renderHtmlFromTemplate(invoice, "invoice");
-        String fileName = "invoice_db_" + invoice.getInvoiceId() + "_" + System.currentTimeMillis();
-        return generatePdfFromHtml(html, fileName);
+    // Render the invoice template for an invoice stored in the database
+    public String renderInvoiceHtmlFromDatabase(Long invoiceId) {
+        return renderHtmlFromTemplate(findInvoiceView(invoiceId), "invoice");
     }
 
     // Generate PDF as byte array from database
     public byte[] generatePdfBytesFromDatabase(Long invoiceId) throws Exception {
-        Invoice invoice = invoiceRepository.findById(invoiceId)
-                .orElseThrow(() -> new RuntimeException("Invoice not found with id: " + invoiceId));
+        String html = renderInvoiceHtmlFromDatabase(invoiceId);
 
-        String html = renderHtmlFromTemplate(invoice, "invoice");
-        
         try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-            ITextRenderer renderer = new ITextRenderer();
-            
             // Add image support for byte array generation
-            renderer.getSharedContext().setBaseURL("file:///");
-            renderer.setDocumentFromString(html);
-            renderer.layout();
-            renderer.createPDF(outputStream);
+            writePdf(html, outputStream);
             return outputStream.toByteArray();
         }
     }
 
     // Optional: Enhanced method with better image handling
     public byte[] generatePdfWithLogo(Long invoiceId) throws Exception {
-        Invoice invoice = invoiceRepository.findById(invoiceId)
-                .orElseThrow(() -> new RuntimeException("Invoice not found"));
-
-        String html = renderHtmlFromTemplate(invoice, "invoice");
-        
         try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-            ITextRenderer renderer = new ITextRenderer();
-            
-            // Set base URL for resolving relative paths
-            String basePath = new ClassPathResource("static/").getFile().getAbsolutePath();
-            renderer.getSharedContext().setBaseURL("file://" + basePath + "/");
-            
-            renderer.setDocumentFromString(html);
-            renderer.layout();
-            renderer.createPDF(outputStream);
+            writePdfWithLogo(invoiceId, outputStream);
             return outputStream.toByteArray();
         }
     }
 
+    // Stream the logo variant straight into the given output stream
+    public void writePdfWithLogo(Long invoiceId, OutputStream outputStream) throws Exception {
+        String html = renderInvoiceHtmlFromDatabase(invoiceId);
+
+        // Set base URL for resolving relative paths
+        String basePath = new ClassPathResource("static/").getFile().getAbsolutePath();
+        renderPdf(html, "file://" + basePath + "/", getDefaultOutputSettings(), outputStream);
+    }
+
     // Save JSON data to DB
     public Invoice saveInvoiceFromRequest(PdfRequest request) {
+        Invoice saved = invoiceRepository.save(toInvoice(request));
+        // Cached renderings of this invoice are out of date now
+        pdfResultCache.invalidateInvoice(saved.getId(), saved.getInvoiceId());
+        return saved;
+    }
+
+    // New, unsaved invoice entity with its items for the request data
+    public Invoice toInvoice(PdfRequest request) {
         Invoice invoice = new Invoice();
         invoice.setInvoiceId(request.getInvoiceId());
         invoice.setCustomerName(request.getCustomerName());
@@ -138,11 +501,37 @@ public class PdfService {
         }).collect(Collectors.toList());
 
         invoice.setItems(items);
-        return invoiceRepository.save(invoice);
+        return invoice;
     }
 
     // Getter for repository
     public InvoiceRepository getInvoiceRepository() {
         return invoiceRepository;
     }
+
+    // Counts the bytes of the generated PDF on their way to the caller's stream
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
 }
\ No newline at end of file
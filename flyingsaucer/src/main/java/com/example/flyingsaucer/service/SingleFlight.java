@@ -0,0 +1,94 @@
+package com.example.flyingsaucer.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs work at most once at a time per key. The first caller for a key (the leader) does the
+ * work; callers arriving while it runs wait for the same result, or the same exception, instead
+ * of repeating it. Nothing is kept once the work finishes, so this is not a cache: the next
+ * caller after that starts a new run.
+ */
+public class SingleFlight<V> {
+
+    private final String name;
+    private final long timeoutMillis;
+    private final Map<String, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final Counter joinedCounter;
+    private final Counter timeoutCounter;
+
+    public SingleFlight(String name, long timeoutMillis, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.timeoutMillis = timeoutMillis;
+        this.joinedCounter = Counter.builder("pdf.singleflight.joined")
+                .description("Calls that joined identical work already in flight instead of repeating it")
+                .tag("name", name)
+                .register(meterRegistry);
+        this.timeoutCounter = Counter.builder("pdf.singleflight.timeouts")
+                .description("Calls that gave up waiting for identical work in flight")
+                .tag("name", name)
+                .register(meterRegistry);
+        Gauge.builder("pdf.singleflight.in.flight", inFlight, Map::size)
+                .description("Keys with work in flight")
+                .tag("name", name)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the result of the work for the key, running it on this thread unless another
+     * thread already is, in which case this waits up to the timeout for that run to finish.
+     *
+     * @throws TimeoutException if the run in flight did not finish in time
+     */
+    public V execute(String key, Callable<V> work) throws Exception {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> leader = inFlight.putIfAbsent(key, flight);
+        if (leader != null) {
+            joinedCounter.increment();
+            return await(key, leader);
+        }
+
+        try {
+            V value = work.call();
+            flight.complete(value);
+            return value;
+        } catch (Throwable t) {
+            flight.completeExceptionally(t);
+            throw t;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    private V await(String key, CompletableFuture<V> leader) throws Exception {
+        try {
+            return leader.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timeoutCounter.increment();
+            throw new TimeoutException("Timed out after " + timeoutMillis + " ms waiting for " + name + " " + key);
+        } catch (ExecutionException e) {
+            // Fail the way the leader failed, so callers handle a shared failure like their own
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception exception) {
+                throw exception;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.flyingsaucer.service;
+
+import com.example.flyingsaucer.metrics.RenderTrace;
+import com.example.flyingsaucer.model.PdfRequest;
+import com.example.flyingsaucer.renderer.OutputProfiles;
+import com.example.flyingsaucer.renderer.OutputSettings;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Renders synthetic invoices through {@link PdfService} at start-up, before the application reports
+ * itself ready, so class loading, JIT compilation and the first reads of the template, stylesheet
+ * and logo are not paid for by customer requests. The first document goes through every output
+ * profile; the default profile is then rendered until the last {@code window} render times are
+ * within {@code tolerance} of each other, or the document/time budget runs out.
+ * <p>
+ * Time to first PDF and time to steady state are measured from JVM start, logged and published as
+ * {@code pdf.warmup.*} gauges together with the first and steady-state render times (NaN until known).
+ */
+@Service
+public class StartupWarmUp {
+
+    private static final Logger log = LoggerFactory.getLogger(StartupWarmUp.class);
+
+    /**
+     * Outcome of the warm-up. Times since JVM start are -1 when the stage was not reached.
+     *
+     * @param firstPdfMillis      JVM start until the first synthetic PDF was written
+     * @param firstRenderMillis   template and render time of that first PDF
+     * @param steadyStateMillis   JVM start until render times settled
+     * @param steadyRenderMillis  median render time once settled (or of the last renders)
+     * @param documents           synthetic PDFs rendered
+     */
+    public record Report(long firstPdfMillis, long firstRenderMillis, long steadyStateMillis,
+                         long steadyRenderMillis, int documents) {
+
+        static final Report NONE = new Report(-1, -1, -1, -1, 0);
+
+        public boolean isSteady() {
+            return steadyStateMillis >= 0;
+        }
+    }
+
+    @Autowired
+    private PdfService pdfService;
+
+    @Autowired
+    private OutputProfiles outputProfiles;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${pdf.warmup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${pdf.warmup.items:20}")
+    private int items;
+
+    @Value("${pdf.warmup.max-documents:50}")
+    private int maxDocuments;
+
+    @Value("${pdf.warmup.max-ms:30000}")
+    private long maxMillis;
+
+    @Value("${pdf.warmup.window:5}")
+    private int window;
+
+    @Value("${pdf.warmup.tolerance:0.2}")
+    private double tolerance;
+
+    private final AtomicReference<Report> report = new AtomicReference<>(Report.NONE);
+
+    public Report getReport() {
+        return report.get();
+    }
+
+    public Report run() {
+        registerGauges();
+        if (!enabled || maxDocuments <= 0) {
+            return report.get();
+        }
+
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxMillis);
+        OutputSettings settings = pdfService.getDefaultOutputSettings();
+        Deque<Long> recent = new ArrayDeque<>();
+        long firstPdf = -1;
+        long firstRender = -1;
+        long steadyState = -1;
+        int documents = 0;
+
+        try (RenderTrace.Scope scope = RenderTrace.begin("warmup")) {
+            while (documents < maxDocuments) {
+                long renderNanos = render(documents, settings);
+                documents++;
+                if (firstPdf < 0) {
+                    firstPdf = ManagementFactory.getRuntimeMXBean().getUptime();
+                    firstRender = TimeUnit.NANOSECONDS.toMillis(renderNanos);
+                    // Load the code paths of the other profiles once; they are not part of the steady-state window
+                    for (OutputSettings other : outputProfiles.getAll()) {
+                        if (!other.equals(settings)) {
+                            render(documents++, other);
+                        }
+                    }
+                    report.set(new Report(firstPdf, firstRender, -1, firstRender, documents));
+                    continue;
+                }
+
+                recent.addLast(renderNanos);
+                if (recent.size() > window) {
+                    recent.removeFirst();
+                }
+                if (recent.size() == window && isSteady(recent)) {
+                    steadyState = ManagementFactory.getRuntimeMXBean().getUptime();
+                    break;
+                }
+                if (System.nanoTime() - deadline > 0) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            log.warn("PDF warm-up failed after {} documents; the first requests will be slower", documents, e);
+        }
+
+        long steadyRender = recent.isEmpty() ? firstRender : TimeUnit.NANOSECONDS.toMillis(median(recent));
+        Report result = new Report(firstPdf, firstRender, steadyState, steadyRender, documents);
+        report.set(result);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (result.isSteady()) {
+            log.info("PDF warm-up: first PDF {} ms after JVM start ({} ms to render), steady state {} ms after JVM start "
+                            + "({} ms per invoice) after {} documents in {} ms",
+                    firstPdf, firstRender, steadyState, steadyRender, documents, elapsed);
+        } else {
+            log.info("PDF warm-up: first PDF {} ms after JVM start ({} ms to render), no steady state within {} documents "
+                            + "in {} ms (last renders {} ms per invoice)",
+                    firstPdf, firstRender, documents, elapsed, steadyRender);
+        }
+        return result;
+    }
+
+    // Template and PDF for one synthetic invoice, discarding the output
+    private long render(int number, OutputSettings settings) throws Exception {
+        long start = System.nanoTime();
+        String html = pdfService.renderHtmlFromTemplate(syntheticInvoice(number), "invoice");
+        pdfService.writePdf(html, settings, OutputStream.nullOutputStream());
+        return System.nanoTime() - start;
+    }
+
+    private PdfRequest syntheticInvoice(int number) {
+        List<PdfRequest.Item> lines = new ArrayList<>(items);
+        BigDecimal total = BigDecimal.ZERO;
+        for (int i = 1; i <= items; i++) {
+            PdfRequest.Item item = new PdfRequest.Item();
+            item.setName("Warm-up item " + i);
+            item.setQuantity(1 + i % 5);
+            item.setPrice(BigDecimal.valueOf(100 + i * 25L, 2));
+            total = total.add(item.getPrice().multiply(BigDecimal.valueOf(item.getQuantity())));
+            lines.add(item);
+        }
+        PdfRequest request = new PdfRequest();
+        request.setInvoiceId("WARMUP-" + number);
+        request.setCustomerName("Warm-up Customer");
+        request.setDate("2024-01-15");
+        request.setItems(lines);
+        request.setTotalAmount(total);
+        return request;
+    }
+
+    private boolean isSteady(Deque<Long> recent) {
+        long min = Collections.min(recent);
+        long max = Collections.max(recent);
+        return max - min <= min * tolerance;
+    }
+
+    private static long median(Deque<Long> recent) {
+        List<Long> sorted = new ArrayList<>(recent);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+
+    private void registerGauges() {
+        timeGauge("pdf.warmup.time.to.first.pdf", "Time from JVM start until the first PDF was written",
+                Report::firstPdfMillis);
+        timeGauge("pdf.warmup.time.to.steady.state", "Time from JVM start until render times settled",
+                Report::steadyStateMillis);
+        timeGauge("pdf.warmup.first.render", "Render time of the first PDF after start-up",
+                Report::firstRenderMillis);
+        timeGauge("pdf.warmup.steady.render", "Render time once warmed up", Report::steadyRenderMillis);
+    }
+
+    private void timeGauge(String name, String description, ToDoubleFunction<Report> millis) {
+        TimeGauge.builder(name, report, TimeUnit.MILLISECONDS, ref -> {
+                    double value = millis.applyAsDouble(ref.get());
+                    return value < 0 ? Double.NaN : value;
+                })
+                .description(description)
+                .register(meterRegistry);
+    }
+}
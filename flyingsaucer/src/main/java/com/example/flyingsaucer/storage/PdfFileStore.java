@@ -0,0 +1,251 @@
+package com.example.flyingsaucer.storage;
+
+import com.itextpdf.text.DocumentException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Generated PDF files under {@code pdf.storage.dir}. Files are spread over 256 subdirectories
+ * picked from a hash of the file name, so the shard can be found again from the name alone and
+ * no single directory grows huge. Each file is written under a temporary name and renamed into
+ * place, so a download never sees a partial PDF.
+ * <p>
+ * A background sweep deletes files older than {@code pdf.storage.max-age-ms} and then the oldest
+ * files until the total is below {@code pdf.storage.max-bytes}. It covers every directory under
+ * {@code pdf.storage.dir}, including the result cache's copies on disk when they are kept there.
+ */
+@Component
+public class PdfFileStore {
+
+    private static final Logger log = LoggerFactory.getLogger(PdfFileStore.class);
+
+    private static final Pattern FILE_NAME = Pattern.compile("[A-Za-z0-9][A-Za-z0-9._-]*\\.pdf");
+    private static final Pattern UNSAFE_CHARACTERS = Pattern.compile("[^A-Za-z0-9._-]");
+    private static final int MAX_NAME_PART_LENGTH = 100;
+    private static final String TEMP_SUFFIX = ".tmp";
+    // Temporary files this old belong to a write that died, not one in progress
+    private static final long STALE_TEMP_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final Path directory;
+    private final long maxAgeMillis;
+    private final long maxBytes;
+    private final long sweepIntervalMillis;
+
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicLong storedFiles = new AtomicLong();
+    private final Counter deletedCounter;
+
+    private ScheduledExecutorService sweeper;
+
+    public PdfFileStore(@Value("${pdf.storage.dir:generated-pdfs}") String directory,
+                        @Value("${pdf.storage.max-age-ms:86400000}") long maxAgeMillis,
+                        @Value("${pdf.storage.max-bytes:1073741824}") long maxBytes,
+                        @Value("${pdf.storage.sweep-interval-ms:600000}") long sweepIntervalMillis,
+                        MeterRegistry meterRegistry) {
+        this.directory = Paths.get(directory);
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxBytes = maxBytes;
+        this.sweepIntervalMillis = sweepIntervalMillis;
+
+        this.deletedCounter = Counter.builder("pdf.storage.deleted")
+                .description("Generated PDF files deleted by the retention sweep")
+                .register(meterRegistry);
+        Gauge.builder("pdf.storage.size", storedBytes, AtomicLong::get)
+                .description("Bytes of generated PDF files on disk as of the last sweep")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("pdf.storage.files", storedFiles, AtomicLong::get)
+                .description("Generated PDF files on disk as of the last sweep")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        Files.createDirectories(directory);
+        if (sweepIntervalMillis > 0) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "pdf-storage-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            sweeper.scheduleWithFixedDelay(this::sweepQuietly, 0, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes a file through the given writer and moves it into place once it is complete.
+     * Returns the path of the stored file.
+     */
+    public Path write(String fileName, ContentWriter writer) throws IOException, DocumentException {
+        Path target = pathFor(fileName);
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), fileName, TEMP_SUFFIX);
+        try {
+            try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                writer.writeTo(outputStream);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return target;
+    }
+
+    /**
+     * Returns the stored file with the given name, or null if there is none.
+     *
+     * @throws IllegalArgumentException if the name is not a plain PDF file name
+     */
+    public Path find(String fileName) {
+        Path file = pathFor(fileName);
+        return Files.isRegularFile(file) ? file : null;
+    }
+
+    /**
+     * Turns free text such as an invoice number into something that can be part of a file name,
+     * replacing every character a name may not contain with an underscore.
+     */
+    public static String safeNamePart(String text) {
+        String safe = UNSAFE_CHARACTERS.matcher(String.valueOf(text)).replaceAll("_");
+        return safe.length() > MAX_NAME_PART_LENGTH ? safe.substring(0, MAX_NAME_PART_LENGTH) : safe;
+    }
+
+    // Files live in the shard named by one byte of a checksum of their name, in hex
+    private Path pathFor(String fileName) {
+        if (fileName == null || !FILE_NAME.matcher(fileName).matches()) {
+            throw new IllegalArgumentException("Invalid PDF file name: " + fileName);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(fileName.getBytes(StandardCharsets.UTF_8));
+        return directory.resolve(String.format("%02x", crc.getValue() & 0xff)).resolve(fileName);
+    }
+
+    private void sweepQuietly() {
+        try {
+            sweep();
+        } catch (Exception e) {
+            log.warn("Sweeping generated PDFs in {} failed", directory, e);
+        }
+    }
+
+    /**
+     * Deletes expired files, then the oldest files while the total is over the size limit.
+     */
+    public void sweep() throws IOException {
+        long now = System.currentTimeMillis();
+        List<StoredFile> files = new ArrayList<>();
+        long totalBytes = 0;
+        int deleted = 0;
+
+        // Files in the shards and other subdirectories such as the result cache, plus any written
+        // to the top level before files were sharded
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+            for (Path child : children) {
+                if (Files.isDirectory(child)) {
+                    try (DirectoryStream<Path> subdirectory = Files.newDirectoryStream(child, PdfFileStore::isStored)) {
+                        subdirectory.forEach(entries::add);
+                    }
+                } else if (isStored(child)) {
+                    entries.add(child);
+                }
+            }
+        }
+
+        for (Path entry : entries) {
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            long age = now - attributes.lastModifiedTime().toMillis();
+            boolean temp = entry.getFileName().toString().endsWith(TEMP_SUFFIX);
+            if (temp ? age > STALE_TEMP_MILLIS : maxAgeMillis >= 0 && age > maxAgeMillis) {
+                if (delete(entry)) {
+                    deleted++;
+                }
+            } else if (!temp && attributes.isRegularFile()) {
+                files.add(new StoredFile(entry, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                totalBytes += attributes.size();
+            }
+        }
+
+        if (maxBytes >= 0 && totalBytes > maxBytes) {
+            files.sort(Comparator.comparingLong(StoredFile::lastModified));
+            for (int i = 0; i < files.size() && totalBytes > maxBytes; i++) {
+                StoredFile file = files.get(i);
+                if (delete(file.path())) {
+                    deleted++;
+                    totalBytes -= file.size();
+                    files.set(i, null);
+                }
+            }
+            files.removeIf(file -> file == null);
+        }
+
+        storedBytes.set(totalBytes);
+        storedFiles.set(files.size());
+        if (deleted > 0) {
+            deletedCounter.increment(deleted);
+            log.info("Deleted {} generated PDFs, {} files ({} bytes) remain", deleted, files.size(), totalBytes);
+        }
+    }
+
+    private static boolean isStored(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(".pdf") || name.endsWith(TEMP_SUFFIX);
+    }
+
+    private boolean delete(Path file) {
+        try {
+            return Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Could not delete generated PDF {}: {}", file, e.getMessage());
+            return false;
+        }
+    }
+
+    @FunctionalInterface
+    public interface ContentWriter {
+        void writeTo(OutputStream outputStream) throws IOException, DocumentException;
+    }
+
+    private record StoredFile(Path path, long size, long lastModified) {
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.flyingsaucer.template;
+
+import java.util.List;
+
+/**
+ * A template known to the {@link TemplateRegistry}.
+ *
+ * @param name      template name, as passed to Thymeleaf
+ * @param mapper    fills the template's variables from the data being rendered
+ * @param baseUrl   what relative {@code @{...}} links in the template resolve against
+ * @param resources stylesheets, images and other files of the template, loaded into the shared
+ *                  caches when the template is registered
+ * @param source    where the template was loaded from
+ */
+public record DocumentTemplate(String name, ModelMapper mapper, String baseUrl, List<String> resources, String source) {
+}
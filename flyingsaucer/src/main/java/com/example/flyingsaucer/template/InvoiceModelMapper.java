@@ -0,0 +1,51 @@
+package com.example.flyingsaucer.template;
+
+import com.example.flyingsaucer.model.Invoice;
+import com.example.flyingsaucer.model.InvoiceView;
+import com.example.flyingsaucer.model.PdfRequest;
+import org.springframework.stereotype.Component;
+import org.thymeleaf.context.Context;
+
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Fills the {@code invoice} template from a JSON request, a stored invoice or an invoice view.
+ * Anything else is mapped property by property.
+ */
+@Component
+public class InvoiceModelMapper implements ModelMapper {
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    private final PropertiesModelMapper fallback = new PropertiesModelMapper();
+
+    @Override
+    public String templateName() {
+        return "invoice";
+    }
+
+    @Override
+    public void populate(Object data, Context context) {
+        if (data instanceof PdfRequest request) {
+            context.setVariable("invoiceId", request.getInvoiceId());
+            context.setVariable("customerName", request.getCustomerName());
+            context.setVariable("date", request.getDate());
+            context.setVariable("items", request.getItems());
+            context.setVariable("totalAmount", request.getTotalAmount());
+        } else if (data instanceof Invoice invoice) {
+            context.setVariable("invoiceId", invoice.getInvoiceId());
+            context.setVariable("customerName", invoice.getCustomerName());
+            context.setVariable("date", invoice.getDate().format(FORMATTER));
+            context.setVariable("items", invoice.getItems());
+            context.setVariable("totalAmount", invoice.getTotalAmount());
+        } else if (data instanceof InvoiceView invoice) {
+            context.setVariable("invoiceId", invoice.invoiceId());
+            context.setVariable("customerName", invoice.customerName());
+            context.setVariable("date", invoice.date().format(FORMATTER));
+            context.setVariable("items", invoice.items());
+            context.setVariable("totalAmount", invoice.totalAmount());
+        } else {
+            fallback.populate(data, context);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.flyingsaucer.template;
+
+import org.thymeleaf.context.Context;
+
+/**
+ * Turns the data a document is rendered from into the variables of one template. Register an
+ * implementation as a bean to give a template its own mapping; templates without one get
+ * {@link PropertiesModelMapper}.
+ */
+public interface ModelMapper {
+
+    /**
+     * Name of the template this mapper fills.
+     */
+    String templateName();
+
+    void populate(Object data, Context context);
+}
@@ -0,0 +1,47 @@
+package com.example.flyingsaucer.template;
+
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeanWrapperImpl;
+import org.thymeleaf.context.Context;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.RecordComponent;
+import java.util.Map;
+
+/**
+ * Default mapping for templates without a {@link ModelMapper} of their own: the entries of a map
+ * (such as a JSON object), the components of a record or the readable properties of a bean each
+ * become a template variable of the same name.
+ */
+public class PropertiesModelMapper implements ModelMapper {
+
+    @Override
+    public String templateName() {
+        return null;
+    }
+
+    @Override
+    public void populate(Object data, Context context) {
+        if (data == null) {
+            return;
+        }
+        if (data instanceof Map<?, ?> map) {
+            map.forEach((key, value) -> context.setVariable(String.valueOf(key), value));
+        } else if (data.getClass().isRecord()) {
+            for (RecordComponent component : data.getClass().getRecordComponents()) {
+                try {
+                    context.setVariable(component.getName(), component.getAccessor().invoke(data));
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Can't read " + component.getName() + " of " + data.getClass(), e);
+                }
+            }
+        } else {
+            BeanWrapper bean = new BeanWrapperImpl(data);
+            for (PropertyDescriptor property : bean.getPropertyDescriptors()) {
+                if (property.getReadMethod() != null && !"class".equals(property.getName())) {
+                    context.setVariable(property.getName(), bean.getPropertyValue(property.getName()));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.flyingsaucer.template;
+
+import org.thymeleaf.context.IExpressionContext;
+import org.thymeleaf.linkbuilder.StandardLinkBuilder;
+
+import java.util.regex.Pattern;
+
+/**
+ * Resolves relative links such as {@code @{receipt/style.css}} against the base URL of the
+ * template being rendered, so templates in the template directory can refer to their own
+ * stylesheets and images without knowing where that directory is.
+ */
+public class TemplateLinkBuilder extends StandardLinkBuilder {
+
+    /**
+     * Context variable holding the base URL of the template being rendered.
+     */
+    public static final String BASE_URL_VARIABLE = "templateBaseUrl";
+
+    private static final Pattern SCHEME = Pattern.compile("^[A-Za-z][A-Za-z0-9+.-]*:");
+
+    @Override
+    protected String processLink(IExpressionContext context, String link) {
+        Object baseUrl = context.getVariable(BASE_URL_VARIABLE);
+        if (baseUrl != null && isRelative(link)) {
+            link = baseUrl + link;
+        }
+        return super.processLink(context, link);
+    }
+
+    private static boolean isRelative(String link) {
+        if (link.isEmpty() || SCHEME.matcher(link).find()) {
+            return false;
+        }
+        char first = link.charAt(0);
+        return first != '/' && first != '#' && first != '?' && first != '~';
+    }
+}
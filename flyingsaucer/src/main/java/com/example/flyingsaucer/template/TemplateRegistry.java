@@ -0,0 +1,383 @@
+package com.example.flyingsaucer.template;
+
+import com.example.flyingsaucer.cache.PdfResultCache;
+import com.example.flyingsaucer.renderer.FontRegistry;
+import com.example.flyingsaucer.renderer.PageFurniture;
+import com.example.flyingsaucer.renderer.RendererPool;
+import com.example.flyingsaucer.renderer.ResourceCache;
+import com.example.flyingsaucer.renderer.StylesheetCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Component;
+import org.thymeleaf.TemplateEngine;
+import org.thymeleaf.context.Context;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * The templates documents can be rendered with: those under {@code classpath:templates}, plus
+ * {@code <name>.html} files in {@code pdf.templates.dir}, which take precedence over built-in
+ * templates of the same name. Each template is parsed when it is registered, and the files
+ * under {@code <dir>/<name>/} are loaded into the shared resource and stylesheet caches then, so
+ * the first document does not pay for them. Fonts anywhere under the directory are registered
+ * with every renderer.
+ * <p>
+ * With {@code pdf.templates.watch} the directory is watched: changed templates are re-parsed,
+ * and changed stylesheets, images and fonts are dropped from the caches that hold them,
+ * including rendered PDFs, which may have been made with the old files.
+ */
+@Component
+public class TemplateRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(TemplateRegistry.class);
+
+    private static final String CLASSPATH_TEMPLATES = "classpath*:templates/*.html";
+    private static final String CLASSPATH_BASE_URL = "classpath:templates/";
+    private static final String SUFFIX = ".html";
+    private static final Pattern TEMPLATE_NAME = Pattern.compile("[A-Za-z0-9][A-Za-z0-9_-]*");
+    private static final Set<String> FONT_EXTENSIONS = Set.of(".ttf", ".otf", ".ttc");
+    // Editors save in several steps; wait for the directory to settle before reloading
+    private static final long SETTLE_MILLIS = 250;
+
+    @Autowired
+    private TemplateEngine templateEngine;
+
+    @Autowired
+    private List<ModelMapper> mappers;
+
+    @Autowired
+    private RendererPool rendererPool;
+
+    @Autowired
+    private FontRegistry fontRegistry;
+
+    @Autowired
+    private ResourceCache resourceCache;
+
+    @Autowired
+    private StylesheetCache stylesheetCache;
+
+    @Autowired
+    private PdfResultCache pdfResultCache;
+
+    @Autowired
+    private PageFurniture pageFurniture;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${pdf.templates.dir:}")
+    private String directory;
+
+    @Value("${pdf.templates.watch:true}")
+    private boolean watch;
+
+    private final Map<String, DocumentTemplate> templates = new ConcurrentHashMap<>();
+    private final Map<String, ModelMapper> mappersByTemplate = new HashMap<>();
+    private final Set<String> builtInNames = new HashSet<>();
+    private final ModelMapper defaultMapper = new PropertiesModelMapper();
+
+    private Path templateDirectory;
+    private WatchService watchService;
+    private Thread watcher;
+    private Counter reloadCounter;
+
+    @PostConstruct
+    public void start() throws IOException {
+        for (ModelMapper mapper : mappers) {
+            mappersByTemplate.put(mapper.templateName(), mapper);
+        }
+        reloadCounter = Counter.builder("pdf.templates.reloads")
+                .description("Templates and template resources reloaded after they changed on disk")
+                .register(meterRegistry);
+        Gauge.builder("pdf.templates.registered", templates, Map::size)
+                .description("Templates documents can be rendered with")
+                .register(meterRegistry);
+
+        for (Resource resource : new PathMatchingResourcePatternResolver().getResources(CLASSPATH_TEMPLATES)) {
+            String name = templateName(resource.getFilename());
+            if (name != null) {
+                builtInNames.add(name);
+                register(name, null);
+            }
+        }
+
+        if (directory != null && !directory.isBlank()) {
+            templateDirectory = Paths.get(directory).toAbsolutePath().normalize();
+            if (!Files.isDirectory(templateDirectory)) {
+                log.warn("Template directory {} does not exist, only built-in templates are available", templateDirectory);
+                templateDirectory = null;
+            } else {
+                if (fontRegistry.addFonts(templateDirectory) > 0) {
+                    rendererPool.recycle();
+                }
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(templateDirectory, "*" + SUFFIX)) {
+                    for (Path file : files) {
+                        String name = templateName(file.getFileName().toString());
+                        if (name != null) {
+                            register(name, file);
+                        }
+                    }
+                }
+                if (watch) {
+                    startWatching();
+                }
+            }
+        }
+        log.info("Registered templates {}", getNames());
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (watcher != null) {
+            watcher.interrupt();
+        }
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    /**
+     * @throws NoSuchElementException if no template has the name
+     */
+    public DocumentTemplate get(String name) {
+        DocumentTemplate template = templates.get(name);
+        if (template == null) {
+            throw new NoSuchElementException("Unknown template: " + name);
+        }
+        return template;
+    }
+
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(new TreeSet<>(templates.keySet()));
+    }
+
+    // Parse the template and load its resources, replacing any earlier registration
+    private void register(String name, Path file) throws IOException {
+        long start = System.nanoTime();
+        DocumentTemplate template;
+        if (file != null) {
+            Path resourceDirectory = file.resolveSibling(name);
+            template = new DocumentTemplate(name, mapperFor(name), templateDirectory.toUri().toString(),
+                    resources(resourceDirectory), file.toString());
+        } else {
+            template = new DocumentTemplate(name, mapperFor(name), CLASSPATH_BASE_URL, List.of(), CLASSPATH_BASE_URL + name + SUFFIX);
+        }
+
+        templateEngine.clearTemplateCacheFor(name);
+        try {
+            // Thymeleaf caches the parsed template before running it, so even a run that fails
+            // on the empty model leaves the template parsed
+            Context context = new Context();
+            context.setVariable(TemplateLinkBuilder.BASE_URL_VARIABLE, template.baseUrl());
+            templateEngine.process(name, context, Writer.nullWriter());
+        } catch (RuntimeException e) {
+            log.debug("Template {} needs data to run: {}", name, e.getMessage());
+        }
+        if (!template.resources().isEmpty()) {
+            try {
+                rendererPool.preload(template.resources());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        templates.put(name, template);
+        log.info("Loaded template {} from {} with {} resources in {} ms", name, template.source(),
+                template.resources().size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private ModelMapper mapperFor(String name) {
+        return mappersByTemplate.getOrDefault(name, defaultMapper);
+    }
+
+    private static List<String> resources(Path resourceDirectory) throws IOException {
+        if (!Files.isDirectory(resourceDirectory)) {
+            return List.of();
+        }
+        List<String> resources = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(resourceDirectory)) {
+            paths.filter(Files::isRegularFile)
+                    .filter(path -> !isFont(path))
+                    .sorted()
+                    .forEach(path -> resources.add(path.toUri().toString()));
+        }
+        return resources;
+    }
+
+    private static String templateName(String fileName) {
+        if (fileName == null || !fileName.endsWith(SUFFIX)) {
+            return null;
+        }
+        String name = fileName.substring(0, fileName.length() - SUFFIX.length());
+        return TEMPLATE_NAME.matcher(name).matches() ? name : null;
+    }
+
+    private static boolean isFont(Path path) {
+        String fileName = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        int dot = fileName.lastIndexOf('.');
+        return dot >= 0 && FONT_EXTENSIONS.contains(fileName.substring(dot));
+    }
+
+    private void startWatching() throws IOException {
+        watchService = templateDirectory.getFileSystem().newWatchService();
+        watchTree(templateDirectory);
+        watcher = new Thread(this::watchLoop, "pdf-template-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void watchTree(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.filter(Files::isDirectory).toList()) {
+                path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            }
+        }
+    }
+
+    private void watchLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Set<Path> changed = new LinkedHashSet<>();
+                WatchKey key = watchService.take();
+                while (key != null) {
+                    collect(key, changed);
+                    key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                try {
+                    apply(changed);
+                } catch (Exception e) {
+                    log.warn("Reloading templates from {} failed", templateDirectory, e);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Shutting down
+        }
+    }
+
+    private static void collect(WatchKey key, Set<Path> changed) {
+        Path parent = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events were lost; treat the whole directory as changed
+                changed.add(parent);
+            } else {
+                changed.add(parent.resolve((Path) event.context()));
+            }
+        }
+        key.reset();
+    }
+
+    private void apply(Set<Path> changed) throws IOException {
+        Set<String> reload = new TreeSet<>();
+        boolean fontsChanged = false;
+        boolean resourcesChanged = false;
+
+        for (Path path : changed) {
+            if (Files.isDirectory(path)) {
+                // A new or renamed directory: watch it and treat everything in it as changed
+                watchTree(path);
+                try (Stream<Path> paths = Files.walk(path)) {
+                    for (Path file : paths.filter(Files::isRegularFile).toList()) {
+                        fontsChanged |= isFont(file);
+                        resourcesChanged = true;
+                        invalidateResource(file);
+                        addTemplate(file, reload);
+                    }
+                }
+                continue;
+            }
+            Path relative = templateDirectory.relativize(path);
+            if (relative.getNameCount() == 1 && templateName(path.getFileName().toString()) != null) {
+                reload.add(templateName(path.getFileName().toString()));
+            } else {
+                fontsChanged |= isFont(path);
+                resourcesChanged = true;
+                invalidateResource(path);
+                addTemplate(path, reload);
+            }
+        }
+
+        if (fontsChanged && fontRegistry.addFonts(templateDirectory) > 0) {
+            rendererPool.recycle();
+        }
+        for (String name : reload) {
+            Path file = templateDirectory.resolve(name + SUFFIX);
+            if (Files.isRegularFile(file)) {
+                register(name, file);
+            } else if (builtInNames.contains(name)) {
+                register(name, null);
+            } else {
+                templates.remove(name);
+                templateEngine.clearTemplateCacheFor(name);
+                log.info("Removed template {}", name);
+            }
+            reloadCounter.increment();
+        }
+        // Only once every template is replaced, so nothing rendered with the old ones is cached after this
+        if (resourcesChanged || fontsChanged) {
+            // Cached PDFs and page furniture are keyed by their HTML, which does not change with the files it links to
+            pdfResultCache.clear();
+            pageFurniture.clear();
+        } else if (!reload.isEmpty()) {
+            // New template HTML gets new keys, but stored invoices still point at what the old one rendered
+            pdfResultCache.clearInvoiceIndex();
+        }
+    }
+
+    // A template file, or a resource under a template's own directory, means that template changed
+    private void addTemplate(Path file, Set<String> reload) {
+        Path relative = templateDirectory.relativize(file);
+        if (relative.getNameCount() == 1) {
+            String name = templateName(file.getFileName().toString());
+            if (name != null) {
+                reload.add(name);
+            }
+        } else if (templates.containsKey(relative.getName(0).toString())) {
+            reload.add(relative.getName(0).toString());
+        }
+    }
+
+    // The user agent caches resources under their resolved URL, which spells file URLs as file:/path
+    private void invalidateResource(Path file) throws IOException {
+        for (String uri : List.of(file.toUri().toString(), file.toUri().toURL().toString())) {
+            resourceCache.invalidateResource(uri);
+            stylesheetCache.invalidate(uri);
+        }
+        reloadCounter.increment();
+    }
+}
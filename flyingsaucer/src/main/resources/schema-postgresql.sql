@@ -0,0 +1,10 @@
+-- Runs after Hibernate's schema update on every start (spring.jpa.defer-datasource-initialization).
+-- Invoice and item ids come from these sequences 50 at a time. Databases created while ids were
+-- identity columns already hold ids the new sequences would hand out again, so each sequence is moved
+-- past the highest id in use. It is never moved back: other instances may hold ranges above MAX(id).
+ALTER SEQUENCE invoices_seq INCREMENT BY 50;
+SELECT setval('invoices_seq', GREATEST((SELECT last_value FROM invoices_seq),
+                                       (SELECT COALESCE(MAX(id), 0) + 50 FROM invoices)));
+ALTER SEQUENCE invoice_items_seq INCREMENT BY 50;
+SELECT setval('invoice_items_seq', GREATEST((SELECT last_value FROM invoice_items_seq),
+                                            (SELECT COALESCE(MAX(id), 0) + 50 FROM invoice_items)));
@@ -0,0 +1,108 @@
+package com.example.flyingsaucer.benchmark;
+
+import com.example.flyingsaucer.metrics.RenderMetrics;
+import com.example.flyingsaucer.model.Invoice;
+import com.example.flyingsaucer.model.InvoiceItem;
+import com.example.flyingsaucer.renderer.FontRegistry;
+import com.example.flyingsaucer.renderer.OutputProfiles;
+import com.example.flyingsaucer.renderer.PageFurniture;
+import com.example.flyingsaucer.renderer.RenderPermits;
+import com.example.flyingsaucer.renderer.RendererPool;
+import com.example.flyingsaucer.renderer.ResourceCache;
+import com.example.flyingsaucer.renderer.StylesheetCache;
+import com.example.flyingsaucer.service.PdfService;
+import com.example.flyingsaucer.template.InvoiceModelMapper;
+import com.example.flyingsaucer.template.TemplateLinkBuilder;
+import com.example.flyingsaucer.template.TemplateRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.thymeleaf.spring6.SpringTemplateEngine;
+import org.thymeleaf.templateresolver.ClassLoaderTemplateResolver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-memory invoices and a {@link PdfService} wired by hand, so the benchmarks need neither
+ * a database nor a Spring context.
+ */
+final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {
+    }
+
+    static Invoice invoice(int itemCount) {
+        Invoice invoice = new Invoice();
+        invoice.setId(1L);
+        invoice.setInvoiceId("INV-BENCH-" + itemCount);
+        invoice.setCustomerName("Benchmark Customer");
+        invoice.setDate(LocalDate.of(2024, 1, 15));
+
+        List<InvoiceItem> items = new ArrayList<>(itemCount);
+        BigDecimal total = BigDecimal.ZERO;
+        for (int i = 0; i < itemCount; i++) {
+            InvoiceItem item = new InvoiceItem("Product " + i, i % 5 + 1, new BigDecimal("19.99"));
+            item.setInvoice(invoice);
+            items.add(item);
+            total = total.add(item.getPrice().multiply(BigDecimal.valueOf(item.getQuantity())));
+        }
+        invoice.setItems(items);
+        invoice.setTotalAmount(total);
+        return invoice;
+    }
+
+    // The template always references the logo; drop the image for the no-logo variant
+    static String withoutLogo(String html) {
+        return html.replaceFirst("<img[^>]*class=\"logo\"[^>]*>", "");
+    }
+
+    static RendererPool rendererPool(MeterRegistry meterRegistry) {
+        return rendererPool(meterRegistry, 1);
+    }
+
+    static RendererPool rendererPool(MeterRegistry meterRegistry, int size) {
+        ResourceCache resourceCache = new ResourceCache(64 << 20, meterRegistry);
+        RendererPool pool = new RendererPool(size, 30_000, resourceCache,
+                new StylesheetCache(-1, resourceCache, meterRegistry), new FontRegistry("", true), meterRegistry);
+        pool.warmUp();
+        return pool;
+    }
+
+    static PdfService pdfService(RendererPool rendererPool) {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ClassLoaderTemplateResolver resolver = new ClassLoaderTemplateResolver();
+        resolver.setPrefix("templates/");
+        resolver.setSuffix(".html");
+        SpringTemplateEngine templateEngine = new SpringTemplateEngine();
+        templateEngine.setTemplateResolver(resolver);
+
+        templateEngine.setLinkBuilder(new TemplateLinkBuilder());
+
+        TemplateRegistry templateRegistry = new TemplateRegistry();
+        ReflectionTestUtils.setField(templateRegistry, "templateEngine", templateEngine);
+        ReflectionTestUtils.setField(templateRegistry, "mappers", List.of(new InvoiceModelMapper()));
+        ReflectionTestUtils.setField(templateRegistry, "meterRegistry", meterRegistry);
+        try {
+            templateRegistry.start();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        PdfService pdfService = new PdfService();
+        ReflectionTestUtils.setField(pdfService, "templateEngine", templateEngine);
+        ReflectionTestUtils.setField(pdfService, "templateRegistry", templateRegistry);
+        ReflectionTestUtils.setField(pdfService, "rendererPool", rendererPool);
+        RenderPermits renderPermits = new RenderPermits(0, 30_000, meterRegistry);
+        ReflectionTestUtils.setField(pdfService, "renderPermits", renderPermits);
+        ReflectionTestUtils.setField(pdfService, "pageFurniture",
+                new PageFurniture(rendererPool, renderPermits, meterRegistry, 16));
+        ReflectionTestUtils.setField(pdfService, "renderMetrics", new RenderMetrics(meterRegistry, 0));
+        ReflectionTestUtils.setField(pdfService, "outputProfiles", new OutputProfiles(9, 150, 0, true, true, "standard"));
+        return pdfService;
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.flyingsaucer.benchmark;
+
+import com.example.flyingsaucer.FlyingsaucerApplication;
+import com.example.flyingsaucer.model.Invoice;
+import com.example.flyingsaucer.repository.InvoiceRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of {@code GET /api/pdf/invoice/{id}} against the whole application on an in-memory
+ * database, once with platform request threads and once with virtual threads. Every JMH thread is
+ * a concurrent client; raise it with {@code -t} to go past Tomcat's thread pool. The result cache
+ * is turned off so each request does the database load, template and layout.
+ * <p>
+ * {@code mvn -Pbenchmark test -DskipTests -Djmh.include=ExecutionModeBenchmark}
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(64)
+public class ExecutionModeBenchmark {
+
+    private static final int INVOICES = 20;
+
+    @State(Scope.Benchmark)
+    public static class Server {
+
+        @Param({"platform", "virtual"})
+        public String mode;
+
+        @Param({"50"})
+        public int items;
+
+        ConfigurableApplicationContext context;
+        HttpClient client;
+        List<URI> invoiceUris = new ArrayList<>();
+
+        @Setup
+        public void start() {
+            context = new SpringApplicationBuilder(FlyingsaucerApplication.class)
+                    .profiles("test")
+                    .properties("server.port=0",
+                            "spring.threads.virtual.enabled=" + "virtual".equals(mode),
+                            "pdf.result-cache.max-bytes=0",
+                            "pdf.render.single-flight.enabled=false",
+                            "pdf.admission.enabled=false",
+                            "pdf.metrics.slow-render-ms=0",
+                            "spring.jpa.show-sql=false")
+                    .run();
+            String port = context.getEnvironment().getProperty("local.server.port");
+
+            InvoiceRepository repository = context.getBean(InvoiceRepository.class);
+            for (int i = 0; i < INVOICES; i++) {
+                Invoice invoice = BenchmarkFixtures.invoice(items);
+                invoice.setId(null);
+                invoice.setInvoiceId("INV-LOAD-" + i);
+                Long id = repository.save(invoice).getId();
+                invoiceUris.add(URI.create("http://localhost:" + port + "/api/pdf/invoice/" + id));
+            }
+            client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        }
+
+        @TearDown
+        public void stop() {
+            client.close();
+            context.close();
+        }
+    }
+
+    @Benchmark
+    public long downloadInvoice(Server server) throws IOException, InterruptedException {
+        URI uri = server.invoiceUris.get(ThreadLocalRandom.current().nextInt(server.invoiceUris.size()));
+        HttpResponse<byte[]> response = server.client.send(HttpRequest.newBuilder(uri).GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("GET " + uri + " returned " + response.statusCode());
+        }
+        return response.body().length;
+    }
+}
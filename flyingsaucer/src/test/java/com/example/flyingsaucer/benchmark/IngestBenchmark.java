@@ -0,0 +1,145 @@
+package com.example.flyingsaucer.benchmark;
+
+import com.example.flyingsaucer.FlyingsaucerApplication;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sustained ingest rate of invoices into the in-memory database: {@code POST /api/pdf/ingest} with
+ * an NDJSON body at several transaction sizes, against one {@code POST /api/pdf/save} call per
+ * invoice. Scores are invoices per second; each invoice has {@code items} items. Tables are
+ * emptied after every iteration so the database does not grow over the run.
+ * <p>
+ * {@code mvn -Pbenchmark test -DskipTests -Djmh.include=IngestBenchmark}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class IngestBenchmark {
+
+    private static final int INVOICES = 1000;
+
+    @State(Scope.Benchmark)
+    public static class Server {
+
+        @Param({"1", "50", "500"})
+        public int batchSize;
+
+        @Param({"10"})
+        public int items;
+
+        ConfigurableApplicationContext context;
+        HttpClient client;
+        URI ingestUri;
+        URI saveUri;
+        byte[] ndjson;
+        List<String> invoices = new ArrayList<>();
+
+        @Setup
+        public void start() {
+            context = new SpringApplicationBuilder(FlyingsaucerApplication.class)
+                    .profiles("test")
+                    .properties("server.port=0",
+                            "pdf.ingest.batch-size=" + batchSize,
+                            "pdf.warmup.enabled=false",
+                            "spring.jpa.show-sql=false")
+                    .run();
+            String base = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/api/pdf/";
+            ingestUri = URI.create(base + "ingest");
+            saveUri = URI.create(base + "save");
+
+            StringBuilder body = new StringBuilder();
+            for (int i = 0; i < INVOICES; i++) {
+                String invoice = invoiceJson(i, items);
+                invoices.add(invoice);
+                body.append(invoice).append('\n');
+            }
+            ndjson = body.toString().getBytes(StandardCharsets.UTF_8);
+            client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        }
+
+        @TearDown(Level.Iteration)
+        public void emptyTables() {
+            JdbcTemplate jdbc = context.getBean(JdbcTemplate.class);
+            jdbc.update("delete from invoice_items");
+            jdbc.update("delete from invoices");
+        }
+
+        @TearDown
+        public void stop() {
+            client.close();
+            context.close();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INVOICES)
+    public String ingest(Server server) throws IOException, InterruptedException {
+        HttpResponse<String> response = server.client.send(HttpRequest.newBuilder(server.ingestUri)
+                        .header("Content-Type", "application/x-ndjson")
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(server.ndjson))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+        String body = response.body();
+        if (response.statusCode() != 200 || !body.contains("\"saved\":" + INVOICES)) {
+            throw new IllegalStateException("Ingest returned " + response.statusCode() + ": "
+                    + body.substring(Math.max(0, body.length() - 300)));
+        }
+        return body;
+    }
+
+    // Baseline: one request and one transaction per invoice; the batch size has no effect here
+    @Benchmark
+    @OperationsPerInvocation(INVOICES)
+    public int saveOneByOne(Server server) throws IOException, InterruptedException {
+        int saved = 0;
+        for (String invoice : server.invoices) {
+            HttpResponse<String> response = server.client.send(HttpRequest.newBuilder(server.saveUri)
+                            .header("Content-Type", "application/json")
+                            .POST(HttpRequest.BodyPublishers.ofString(invoice))
+                            .build(),
+                    HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("Save returned " + response.statusCode() + ": " + response.body());
+            }
+            saved++;
+        }
+        return saved;
+    }
+
+    private static String invoiceJson(int number, int items) {
+        StringBuilder json = new StringBuilder(128 + items * 64);
+        json.append("{\"invoiceId\":\"INV-INGEST-").append(number)
+                .append("\",\"customerName\":\"Customer ").append(number)
+                .append("\",\"date\":\"2024-01-15\",\"items\":[");
+        for (int i = 1; i <= items; i++) {
+            if (i > 1) {
+                json.append(',');
+            }
+            json.append("{\"name\":\"Item ").append(i).append("\",\"quantity\":").append(1 + i % 5)
+                    .append(",\"price\":").append(10 + i).append(".99}");
+        }
+        return json.append("],\"totalAmount\":").append(items * 20).append("}").toString();
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.flyingsaucer.benchmark;
+
+import com.example.flyingsaucer.renderer.RendererPool;
+import com.example.flyingsaucer.service.PdfService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.xhtmlrenderer.pdf.ITextRenderer;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Flying Saucer phases measured separately: {@link ITextRenderer#layout()} on a freshly set
+ * document, and {@link ITextRenderer#createPDF(OutputStream)} on an already laid out one.
+ * Each invocation uses a pooled renderer, as the service does.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RenderBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Fixture {
+
+        @Param({"1", "50", "500", "5000"})
+        public int items;
+
+        @Param({"true", "false"})
+        public boolean logo;
+
+        RendererPool rendererPool;
+        String html;
+
+        @Setup
+        public void setUp() {
+            rendererPool = BenchmarkFixtures.rendererPool(new SimpleMeterRegistry());
+            PdfService pdfService = BenchmarkFixtures.pdfService(rendererPool);
+            String rendered = pdfService.renderHtmlFromTemplate(BenchmarkFixtures.invoice(items), "invoice");
+            html = logo ? rendered : BenchmarkFixtures.withoutLogo(rendered);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class DocumentSet {
+
+        RendererPool.Lease lease;
+        ITextRenderer renderer;
+
+        @Setup(Level.Invocation)
+        public void setDocument(Fixture fixture) throws InterruptedException {
+            lease = fixture.rendererPool.borrow();
+            renderer = lease.getRenderer();
+            lease.setDocumentFromString(fixture.html, PdfService.DEFAULT_BASE_URL);
+        }
+
+        @TearDown(Level.Invocation)
+        public void release() {
+            lease.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class LaidOut extends DocumentSet {
+
+        @Setup(Level.Invocation)
+        public void layout() {
+            renderer.layout();
+        }
+    }
+
+    @Benchmark
+    public ITextRenderer layout(DocumentSet document) {
+        document.renderer.layout();
+        return document.renderer;
+    }
+
+    @Benchmark
+    public ITextRenderer createPdf(LaidOut document) throws Exception {
+        document.renderer.createPDF(OutputStream.nullOutputStream());
+        return document.renderer;
+    }
+}
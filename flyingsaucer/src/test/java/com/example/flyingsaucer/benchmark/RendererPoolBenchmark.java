@@ -0,0 +1,76 @@
+package com.example.flyingsaucer.benchmark;
+
+import com.example.flyingsaucer.renderer.CachingUserAgent;
+import com.example.flyingsaucer.renderer.RendererPool;
+import com.example.flyingsaucer.renderer.ResourceCache;
+import com.example.flyingsaucer.service.PdfService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.xhtmlrenderer.layout.SharedContext;
+import org.xhtmlrenderer.pdf.ITextRenderer;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fresh {@link ITextRenderer} per document compared with a pooled one, rendering on every core
+ * at once. Both load resources through a shared {@link ResourceCache}, so the difference is the
+ * cost of building and warming a renderer.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(Threads.MAX)
+public class RendererPoolBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Fixture {
+
+        @Param({"10", "500"})
+        public int items;
+
+        RendererPool rendererPool;
+        ResourceCache resourceCache;
+        String html;
+
+        @Setup
+        public void setUp() {
+            SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+            rendererPool = BenchmarkFixtures.rendererPool(meterRegistry, Runtime.getRuntime().availableProcessors());
+            resourceCache = new ResourceCache(64 << 20, meterRegistry);
+            html = BenchmarkFixtures.pdfService(rendererPool)
+                    .renderHtmlFromTemplate(BenchmarkFixtures.invoice(items), "invoice");
+        }
+    }
+
+    @Benchmark
+    public ITextRenderer freshRenderer(Fixture fixture) throws Exception {
+        ITextRenderer renderer = new ITextRenderer();
+        SharedContext sharedContext = renderer.getSharedContext();
+        CachingUserAgent userAgent = new CachingUserAgent(renderer.getOutputDevice(), fixture.resourceCache);
+        userAgent.setSharedContext(sharedContext);
+        sharedContext.setUserAgentCallback(userAgent);
+        renderer.setDocumentFromString(fixture.html, PdfService.DEFAULT_BASE_URL);
+        renderer.layout();
+        renderer.createPDF(OutputStream.nullOutputStream());
+        return renderer;
+    }
+
+    @Benchmark
+    public ITextRenderer pooledRenderer(Fixture fixture) throws Exception {
+        try (RendererPool.Lease lease = fixture.rendererPool.borrow()) {
+            ITextRenderer renderer = lease.getRenderer();
+            lease.setDocumentFromString(fixture.html, PdfService.DEFAULT_BASE_URL);
+            renderer.layout();
+            renderer.createPDF(OutputStream.nullOutputStream());
+            return renderer;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.flyingsaucer.benchmark;
+
+import com.example.flyingsaucer.model.Invoice;
+import com.example.flyingsaucer.service.PdfService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thymeleaf phase: {@link PdfService#renderHtmlFromTemplate} for an in-memory invoice.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TemplateBenchmark {
+
+    @Param({"1", "50", "500", "5000"})
+    public int items;
+
+    private PdfService pdfService;
+    private Invoice invoice;
+
+    @Setup
+    public void setUp() {
+        pdfService = BenchmarkFixtures.pdfService(BenchmarkFixtures.rendererPool(new SimpleMeterRegistry()));
+        invoice = BenchmarkFixtures.invoice(items);
+    }
+
+    @Benchmark
+    public String renderHtmlFromTemplate() {
+        return pdfService.renderHtmlFromTemplate(invoice, "invoice");
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.flyingsaucer.controller;
+
+import com.example.flyingsaucer.model.Invoice;
+import com.example.flyingsaucer.model.InvoiceItem;
+import com.example.flyingsaucer.repository.InvoiceRepository;
+import com.example.flyingsaucer.storage.PdfFileStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "pdf.warmup.enabled=false",
+        "pdf.templates.watch=false",
+        "pdf.storage.dir=target/test-pdfs",
+        "pdf.result-cache.dir=target/test-pdfs/cache"
+})
+@ActiveProfiles("test")
+class PdfControllerTest {
+
+    private static final String STORED_FILE = "invoice_range.pdf";
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    PdfFileStore pdfFileStore;
+
+    @Autowired
+    InvoiceRepository invoiceRepository;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private byte[] stored;
+
+    @BeforeEach
+    void storeFile() throws Exception {
+        stored = new byte[1000];
+        for (int i = 0; i < stored.length; i++) {
+            stored[i] = (byte) i;
+        }
+        pdfFileStore.write(STORED_FILE, outputStream -> outputStream.write(stored));
+    }
+
+    @Test
+    void downloadsAStoredFileWhole() throws Exception {
+        HttpResponse<byte[]> response = download("/api/pdf/download/" + STORED_FILE, null);
+
+        assertEquals(200, response.statusCode());
+        assertEquals("bytes", response.headers().firstValue("Accept-Ranges").orElse(null));
+        assertArrayEquals(stored, response.body());
+    }
+
+    @Test
+    void downloadsOneByteRange() throws Exception {
+        HttpResponse<byte[]> response = download("/api/pdf/download/" + STORED_FILE, "bytes=100-199");
+
+        assertEquals(206, response.statusCode());
+        assertEquals("bytes 100-199/1000", response.headers().firstValue("Content-Range").orElse(null));
+        assertArrayEquals(Arrays.copyOfRange(stored, 100, 200), response.body());
+    }
+
+    @Test
+    void downloadsTheTailOfAFile() throws Exception {
+        HttpResponse<byte[]> response = download("/api/pdf/download/" + STORED_FILE, "bytes=-10");
+
+        assertEquals(206, response.statusCode());
+        assertEquals("bytes 990-999/1000", response.headers().firstValue("Content-Range").orElse(null));
+        assertArrayEquals(Arrays.copyOfRange(stored, 990, 1000), response.body());
+    }
+
+    @Test
+    void rangeBeyondTheEndIsNotSatisfiable() throws Exception {
+        HttpResponse<byte[]> response = download("/api/pdf/download/" + STORED_FILE, "bytes=1000-");
+
+        assertEquals(416, response.statusCode());
+        assertEquals("bytes */1000", response.headers().firstValue("Content-Range").orElse(null));
+    }
+
+    @Test
+    void rejectsInvalidNamesAndReportsMissingFiles() throws Exception {
+        assertEquals(400, download("/api/pdf/download/invoice.txt", null).statusCode());
+        assertEquals(404, download("/api/pdf/download/missing.pdf", null).statusCode());
+    }
+
+    @Test
+    void invoiceDownloadAnswersAMatchingIfNoneMatchWith304() throws Exception {
+        String path = "/api/pdf/invoice/" + saveInvoice("INV-ETAG-1");
+        HttpResponse<byte[]> first = get(path, Map.of());
+        assertEquals(200, first.statusCode());
+        assertTrue(new String(first.body(), 0, 5).startsWith("%PDF"));
+        String etag = first.headers().firstValue("ETag").orElse(null);
+        assertNotNull(etag);
+
+        for (String ifNoneMatch : new String[] {etag, "W/" + etag, "\"other\", " + etag, "*"}) {
+            HttpResponse<byte[]> revalidated = get(path, Map.of("If-None-Match", ifNoneMatch));
+            assertEquals(304, revalidated.statusCode(), ifNoneMatch);
+            assertEquals(etag, revalidated.headers().firstValue("ETag").orElse(null));
+            assertEquals(0, revalidated.body().length);
+        }
+
+        HttpResponse<byte[]> stale = get(path, Map.of("If-None-Match", "\"stale\""));
+        assertEquals(200, stale.statusCode());
+        assertEquals(etag, stale.headers().firstValue("ETag").orElse(null));
+        assertArrayEquals(first.body(), stale.body());
+    }
+
+    @Test
+    void differentInvoicesGetDifferentETags() throws Exception {
+        HttpResponse<byte[]> first = get("/api/pdf/invoice/" + saveInvoice("INV-ETAG-2"), Map.of());
+        HttpResponse<byte[]> second = get("/api/pdf/invoice/" + saveInvoice("INV-ETAG-3"), Map.of());
+
+        String etag = first.headers().firstValue("ETag").orElseThrow();
+        assertFalse(etag.equals(second.headers().firstValue("ETag").orElseThrow()));
+        HttpResponse<byte[]> other = get("/api/pdf/invoice/" + saveInvoice("INV-ETAG-4"),
+                Map.of("If-None-Match", etag));
+        assertEquals(200, other.statusCode());
+    }
+
+    @Test
+    void sharedInvoiceRenderIsSentWithContentLength() throws Exception {
+        String path = "/api/pdf/invoice/" + saveInvoice("INV-ETAG-5");
+        HttpResponse<byte[]> rendered = get(path, Map.of());
+        assertEquals(200, rendered.statusCode());
+        assertEquals(String.valueOf(rendered.body().length), rendered.headers().firstValue("Content-Length").orElse(null));
+
+        HttpResponse<byte[]> cached = get(path, Map.of());
+        assertEquals(rendered.headers().firstValue("ETag"), cached.headers().firstValue("ETag"));
+        assertArrayEquals(rendered.body(), cached.body());
+    }
+
+    @Test
+    void streamedPdfIsServedFromTheCacheNextTime() throws Exception {
+        String request = "{\"invoiceId\":\"INV-STREAM-1\",\"customerName\":\"Stream Customer\","
+                + "\"date\":\"2024-01-15\",\"totalAmount\":10.00,"
+                + "\"items\":[{\"name\":\"Product 1\",\"quantity\":2,\"price\":5.00}]}";
+        HttpResponse<byte[]> streamed = post("/api/pdf/generate", request);
+        assertEquals(200, streamed.statusCode());
+        assertFalse(streamed.headers().firstValue("Content-Length").isPresent());
+
+        HttpResponse<byte[]> cached = post("/api/pdf/generate", request);
+        assertEquals(200, cached.statusCode());
+        assertEquals(String.valueOf(streamed.body().length), cached.headers().firstValue("Content-Length").orElse(null));
+        assertEquals(streamed.headers().firstValue("ETag"), cached.headers().firstValue("ETag"));
+        assertArrayEquals(streamed.body(), cached.body());
+    }
+
+    @Test
+    void missingInvoiceIsNotFound() throws Exception {
+        assertEquals(404, get("/api/pdf/invoice/999999", Map.of("If-None-Match", "*")).statusCode());
+    }
+
+    private Long saveInvoice(String invoiceNumber) {
+        Invoice invoice = new Invoice();
+        invoice.setInvoiceId(invoiceNumber);
+        invoice.setCustomerName("ETag Customer");
+        invoice.setDate(LocalDate.of(2024, 1, 15));
+        invoice.setTotalAmount(new BigDecimal("30.00"));
+        invoice.setItems(new ArrayList<>());
+        for (int i = 1; i <= 3; i++) {
+            InvoiceItem item = new InvoiceItem("Product " + i, i, new BigDecimal("5.00"));
+            item.setInvoice(invoice);
+            invoice.getItems().add(item);
+        }
+        return invoiceRepository.save(invoice).getId();
+    }
+
+    private HttpResponse<byte[]> download(String path, String range) throws Exception {
+        return get(path, range != null ? Map.of("Range", range) : Map.of());
+    }
+
+    private HttpResponse<byte[]> post(String path, String json) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private HttpResponse<byte[]> get(String path, Map<String, String> headers) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path));
+        headers.forEach(request::header);
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.flyingsaucer.load;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap high-water marks and GC pauses while the load runs. Heap use is sampled every 100 ms and
+ * also taken from the pools' own peak and after-collection figures; every collection is recorded
+ * from the JVM's GC notifications. The application and the load generator share the JVM, so the
+ * figures include the generator's (small) allocations.
+ */
+class JvmMonitor implements NotificationListener {
+
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "load-heap-sampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<Long> pauseNanos = new ArrayList<>();
+    private final Map<String, long[]> collectors = new TreeMap<>();
+    private volatile boolean recording;
+    private long usedMax;
+    private long committedMax;
+
+    void start() {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter emitter) {
+                emitter.addNotificationListener(this, null, null);
+            }
+        }
+        sampler.scheduleAtFixedRate(this::sample, 0, 100, TimeUnit.MILLISECONDS);
+    }
+
+    // Forget the seeding and warm-up; from here on everything counts
+    synchronized void reset() {
+        pauseNanos.clear();
+        collectors.clear();
+        usedMax = 0;
+        committedMax = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        recording = true;
+    }
+
+    void stop() {
+        recording = false;
+        sampler.shutdownNow();
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter emitter) {
+                try {
+                    emitter.removeNotificationListener(this);
+                } catch (Exception ignored) {
+                    // Not registered
+                }
+            }
+        }
+    }
+
+    private synchronized void sample() {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        usedMax = Math.max(usedMax, heap.getUsed());
+        committedMax = Math.max(committedMax, heap.getCommitted());
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        if (!recording || !GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        long nanos = TimeUnit.MILLISECONDS.toNanos(info.getGcInfo().getDuration());
+        synchronized (this) {
+            pauseNanos.add(nanos);
+            long[] totals = collectors.computeIfAbsent(info.getGcName(), name -> new long[2]);
+            totals[0]++;
+            totals[1] += nanos;
+        }
+    }
+
+    synchronized Map<String, Object> heapSummary() {
+        long poolPeaks = 0;
+        long afterGcMax = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP) {
+                continue;
+            }
+            poolPeaks += pool.getPeakUsage().getUsed();
+            if (pool.getCollectionUsage() != null) {
+                afterGcMax += pool.getCollectionUsage().getUsed();
+            }
+        }
+        Map<String, Object> heap = new LinkedHashMap<>();
+        heap.put("maxBytes", ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax());
+        heap.put("usedHighWaterBytes", usedMax);
+        heap.put("committedHighWaterBytes", committedMax);
+        // Sum of each pool's own peak; pools peak at different times, so this is an upper bound
+        heap.put("poolPeakSumBytes", poolPeaks);
+        heap.put("liveAfterLastGcBytes", afterGcMax);
+        return heap;
+    }
+
+    // Durations are as the JVM reports them per collection; for concurrent collectors they include concurrent work
+    synchronized Map<String, Object> gcSummary(double seconds) {
+        long[] sorted = pauseNanos.stream().mapToLong(Long::longValue).sorted().toArray();
+        long total = Arrays.stream(sorted).sum();
+        Map<String, Object> gc = new LinkedHashMap<>();
+        gc.put("collections", sorted.length);
+        gc.put("totalMs", Latencies.millis(total));
+        gc.put("p50Ms", Latencies.millis(Latencies.percentile(sorted, 0.50)));
+        gc.put("p99Ms", Latencies.millis(Latencies.percentile(sorted, 0.99)));
+        gc.put("maxMs", Latencies.millis(sorted.length > 0 ? sorted[sorted.length - 1] : 0));
+        gc.put("timePercent", Latencies.round(total / (seconds * 1e7)));
+        Map<String, Object> byCollector = new LinkedHashMap<>();
+        collectors.forEach((name, totals) -> {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("collections", totals[0]);
+            entry.put("totalMs", Latencies.millis(totals[1]));
+            byCollector.put(name, entry);
+        });
+        gc.put("collectors", byCollector);
+        return gc;
+    }
+}
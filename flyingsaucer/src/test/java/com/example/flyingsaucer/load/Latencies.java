@@ -0,0 +1,86 @@
+package com.example.flyingsaucer.load;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latencies and failures of one operation. Every sample is kept, so percentiles are exact; at
+ * 8 bytes a request this stays small even for long soak runs.
+ */
+class Latencies {
+
+    private long[] nanos = new long[1024];
+    private int count;
+    private final Map<String, Integer> errors = new TreeMap<>();
+
+    synchronized void record(long elapsedNanos) {
+        if (count == nanos.length) {
+            nanos = Arrays.copyOf(nanos, count * 2);
+        }
+        nanos[count++] = elapsedNanos;
+    }
+
+    // A failed request; its latency is not part of the percentiles
+    synchronized void fail(String reason) {
+        errors.merge(reason, 1, Integer::sum);
+    }
+
+    // Add these samples and failures to another recorder, for totals across endpoints
+    synchronized void copyTo(Latencies total) {
+        for (int i = 0; i < count; i++) {
+            total.record(nanos[i]);
+        }
+        errors.forEach((reason, times) -> {
+            for (int i = 0; i < times; i++) {
+                total.fail(reason);
+            }
+        });
+    }
+
+    synchronized int count() {
+        return count;
+    }
+
+    synchronized int errorCount() {
+        return errors.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    // Count, rate and latency percentiles in milliseconds for the report
+    synchronized Map<String, Object> summary(double seconds) {
+        long[] sorted = Arrays.copyOf(nanos, count);
+        Arrays.sort(sorted);
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("requests", count);
+        summary.put("errors", errorCount());
+        summary.put("throughput", round(count / seconds));
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("p50", millis(percentile(sorted, 0.50)));
+        latency.put("p95", millis(percentile(sorted, 0.95)));
+        latency.put("p99", millis(percentile(sorted, 0.99)));
+        latency.put("max", millis(count > 0 ? sorted[count - 1] : 0));
+        latency.put("mean", millis(count > 0 ? (long) Arrays.stream(sorted).average().orElse(0) : 0));
+        summary.put("latencyMs", latency);
+        if (!errors.isEmpty()) {
+            summary.put("errorsByReason", new TreeMap<>(errors));
+        }
+        return summary;
+    }
+
+    static long percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    static double millis(long nanos) {
+        return round(nanos / 1_000_000.0);
+    }
+
+    static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
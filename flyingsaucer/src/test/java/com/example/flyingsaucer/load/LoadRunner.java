@@ -0,0 +1,313 @@
+package com.example.flyingsaucer.load;
+
+import com.example.flyingsaucer.FlyingsaucerApplication;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load and soak test: starts the application with the {@code test} and {@code load} profiles
+ * (in-memory H2), seeds it with invoices, then drives every {@code PdfController} endpoint from
+ * {@code load.threads} closed-loop clients for {@code load.duration} seconds after a warm-up.
+ * It reports throughput and p50/p95/p99/max latency per endpoint, the heap high-water mark and GC
+ * pauses, and writes them as JSON to {@code load.output} so runs of different builds can be
+ * compared; with {@code load.baseline} set to an earlier result the differences are printed too.
+ * <p>
+ * {@code mvn -Pload test -DskipTests -Dload.threads=8 -Dload.duration=600}
+ * <p>
+ * The mix is a list of operation weights, e.g. {@code -Dload.mix=invoice=50,generate=20,job=30};
+ * the operations are those of {@link Workload}. The exit status is 1 if more than
+ * {@code load.max-error-rate} of the requests failed.
+ */
+public class LoadRunner {
+
+    private static final String DEFAULT_MIX =
+            "invoice=30,generate=15,render=5,templates=2,link=8,store=5,save=5,ingest=2,batch=5,merge=3,job=10";
+
+    public static void main(String[] args) throws Exception {
+        int threads = Integer.getInteger("load.threads", 4);
+        int warmUpSeconds = Integer.getInteger("load.warmup", 15);
+        int durationSeconds = Integer.getInteger("load.duration", 60);
+        int progressSeconds = Integer.getInteger("load.progress", 10);
+        int invoices = Integer.getInteger("load.invoices", 500);
+        int largeInvoices = Integer.getInteger("load.large-invoices", 3);
+        int maxItems = Integer.getInteger("load.max-items", 10_000);
+        long seed = Long.getLong("load.seed", 42);
+        int timeoutSeconds = Integer.getInteger("load.request-timeout", 300);
+        double maxErrorRate = Double.parseDouble(System.getProperty("load.max-error-rate", "0.01"));
+        String mixSpec = System.getProperty("load.mix", DEFAULT_MIX);
+        File output = new File(System.getProperty("load.output", "target/load-result.json"));
+        String baseline = System.getProperty("load.baseline", "");
+        String build = System.getProperty("load.build", "unknown");
+        Mix mix = Mix.parse(mixSpec);
+
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("threads", threads);
+        config.put("warmUpSeconds", warmUpSeconds);
+        config.put("durationSeconds", durationSeconds);
+        config.put("invoices", invoices);
+        config.put("largeInvoices", largeInvoices);
+        config.put("maxItems", maxItems);
+        config.put("seed", seed);
+        config.put("mix", mix.weights());
+
+        JvmMonitor monitor = new JvmMonitor();
+        monitor.start();
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(FlyingsaucerApplication.class)
+                .profiles("test", "load")
+                .properties("server.port=0")
+                .run(args);
+        int exitCode;
+        try (HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build()) {
+            String base = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/api/pdf/";
+            Workload workload = new Workload(client, base, Duration.ofSeconds(timeoutSeconds), maxItems);
+
+            long seedStart = System.nanoTime();
+            workload.seed(invoices, largeInvoices, new Random(seed));
+            Map<String, Object> seedSummary = workload.seedSummary();
+            seedSummary.put("elapsedMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - seedStart));
+            System.out.println("Seeded " + seedSummary);
+
+            if (warmUpSeconds > 0) {
+                System.out.println("Warming up for " + warmUpSeconds + " s");
+                drive(workload, mix, threads, warmUpSeconds, 0, seed);
+            }
+            workload.restart();
+            monitor.reset();
+            System.out.println("Measuring for " + durationSeconds + " s with " + threads + " threads");
+            long start = System.nanoTime();
+            drive(workload, mix, threads, durationSeconds, progressSeconds, seed + threads);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("build", build);
+            result.put("timestamp", Instant.now().toString());
+            result.put("config", config);
+            result.put("jvm", jvm());
+            result.put("seed", seedSummary);
+            result.put("run", total(workload.endpoints(), seconds));
+            Map<String, Object> endpoints = new LinkedHashMap<>();
+            workload.endpoints().forEach((endpoint, latencies) -> endpoints.put(endpoint, latencies.summary(seconds)));
+            result.put("endpoints", endpoints);
+            result.put("heap", monitor.heapSummary());
+            result.put("gc", monitor.gcSummary(seconds));
+            monitor.stop();
+
+            ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+            if (!baseline.isBlank()) {
+                result.put("comparison", compare(objectMapper.readTree(new File(baseline)), objectMapper.valueToTree(result)));
+            }
+            if (output.getParentFile() != null) {
+                output.getParentFile().mkdirs();
+            }
+            objectMapper.writeValue(output, result);
+            print(result);
+            System.out.println("Results written to " + output.getAbsolutePath());
+
+            Map<?, ?> run = (Map<?, ?>) result.get("run");
+            int requests = (Integer) run.get("requests");
+            int errors = (Integer) run.get("errors");
+            exitCode = errors > maxErrorRate * (requests + errors) ? 1 : 0;
+            if (exitCode != 0) {
+                System.out.println(errors + " of " + (requests + errors) + " requests failed, more than "
+                        + maxErrorRate * 100 + "%");
+            }
+        } finally {
+            context.close();
+        }
+        System.exit(exitCode);
+    }
+
+    // Run the clients until the time is up, printing progress every progressSeconds (0 for none)
+    private static void drive(Workload workload, Mix mix, int threads, int seconds, int progressSeconds, long seed)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> clients = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            Random random = new Random(seed + i);
+            clients.add(Thread.ofPlatform().name("load-client-" + i).start(() -> {
+                try {
+                    while (System.nanoTime() < end) {
+                        workload.run(mix.pick(random), random);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        if (progressSeconds > 0) {
+            while (System.nanoTime() < end) {
+                TimeUnit.NANOSECONDS.sleep(Math.min(TimeUnit.SECONDS.toNanos(progressSeconds), Math.max(1, end - System.nanoTime())));
+                double elapsed = (System.nanoTime() - start) / 1e9;
+                Map<String, Object> total = total(workload.endpoints(), elapsed);
+                MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+                System.out.printf("%6.0f s  %d requests  %d errors  %s req/s  p95 %s ms  heap %d MB%n",
+                        elapsed, total.get("requests"), total.get("errors"), total.get("throughput"),
+                        ((Map<?, ?>) total.get("latencyMs")).get("p95"), heap.getUsed() >> 20);
+            }
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+    }
+
+    // All requests together
+    private static Map<String, Object> total(Map<String, Latencies> endpoints, double seconds) {
+        Latencies all = new Latencies();
+        endpoints.forEach((endpoint, latencies) -> {
+            if (!endpoint.equals(Workload.JOB_ROUND_TRIP)) {
+                latencies.copyTo(all);
+            }
+        });
+        return all.summary(seconds);
+    }
+
+    private static Map<String, Object> jvm() {
+        Map<String, Object> jvm = new LinkedHashMap<>();
+        jvm.put("version", Runtime.version().toString());
+        jvm.put("vm", System.getProperty("java.vm.name"));
+        jvm.put("processors", Runtime.getRuntime().availableProcessors());
+        jvm.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+        jvm.put("collectors", ManagementFactory.getGarbageCollectorMXBeans().stream().map(GarbageCollectorMXBean::getName).toList());
+        jvm.put("arguments", ManagementFactory.getRuntimeMXBean().getInputArguments());
+        return jvm;
+    }
+
+    /**
+     * Relative change of the main figures against an earlier result: positive means higher, so
+     * for latencies, heap and GC time a positive change is a regression and for throughput an
+     * improvement. Endpoints missing from either run are left out.
+     */
+    private static Map<String, Object> compare(JsonNode baseline, JsonNode current) {
+        Map<String, Object> changes = new LinkedHashMap<>();
+        changes.put("baselineBuild", baseline.path("build").asText());
+        changes.put("baselineTimestamp", baseline.path("timestamp").asText());
+        changeOf(changes, "run.throughput", baseline.at("/run/throughput"), current.at("/run/throughput"));
+        for (String percentile : List.of("p50", "p95", "p99", "max")) {
+            changeOf(changes, "run.latencyMs." + percentile,
+                    baseline.at("/run/latencyMs/" + percentile), current.at("/run/latencyMs/" + percentile));
+        }
+        current.path("endpoints").fieldNames().forEachRemaining(endpoint -> {
+            JsonNode before = baseline.path("endpoints").path(endpoint);
+            JsonNode after = current.path("endpoints").path(endpoint);
+            changeOf(changes, endpoint + ".throughput", before.path("throughput"), after.path("throughput"));
+            for (String percentile : List.of("p50", "p95", "p99")) {
+                changeOf(changes, endpoint + ".latencyMs." + percentile,
+                        before.path("latencyMs").path(percentile), after.path("latencyMs").path(percentile));
+            }
+        });
+        changeOf(changes, "heap.usedHighWaterBytes", baseline.at("/heap/usedHighWaterBytes"), current.at("/heap/usedHighWaterBytes"));
+        changeOf(changes, "gc.totalMs", baseline.at("/gc/totalMs"), current.at("/gc/totalMs"));
+        changeOf(changes, "gc.maxMs", baseline.at("/gc/maxMs"), current.at("/gc/maxMs"));
+        return changes;
+    }
+
+    private static void changeOf(Map<String, Object> changes, String name, JsonNode before, JsonNode after) {
+        if (!before.isNumber() || !after.isNumber() || before.asDouble() == 0) {
+            return;
+        }
+        Map<String, Object> change = new LinkedHashMap<>();
+        change.put("baseline", before.numberValue());
+        change.put("current", after.numberValue());
+        change.put("changePercent", Latencies.round((after.asDouble() - before.asDouble()) / before.asDouble() * 100));
+        changes.put(name, change);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void print(Map<String, Object> result) {
+        Map<String, Object> run = (Map<String, Object>) result.get("run");
+        System.out.println();
+        System.out.printf("%-28s %9s %7s %9s %9s %9s %9s %9s%n",
+                "endpoint", "requests", "errors", "req/s", "p50 ms", "p95 ms", "p99 ms", "max ms");
+        Map<String, Object> rows = new LinkedHashMap<>((Map<String, Object>) result.get("endpoints"));
+        rows.put("all", run);
+        rows.forEach((endpoint, value) -> {
+            Map<String, Object> summary = (Map<String, Object>) value;
+            Map<String, Object> latency = (Map<String, Object>) summary.get("latencyMs");
+            System.out.printf("%-28s %9s %7s %9s %9s %9s %9s %9s%n", endpoint, summary.get("requests"),
+                    summary.get("errors"), summary.get("throughput"), latency.get("p50"), latency.get("p95"),
+                    latency.get("p99"), latency.get("max"));
+        });
+        System.out.println("heap " + result.get("heap"));
+        System.out.println("gc   " + result.get("gc"));
+        Map<String, Object> comparison = (Map<String, Object>) result.get("comparison");
+        if (comparison != null) {
+            System.out.println("change against " + comparison.get("baselineBuild") + " (" + comparison.get("baselineTimestamp") + ")");
+            comparison.forEach((name, value) -> {
+                if (value instanceof Map<?, ?> change) {
+                    System.out.printf("  %-48s %12s -> %12s  %+8.2f%%%n", name, change.get("baseline"),
+                            change.get("current"), ((Number) change.get("changePercent")).doubleValue());
+                }
+            });
+        }
+    }
+
+    // Operation weights; picks an operation with probability proportional to its weight
+    private record Mix(List<String> operations, int[] cumulative) {
+
+        static Mix parse(String spec) {
+            List<String> operations = new ArrayList<>();
+            List<Integer> weights = new ArrayList<>();
+            for (String entry : spec.split(",")) {
+                String[] parts = entry.trim().split("=");
+                if (parts.length != 2 || !Workload.OPERATIONS.contains(parts[0].trim())) {
+                    throw new IllegalArgumentException("Invalid load.mix entry '" + entry + "'; operations are " + Workload.OPERATIONS);
+                }
+                int weight = Integer.parseInt(parts[1].trim());
+                if (weight > 0) {
+                    operations.add(parts[0].trim());
+                    weights.add(weight);
+                }
+            }
+            if (operations.isEmpty()) {
+                throw new IllegalArgumentException("load.mix has no operation with a positive weight");
+            }
+            int[] cumulative = new int[weights.size()];
+            int sum = 0;
+            for (int i = 0; i < cumulative.length; i++) {
+                sum += weights.get(i);
+                cumulative[i] = sum;
+            }
+            return new Mix(operations, cumulative);
+        }
+
+        String pick(Random random) {
+            int value = random.nextInt(cumulative[cumulative.length - 1]);
+            for (int i = 0; i < cumulative.length; i++) {
+                if (value < cumulative[i]) {
+                    return operations.get(i);
+                }
+            }
+            return operations.get(operations.size() - 1);
+        }
+
+        Map<String, Integer> weights() {
+            Map<String, Integer> weights = new LinkedHashMap<>();
+            for (int i = 0; i < cumulative.length; i++) {
+                weights.put(operations.get(i), cumulative[i] - (i > 0 ? cumulative[i - 1] : 0));
+            }
+            return weights;
+        }
+    }
+}
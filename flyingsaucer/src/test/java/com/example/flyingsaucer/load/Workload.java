@@ -0,0 +1,278 @@
+package com.example.flyingsaucer.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The requests the load test sends: one operation per {@code PdfController} use case, picked by
+ * weight from the mix. Latencies are kept per endpoint; operations that take several requests
+ * (render to a file and download it, queue a job and fetch its result) record each request and,
+ * for jobs, the whole round trip as well.
+ * <p>
+ * Invoice sizes follow a log-normal distribution with a median of about a dozen items and a long
+ * tail, clamped to 1 and {@code maxItems}: most invoices fit on a page, a few run to hundreds of
+ * pages.
+ */
+class Workload {
+
+    static final List<String> OPERATIONS = List.of(
+            "invoice", "generate", "render", "templates", "link", "store",
+            "save", "ingest", "batch", "merge", "job");
+
+    // Not a request of its own, so not part of the totals
+    static final String JOB_ROUND_TRIP = "job (submit to result)";
+
+    private static final double MEDIAN_ITEMS = 12;
+    private static final double ITEMS_SIGMA = 1.4;
+    private static final int INGEST_INVOICES = 20;
+    private static final int BATCH_INVOICES = 3;
+    private static final long JOB_POLL_MS = 100;
+
+    private final HttpClient client;
+    private final String base;
+    private final Duration timeout;
+    private final int maxItems;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<Long> invoiceIds = new ArrayList<>();
+    private final List<Integer> invoiceItems = new ArrayList<>();
+    private final AtomicLong invoiceNumbers = new AtomicLong();
+    private volatile Map<String, Latencies> endpoints = new ConcurrentHashMap<>();
+
+    Workload(HttpClient client, String base, Duration timeout, int maxItems) {
+        this.client = client;
+        this.base = base;
+        this.timeout = timeout;
+        this.maxItems = maxItems;
+    }
+
+    /**
+     * Stores {@code count} invoices through the ingest endpoint, {@code large} of them with
+     * {@code maxItems} items and the rest drawn from the size distribution.
+     */
+    void seed(int count, int large, Random random) throws IOException, InterruptedException {
+        List<Integer> sizes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            sizes.add(i < large ? maxItems : items(random));
+        }
+        for (int from = 0; from < count; from += 100) {
+            List<Integer> chunk = sizes.subList(from, Math.min(count, from + 100));
+            StringBuilder body = new StringBuilder();
+            for (int items : chunk) {
+                body.append(invoiceJson(random, items)).append('\n');
+            }
+            HttpResponse<String> response = client.send(post("ingest", "application/x-ndjson", body.toString()),
+                    HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("Seeding failed with HTTP " + response.statusCode() + ": " + response.body());
+            }
+            for (String line : response.body().split("\n")) {
+                JsonNode result = objectMapper.readTree(line);
+                if (result.has("sequence")) {
+                    if (!"OK".equals(result.path("status").asText())) {
+                        throw new IllegalStateException("Seeding failed: " + line);
+                    }
+                    invoiceIds.add(result.get("id").asLong());
+                    invoiceItems.add(chunk.get(result.get("sequence").asInt()));
+                }
+            }
+        }
+    }
+
+    // Item counts of the seeded invoices for the report
+    Map<String, Object> seedSummary() {
+        long[] sorted = invoiceItems.stream().mapToLong(Integer::longValue).sorted().toArray();
+        Map<String, Object> seed = new LinkedHashMap<>();
+        seed.put("invoices", sorted.length);
+        seed.put("itemsTotal", Arrays.stream(sorted).sum());
+        seed.put("itemsMin", sorted.length > 0 ? sorted[0] : 0);
+        seed.put("itemsP50", Latencies.percentile(sorted, 0.50));
+        seed.put("itemsP95", Latencies.percentile(sorted, 0.95));
+        seed.put("itemsP99", Latencies.percentile(sorted, 0.99));
+        seed.put("itemsMax", sorted.length > 0 ? sorted[sorted.length - 1] : 0);
+        return seed;
+    }
+
+    // Start a new measurement; requests still in flight land in whichever period they finish in
+    void restart() {
+        endpoints = new ConcurrentHashMap<>();
+    }
+
+    Map<String, Latencies> endpoints() {
+        return new TreeMap<>(endpoints);
+    }
+
+    void run(String operation, Random random) throws InterruptedException {
+        switch (operation) {
+            case "invoice" -> exchange("GET /invoice/{id}", get("invoice/" + storedInvoice(random)), false);
+            case "generate" -> exchange("POST /generate",
+                    post("generate", "application/json", invoiceJson(random, items(random))), false);
+            case "render" -> exchange("POST /render/{template}",
+                    post("render/invoice", "application/json", invoiceJson(random, items(random))), false);
+            case "templates" -> exchange("GET /templates", get("templates"), true);
+            case "link" -> {
+                HttpResponse<String> response = exchange("POST /generate-with-link",
+                        post("generate-with-link", "application/json", invoiceJson(random, items(random))), true);
+                String url = field(response, "downloadUrl");
+                if (url != null) {
+                    exchange("GET /download/{file}", get(url.substring("/api/pdf/".length())), false);
+                }
+            }
+            case "store" -> exchange("GET /generate/{id}", get("generate/" + storedInvoice(random)), true);
+            case "save" -> exchange("POST /save", post("save", "application/json", invoiceJson(random, items(random))), true);
+            case "ingest" -> {
+                StringBuilder body = new StringBuilder();
+                for (int i = 0; i < INGEST_INVOICES; i++) {
+                    body.append(invoiceJson(random, items(random))).append('\n');
+                }
+                exchange("POST /ingest", post("ingest", "application/x-ndjson", body.toString()), true);
+            }
+            case "batch" -> exchange("POST /batch", post("batch", "application/json",
+                    "{\"invoiceIds\":" + storedInvoices(random) + ",\"merge\":" + random.nextBoolean() + "}"), false);
+            case "merge" -> exchange("POST /merge", post("merge", "application/json",
+                    "{\"invoiceIds\":" + storedInvoices(random) + ",\"fileName\":\"statement.pdf\"}"), false);
+            case "job" -> job(random);
+            default -> throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    // Queue a job, ad hoc or for a stored invoice, poll until it finishes and fetch the PDF
+    private void job(Random random) throws InterruptedException {
+        long start = System.nanoTime();
+        HttpResponse<String> submitted = random.nextBoolean()
+                ? exchange("POST /jobs", post("jobs", "application/json", invoiceJson(random, items(random))), true)
+                : exchange("POST /jobs/invoice/{id}", post("jobs/invoice/" + storedInvoice(random), "application/json", ""), true);
+        String jobId = field(submitted, "jobId");
+        if (jobId == null) {
+            return;
+        }
+        long deadline = System.nanoTime() + timeout.toNanos();
+        String status = "QUEUED";
+        while (!"DONE".equals(status) && !"FAILED".equals(status)) {
+            if (System.nanoTime() > deadline) {
+                latencies(JOB_ROUND_TRIP).fail("timed out");
+                return;
+            }
+            Thread.sleep(JOB_POLL_MS);
+            status = field(exchange("GET /jobs/{id}", get("jobs/" + jobId), true), "status");
+            if (status == null) {
+                return;
+            }
+        }
+        if ("FAILED".equals(status)) {
+            latencies(JOB_ROUND_TRIP).fail("job FAILED");
+            return;
+        }
+        if (exchange("GET /jobs/{id}/result", get("jobs/" + jobId + "/result"), false) != null) {
+            latencies(JOB_ROUND_TRIP).record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Sends one request and records its latency under the endpoint, including reading the whole
+     * body. Returns the response if it succeeded (JSON bodies as text, PDFs discarded) or
+     * {@code null} after recording the failure.
+     */
+    private HttpResponse<String> exchange(String endpoint, HttpRequest request, boolean text) throws InterruptedException {
+        long start = System.nanoTime();
+        HttpResponse<String> response;
+        try {
+            response = client.send(request, text
+                    ? HttpResponse.BodyHandlers.ofString()
+                    : HttpResponse.BodyHandlers.replacing(null));
+        } catch (IOException e) {
+            latencies(endpoint).fail(e.getClass().getSimpleName());
+            return null;
+        }
+        long elapsed = System.nanoTime() - start;
+        if (response.statusCode() / 100 != 2) {
+            latencies(endpoint).fail("HTTP " + response.statusCode());
+            return null;
+        }
+        latencies(endpoint).record(elapsed);
+        return response;
+    }
+
+    private Latencies latencies(String endpoint) {
+        return endpoints.computeIfAbsent(endpoint, name -> new Latencies());
+    }
+
+    private String field(HttpResponse<String> response, String name) {
+        if (response == null) {
+            return null;
+        }
+        try {
+            JsonNode value = objectMapper.readTree(response.body()).get(name);
+            return value != null ? value.asText() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(base + path)).timeout(timeout).GET().build();
+    }
+
+    private HttpRequest post(String path, String contentType, String body) {
+        return HttpRequest.newBuilder(URI.create(base + path))
+                .timeout(timeout)
+                .header("Content-Type", contentType)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private long storedInvoice(Random random) {
+        return invoiceIds.get(random.nextInt(invoiceIds.size()));
+    }
+
+    private String storedInvoices(Random random) {
+        List<Long> ids = new ArrayList<>(BATCH_INVOICES);
+        for (int i = 0; i < BATCH_INVOICES; i++) {
+            ids.add(storedInvoice(random));
+        }
+        return ids.toString();
+    }
+
+    int items(Random random) {
+        double items = Math.exp(Math.log(MEDIAN_ITEMS) + ITEMS_SIGMA * random.nextGaussian());
+        return (int) Math.max(1, Math.min(maxItems, Math.round(items)));
+    }
+
+    private String invoiceJson(Random random, int items) {
+        long number = invoiceNumbers.incrementAndGet();
+        StringBuilder json = new StringBuilder(128 + items * 64);
+        json.append("{\"invoiceId\":\"INV-LOAD-").append(number)
+                .append("\",\"customerName\":\"Customer ").append(random.nextInt(1000))
+                .append("\",\"date\":\"2024-").append(String.format("%02d-%02d", 1 + random.nextInt(12), 1 + random.nextInt(28)))
+                .append("\",\"items\":[");
+        long total = 0;
+        for (int i = 1; i <= items; i++) {
+            if (i > 1) {
+                json.append(',');
+            }
+            int quantity = 1 + random.nextInt(10);
+            int cents = 99 + random.nextInt(50_000);
+            total += (long) quantity * cents;
+            json.append("{\"name\":\"Item ").append(i).append("\",\"quantity\":").append(quantity)
+                    .append(",\"price\":").append(cents / 100).append('.').append(String.format("%02d", cents % 100))
+                    .append('}');
+        }
+        return json.append("],\"totalAmount\":").append(total / 100).append('.')
+                .append(String.format("%02d", total % 100)).append('}').toString();
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.flyingsaucer.renderer;
+
+import com.itextpdf.text.pdf.PdfDictionary;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfObject;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.parser.PdfTextExtractor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutputProfilesTest {
+
+    // The 780x669 logo shown 100px wide, with enough text to give the page streams some weight
+    private static final String INVOICE;
+
+    static {
+        StringBuilder html = new StringBuilder("<html><head><title>Profiles</title></head><body>")
+                .append("<img src=\"logo.png\" style=\"width: 100px; height: auto;\"/>");
+        for (int i = 0; i < 100; i++) {
+            html.append("<p>Product ").append(i).append(" costs $19.99</p>");
+        }
+        INVOICE = html.append("</body></html>").toString();
+    }
+
+    private static final Pattern DATE = Pattern.compile("\\(D:[^)]*\\)");
+    private static final Pattern FILE_ID = Pattern.compile("/ID ?\\[<\\p{XDigit}+><\\p{XDigit}+>]");
+
+    private static final String IMAGES = OutputProfilesTest.class.getResource("/static/images/").toString();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final OutputProfiles outputProfiles = new OutputProfiles(9, 150, 0, true, true, "standard");
+
+    @Test
+    void standardOutputIsWrittenAsBeforeProfiles() throws Exception {
+        assertEquals(OutputSettings.STANDARD, outputProfiles.resolve(null));
+        assertEquals(OutputSettings.STANDARD, outputProfiles.resolve("Standard"));
+
+        byte[] unset = render(null);
+        byte[] standard = render(OutputSettings.STANDARD);
+        assertArrayEquals(withoutTimestamps(unset), withoutTimestamps(standard));
+    }
+
+    @Test
+    void optimizedOutputIsSmallerWithDownsampledImages() throws Exception {
+        OutputSettings optimized = outputProfiles.resolve("optimized");
+        byte[] standard = render(OutputSettings.STANDARD);
+        byte[] smaller = render(optimized);
+
+        assertTrue(smaller.length < standard.length / 2,
+                "Optimized PDF is " + smaller.length + " bytes, standard " + standard.length);
+        assertEquals(List.of(780), imageWidths(standard));
+        // 100 CSS pixels are 75pt, so 156 pixels at 150 dpi
+        int width = imageWidths(smaller).get(0);
+        assertTrue(width < 200, "Image was kept at " + width + " pixels");
+
+        PdfReader reader = new PdfReader(smaller);
+        assertEquals('5', reader.getPdfVersion());
+        assertEquals(PdfTextExtractor.getTextFromPage(new PdfReader(standard), 1),
+                PdfTextExtractor.getTextFromPage(reader, 1));
+    }
+
+    @Test
+    void unknownProfileIsRejected() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> outputProfiles.resolve("smallest"));
+        assertTrue(e.getMessage().contains("smallest"), e.getMessage());
+    }
+
+    // Renders with a fresh pool, so nothing carries over between the PDFs compared
+    private byte[] render(OutputSettings settings) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (RendererPool.Lease lease = rendererPool().borrow()) {
+            if (settings != null) {
+                lease.setOutputSettings(settings);
+            }
+            lease.setDocumentFromString(INVOICE, IMAGES);
+            lease.getRenderer().layout();
+            lease.getRenderer().createPDF(output);
+        }
+        return output.toByteArray();
+    }
+
+    // The creation date and file ID change with every PDF; both are of fixed length, so blanking
+    // them keeps every offset in the file
+    private static byte[] withoutTimestamps(byte[] pdf) {
+        String text = new String(pdf, StandardCharsets.ISO_8859_1);
+        text = DATE.matcher(text).replaceAll(m -> "(D:" + "0".repeat(m.group().length() - 4) + ")");
+        text = FILE_ID.matcher(text).replaceAll(m -> "/ID" + " ".repeat(m.group().length() - 3));
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    // Pixel widths of the images in the PDF, leaving out their transparency masks
+    private static List<Integer> imageWidths(byte[] pdf) throws Exception {
+        PdfReader reader = new PdfReader(pdf);
+        List<PdfDictionary> images = new ArrayList<>();
+        Set<PdfObject> masks = new HashSet<>();
+        for (int i = 1; i < reader.getXrefSize(); i++) {
+            if (reader.getPdfObject(i) instanceof PdfDictionary object
+                    && PdfName.IMAGE.equals(object.getAsName(PdfName.SUBTYPE))) {
+                images.add(object);
+                if (object.contains(PdfName.SMASK)) {
+                    masks.add(PdfReader.getPdfObject(object.get(PdfName.SMASK)));
+                }
+            }
+        }
+        List<Integer> widths = new ArrayList<>();
+        for (PdfDictionary image : images) {
+            if (!masks.contains(image)) {
+                widths.add(image.getAsNumber(PdfName.WIDTH).intValue());
+            }
+        }
+        return widths;
+    }
+
+    private RendererPool rendererPool() {
+        ResourceCache resourceCache = new ResourceCache(1 << 20, meterRegistry);
+        RendererPool pool = new RendererPool(1, 10_000, resourceCache,
+                new StylesheetCache(-1, resourceCache, meterRegistry), new FontRegistry("", true), meterRegistry);
+        pool.warmUp();
+        return pool;
+    }
+}
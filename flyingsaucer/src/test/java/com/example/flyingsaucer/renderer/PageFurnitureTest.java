@@ -0,0 +1,125 @@
+package com.example.flyingsaucer.renderer;
+
+import com.itextpdf.text.pdf.PdfDictionary;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.parser.PdfTextExtractor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PageFurnitureTest {
+
+    private static final OutputSettings FURNITURE = new OutputSettings("optimized", 9, 0, 0f, false, true);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final RendererPool rendererPool = rendererPool();
+    private final PageFurniture pageFurniture = new PageFurniture(rendererPool,
+            new RenderPermits(1, 10_000, meterRegistry), meterRegistry, 16);
+
+    @AfterEach
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void headerAndFooterAreStampedOnEveryPage() throws Exception {
+        PdfReader reader = new PdfReader(render(document(200)));
+        int pages = reader.getNumberOfPages();
+        assertTrue(pages >= 3, "Expected several pages, got " + pages);
+
+        Set<Integer> forms = new HashSet<>();
+        for (int page = 1; page <= pages; page++) {
+            String text = PdfTextExtractor.getTextFromPage(reader, page);
+            assertTrue(text.contains("Stamped Header"), "No header on page " + page);
+            assertTrue(text.contains("Stamped Footer"), "No footer on page " + page);
+            // The regions came out of the document, so they are only on the page once, as the stamp
+            assertEquals(text.indexOf("Stamped Header"), text.lastIndexOf("Stamped Header"));
+            forms.addAll(formXObjects(reader, page));
+        }
+        assertTrue(PdfTextExtractor.getTextFromPage(reader, 1).contains("Row 0"));
+        assertTrue(PdfTextExtractor.getTextFromPage(reader, pages).contains("Row 199"));
+        // Every page draws the same two form XObjects
+        assertEquals(2, forms.size());
+    }
+
+    @Test
+    void concurrentColdRendersLayTheFurnitureOutOnce() throws Exception {
+        int renders = 4;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<PageFurniture.Layout>> layouts = new ArrayList<>();
+        for (int i = 0; i < renders; i++) {
+            layouts.add(executor.submit(() -> {
+                org.w3c.dom.Document document = rendererPool.parse(document(10));
+                start.await();
+                return pageFurniture.extract(document, null, FURNITURE);
+            }));
+        }
+        start.countDown();
+
+        PageFurniture.Layout first = layouts.get(0).get(30, TimeUnit.SECONDS);
+        for (Future<PageFurniture.Layout> layout : layouts) {
+            assertSame(first, layout.get(30, TimeUnit.SECONDS));
+        }
+        assertEquals(1, meterRegistry.get("pdf.furniture.layouts").timer().count());
+        assertEquals(renders - 1, meterRegistry.get("pdf.furniture.reuses").counter().count());
+    }
+
+    private byte[] render(String html) throws Exception {
+        org.w3c.dom.Document document = rendererPool.parse(html);
+        PageFurniture.Layout layout = pageFurniture.extract(document, null, FURNITURE);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (RendererPool.Lease lease = rendererPool.borrow()) {
+            lease.setOutputSettings(FURNITURE);
+            lease.setPageFurniture(layout);
+            lease.setDocument(document, null);
+            lease.getRenderer().layout();
+            lease.getRenderer().createPDF(output);
+        }
+        return output.toByteArray();
+    }
+
+    private static Set<Integer> formXObjects(PdfReader reader, int page) {
+        PdfDictionary resources = reader.getPageN(page).getAsDict(PdfName.RESOURCES);
+        PdfDictionary xObjects = resources.getAsDict(PdfName.XOBJECT);
+        Set<Integer> forms = new HashSet<>();
+        for (PdfName name : xObjects.getKeys()) {
+            forms.add(xObjects.getAsIndirectObject(name).getNumber());
+        }
+        return forms;
+    }
+
+    private static String document(int rows) {
+        StringBuilder html = new StringBuilder("<html><head><title>Furniture</title></head><body>")
+                .append("<div class=\"header\" data-pdf-furniture=\"header\"><h1>Stamped Header</h1></div>");
+        for (int i = 0; i < rows; i++) {
+            html.append("<p>Row ").append(i).append("</p>");
+        }
+        return html.append("<div class=\"footer\" data-pdf-furniture=\"footer\">Stamped Footer</div>")
+                .append("</body></html>").toString();
+    }
+
+    private RendererPool rendererPool() {
+        ResourceCache resourceCache = new ResourceCache(1 << 20, meterRegistry);
+        RendererPool pool = new RendererPool(2, 10_000, resourceCache,
+                new StylesheetCache(-1, resourceCache, meterRegistry), new FontRegistry("", true), meterRegistry);
+        pool.warmUp();
+        return pool;
+    }
+}
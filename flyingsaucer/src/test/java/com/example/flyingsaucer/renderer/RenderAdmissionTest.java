@@ -0,0 +1,159 @@
+package com.example.flyingsaucer.renderer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RenderAdmissionTest {
+
+    // 10 units; one unit per 100 items plus one, so 400 items cost 5 units and an empty invoice 1
+    private static final int BUDGET = 10;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void oneRenderIsChargedAtMostTheMaxShare() {
+        RenderAdmission admission = admission(64, 5000);
+        assertEquals(101, admission.estimate("invoice", 10_000).units());
+
+        try (RenderAdmission.Ticket ticket = admission.admit("invoice", 10_000)) {
+            assertEquals(BUDGET / 2, ticket.getCost().units());
+            assertEquals(BUDGET / 2, admission.getUsedUnits());
+        }
+        assertEquals(0, admission.getUsedUnits());
+        assertEquals(0, admission.getUsedHeap());
+    }
+
+    @Test
+    void waitingRendersAreAdmittedInArrivalOrder() throws Exception {
+        RenderAdmission admission = admission(64, 5000);
+        RenderAdmission.Ticket big = admission.admit("invoice", 400);
+        RenderAdmission.Ticket small = admission.admit("invoice", 0);
+        assertEquals(6, admission.getUsedUnits());
+
+        // The 5-unit render does not fit; the 1-unit one behind it would, but waits its turn
+        List<String> admitted = new CopyOnWriteArrayList<>();
+        Future<RenderAdmission.Ticket> first = executor.submit(() -> {
+            RenderAdmission.Ticket ticket = admission.acquire("invoice", 400);
+            admitted.add("first");
+            return ticket;
+        });
+        awaitQueued(admission, 1);
+        Future<RenderAdmission.Ticket> second = executor.submit(() -> {
+            RenderAdmission.Ticket ticket = admission.acquire("invoice", 0);
+            admitted.add("second");
+            return ticket;
+        });
+        awaitQueued(admission, 2);
+        Thread.sleep(100);
+        assertTrue(admitted.isEmpty());
+
+        small.close();
+        RenderAdmission.Ticket firstTicket = first.get(10, TimeUnit.SECONDS);
+        assertEquals(List.of("first"), admitted);
+        assertEquals(BUDGET, admission.getUsedUnits());
+
+        big.close();
+        RenderAdmission.Ticket secondTicket = second.get(10, TimeUnit.SECONDS);
+        assertEquals(List.of("first", "second"), admitted);
+
+        firstTicket.close();
+        secondTicket.close();
+        assertEquals(0, admission.getUsedUnits());
+        assertEquals(0, admission.getQueued());
+    }
+
+    @Test
+    void interactiveRendersAreTurnedAwayWhenTheQueueIsFull() throws Exception {
+        RenderAdmission admission = admission(1, 5000);
+        RenderAdmission.Ticket first = admission.admit("invoice", 400);
+        RenderAdmission.Ticket second = admission.admit("invoice", 400);
+
+        Future<RenderAdmission.Ticket> waiting = executor.submit(() -> admission.acquire("invoice", 0));
+        awaitQueued(admission, 1);
+
+        RenderAdmission.Rejected rejected = assertThrows(RenderAdmission.Rejected.class,
+                () -> admission.admit("invoice", 0));
+        assertTrue(rejected.getMessage().contains("queue is full"), rejected.getMessage());
+        assertTrue(rejected.getRetryAfterSeconds() >= 1);
+        assertEquals(1.0, meterRegistry.get("pdf.admission.requests").tag("result", "rejected").counter().count());
+        assertThrows(RenderAdmission.Rejected.class, admission::checkQueue);
+
+        first.close();
+        waiting.get(10, TimeUnit.SECONDS).close();
+        second.close();
+        admission.checkQueue();
+        assertEquals(0, admission.getUsedUnits());
+    }
+
+    @Test
+    void interactiveRendersGiveUpAfterMaxWaitWithRetryAfter() {
+        RenderAdmission admission = admission(64, 50);
+        try (RenderAdmission.Ticket first = admission.admit("invoice", 400);
+             RenderAdmission.Ticket second = admission.admit("invoice", 400)) {
+            long start = System.nanoTime();
+            RenderAdmission.Rejected rejected = assertThrows(RenderAdmission.Rejected.class,
+                    () -> admission.admit("invoice", 0));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+            assertTrue(rejected.getMessage().contains("budget exhausted"), rejected.getMessage());
+            assertTrue(rejected.getRetryAfterSeconds() >= 1 && rejected.getRetryAfterSeconds() <= 60,
+                    "Retry-After " + rejected.getRetryAfterSeconds());
+            assertEquals(0, admission.getQueued());
+        }
+        assertEquals(0, admission.getUsedUnits());
+    }
+
+    @Test
+    void closingATicketTwiceReleasesItOnce() {
+        RenderAdmission admission = admission(64, 5000);
+        RenderAdmission.Ticket first = admission.admit("invoice", 400);
+        RenderAdmission.Ticket second = admission.admit("invoice", 0);
+        first.close();
+        first.close();
+        assertEquals(1, admission.getUsedUnits());
+        second.close();
+        assertEquals(0, admission.getUsedUnits());
+    }
+
+    @Test
+    void disabledAdmissionChargesNothing() {
+        RenderAdmission admission = new RenderAdmission(false, BUDGET, 100, 0.5, "", 1L << 30, 0.5,
+                1024, 1024, 1, 0, 2000, 500, new RenderPermits(1, 1000, meterRegistry), meterRegistry);
+        try (RenderAdmission.Ticket first = admission.admit("invoice", 10_000);
+             RenderAdmission.Ticket second = admission.admit("invoice", 10_000)) {
+            assertEquals(0, first.getCost().units());
+            assertEquals(0, admission.getUsedUnits());
+            assertEquals(0, admission.getQueued());
+        }
+    }
+
+    private RenderAdmission admission(int maxQueued, long maxWaitMillis) {
+        return new RenderAdmission(true, BUDGET, 100, 0.5, "", 1L << 30, 0.5, 1024, 1024,
+                maxQueued, maxWaitMillis, 2000, 500, new RenderPermits(1, 1000, meterRegistry), meterRegistry);
+    }
+
+    private static void awaitQueued(RenderAdmission admission, int queued) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (admission.getQueued() < queued) {
+            assertTrue(System.nanoTime() < deadline, "Render did not queue in time");
+            Thread.sleep(5);
+        }
+    }
+}
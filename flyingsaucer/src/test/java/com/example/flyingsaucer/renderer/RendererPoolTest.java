@@ -0,0 +1,88 @@
+package com.example.flyingsaucer.renderer;
+
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.SimpleBookmark;
+import com.itextpdf.text.pdf.parser.PdfTextExtractor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.xhtmlrenderer.pdf.ITextRenderer;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RendererPoolTest {
+
+    // Bookmarks and metadata are the per-document state ITextOutputDevice holds on to
+    private static final String MARKED = "<html><head><title>First</title>"
+            + "<meta name=\"author\" content=\"First Author\"/>"
+            + "<bookmarks><bookmark name=\"Chapter\" href=\"#chapter\"/></bookmarks></head>"
+            + "<body><h1 id=\"chapter\">Chapter</h1><p>First document</p></body></html>";
+
+    private static final String PLAIN = "<html><head><title>Second</title></head>"
+            + "<body><p>Second document</p></body></html>";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void resetIsVerifiedForTheFlyingSaucerReleaseInUse() {
+        // Fails when Flying Saucer is upgraded: check reset() against the private fields of the new
+        // release's ITextRenderer and ITextOutputDevice, then update RESET_VERIFIED_VERSION
+        assertEquals(RendererPool.RESET_VERIFIED_VERSION, RendererPool.flyingSaucerVersion());
+        assertTrue(pool().isReusingRenderers());
+    }
+
+    @Test
+    void reusedRendererKeepsNothingFromThePreviousDocument() throws Exception {
+        RendererPool pool = pool();
+        ITextRenderer renderer;
+        byte[] marked;
+        try (RendererPool.Lease lease = pool.borrow()) {
+            renderer = lease.getRenderer();
+            marked = render(lease, MARKED);
+        }
+        PdfReader markedPdf = new PdfReader(marked);
+        assertNotNull(SimpleBookmark.getBookmark(markedPdf));
+        assertEquals("First Author", markedPdf.getInfo().get("Author"));
+
+        byte[] reused;
+        try (RendererPool.Lease lease = pool.borrow()) {
+            assertSame(renderer, lease.getRenderer());
+            reused = render(lease, PLAIN);
+        }
+        byte[] fresh;
+        try (RendererPool.Lease lease = pool().borrow()) {
+            assertNotSame(renderer, lease.getRenderer());
+            fresh = render(lease, PLAIN);
+        }
+
+        PdfReader reusedPdf = new PdfReader(reused);
+        PdfReader freshPdf = new PdfReader(fresh);
+        assertNull(SimpleBookmark.getBookmark(reusedPdf));
+        assertNull(reusedPdf.getInfo().get("Author"));
+        assertEquals("Second", reusedPdf.getInfo().get("Title"));
+        assertEquals(freshPdf.getNumberOfPages(), reusedPdf.getNumberOfPages());
+        assertEquals(PdfTextExtractor.getTextFromPage(freshPdf, 1), PdfTextExtractor.getTextFromPage(reusedPdf, 1));
+    }
+
+    private static byte[] render(RendererPool.Lease lease, String html) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        lease.setDocumentFromString(html, null);
+        lease.getRenderer().layout();
+        lease.getRenderer().createPDF(output);
+        return output.toByteArray();
+    }
+
+    private RendererPool pool() {
+        ResourceCache resourceCache = new ResourceCache(1 << 20, meterRegistry);
+        RendererPool pool = new RendererPool(1, 10_000, resourceCache,
+                new StylesheetCache(-1, resourceCache, meterRegistry), new FontRegistry("", true), meterRegistry);
+        pool.warmUp();
+        return pool;
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.flyingsaucer.service;
+
+import com.example.flyingsaucer.model.BatchPdfRequest;
+import com.example.flyingsaucer.model.PdfRequest;
+import com.example.flyingsaucer.renderer.RenderAdmission;
+import com.example.flyingsaucer.renderer.RenderPermits;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchPdfServiceTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CountDownLatch cancelled = new CountDownLatch(1);
+    private final AtomicInteger renders = new AtomicInteger();
+    private BatchPdfService batchPdfService;
+
+    @AfterEach
+    void stop() {
+        batchPdfService.stop();
+    }
+
+    @Test
+    void rendersInFlightAreCancelledWhenTheClientGoesAway() throws Exception {
+        // The first PDF is larger than the output buffer, so writing it reaches the failing stream
+        // while the second render holds the only batch thread
+        batchPdfService = batchPdfService(new PdfService() {
+            @Override
+            public int itemCount(Object data) {
+                return 0;
+            }
+
+            @Override
+            public byte[] generatePdfBytes(Object data, String templateName) {
+                if (renders.incrementAndGet() == 1) {
+                    return new byte[128 * 1024];
+                }
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                } catch (InterruptedException e) {
+                    cancelled.countDown();
+                }
+                return new byte[0];
+            }
+        });
+
+        OutputStream disconnected = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+        assertThrows(IOException.class, () -> batchPdfService.writeZip(request(10), disconnected));
+
+        assertTrue(cancelled.await(10, TimeUnit.SECONDS), "The render in flight was not cancelled");
+        assertEquals(2, renders.get());
+    }
+
+    private BatchPdfService batchPdfService(PdfService pdfService) {
+        BatchPdfService service = new BatchPdfService();
+        ReflectionTestUtils.setField(service, "pdfService", pdfService);
+        ReflectionTestUtils.setField(service, "renderAdmission", new RenderAdmission(false, 8, 100, 0.5, "",
+                1L << 30, 0.5, 1024, 1024, 1, 0, 2000, 500, new RenderPermits(1, 1000, meterRegistry), meterRegistry));
+        ReflectionTestUtils.setField(service, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(service, "threads", 1);
+        ReflectionTestUtils.setField(service, "pageSize", 100);
+        service.start();
+        return service;
+    }
+
+    private static BatchPdfRequest request(int invoices) {
+        List<PdfRequest> requests = new ArrayList<>();
+        for (int i = 1; i <= invoices; i++) {
+            PdfRequest request = new PdfRequest();
+            request.setInvoiceId("INV-BATCH-" + i);
+            requests.add(request);
+        }
+        BatchPdfRequest request = new BatchPdfRequest();
+        request.setRequests(requests);
+        return request;
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.flyingsaucer.service;
+
+import com.example.flyingsaucer.model.PdfRequest;
+import com.example.flyingsaucer.renderer.OutputProfiles;
+import com.example.flyingsaucer.renderer.OutputSettings;
+import com.itextpdf.text.pdf.PdfDictionary;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.parser.PdfTextExtractor;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A large invoice rendered in chunks with page furniture: every chunk is stamped with the header
+ * and footer, and the smart copy that joins the chunks writes what they share once.
+ */
+@SpringBootTest(properties = {
+        "pdf.warmup.enabled=false",
+        "pdf.large-document.chunk-items=40"
+})
+@ActiveProfiles("test")
+class ChunkedFurnitureTest {
+
+    private static final int ITEMS = 150;
+
+    @Autowired
+    private PdfService pdfService;
+
+    @Autowired
+    private OutputProfiles outputProfiles;
+
+    @Test
+    void everyPageOfTheMergedChunksCarriesTheSameFurniture() throws Exception {
+        OutputSettings settings = outputProfiles.resolve("optimized");
+        assertTrue(settings.pageFurniture());
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        pdfService.writeLargePdf(request(), "invoice", settings, output);
+
+        PdfReader reader = new PdfReader(output.toByteArray());
+        int pages = reader.getNumberOfPages();
+        // Four chunks, each at least a page
+        assertTrue(pages >= 4, "Expected a page per chunk at least, got " + pages);
+
+        Set<Integer> forms = new HashSet<>();
+        Set<Integer> images = new HashSet<>();
+        for (int page = 1; page <= pages; page++) {
+            String text = PdfTextExtractor.getTextFromPage(reader, page);
+            assertTrue(text.contains("Official Business Document"), "No header on page " + page);
+            assertTrue(text.contains("Thank you for your business!"), "No footer on page " + page);
+            PdfDictionary pageForms = xObjects(reader.getPageN(page));
+            for (PdfName name : pageForms.getKeys()) {
+                forms.add(pageForms.getAsIndirectObject(name).getNumber());
+                // Only the header has an image, the logo
+                PdfDictionary formImages = xObjects((PdfDictionary) PdfReader.getPdfObject(pageForms.get(name)));
+                if (formImages != null) {
+                    for (PdfName image : formImages.getKeys()) {
+                        images.add(formImages.getAsIndirectObject(image).getNumber());
+                    }
+                }
+            }
+        }
+        String ending = PdfTextExtractor.getTextFromPage(reader, pages);
+        assertTrue(ending.contains("Total Amount"));
+        // Pages share the furniture of their chunk, and the smart copy keeps one copy of the logo
+        assertTrue(forms.size() < pages, forms.size() + " furniture forms for " + pages + " pages");
+        assertEquals(1, images.size());
+    }
+
+    private static PdfDictionary xObjects(PdfDictionary owner) {
+        return owner.getAsDict(PdfName.RESOURCES).getAsDict(PdfName.XOBJECT);
+    }
+
+    private static PdfRequest request() {
+        List<PdfRequest.Item> items = new ArrayList<>(ITEMS);
+        BigDecimal total = BigDecimal.ZERO;
+        for (int i = 0; i < ITEMS; i++) {
+            PdfRequest.Item item = new PdfRequest.Item();
+            item.setName("Product " + i);
+            item.setQuantity(1);
+            item.setPrice(new BigDecimal("9.99"));
+            items.add(item);
+            total = total.add(item.getPrice());
+        }
+        PdfRequest request = new PdfRequest();
+        request.setInvoiceId("INV-CHUNKED");
+        request.setCustomerName("Chunked Customer");
+        request.setDate("2024-01-15");
+        request.setItems(items);
+        request.setTotalAmount(total);
+        return request;
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.flyingsaucer.service;
+
+import com.example.flyingsaucer.repository.InvoiceRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "pdf.warmup.enabled=false",
+        "pdf.templates.watch=false",
+        "pdf.ingest.batch-size=4"
+})
+@ActiveProfiles("test")
+class InvoiceIngestServiceTest {
+
+    @Autowired
+    InvoiceIngestService invoiceIngestService;
+
+    @Autowired
+    InvoiceRepository invoiceRepository;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Test
+    void failedBatchIsRetriedOneInvoiceAtATime() throws Exception {
+        // The whole batch fails on the over-long customer name; only that invoice should
+        String body = "[" + String.join(",",
+                invoice("ING-1", "Customer 1"),
+                invoice("ING-2", "x".repeat(300)),
+                invoice("ING-3", "Customer 3"),
+                "{\"invoiceId\":\"ING-4\",\"date\":\"2024-01-15\",\"items\":[]}",
+                invoice("ING-5", "Customer 5")) + "]";
+
+        List<JsonNode> lines = ingest(body);
+
+        assertEquals(6, lines.size());
+        assertResult(lines.get(0), 0, "ING-1", "OK");
+        assertResult(lines.get(1), 1, "ING-2", "FAILED");
+        assertTrue(lines.get(1).get("error").asText().startsWith("Save failed"), lines.get(1).toString());
+        assertResult(lines.get(2), 2, "ING-3", "OK");
+        assertResult(lines.get(3), 3, "ING-4", "FAILED");
+        assertEquals("customerName is required", lines.get(3).get("error").asText());
+        assertResult(lines.get(4), 4, "ING-5", "OK");
+
+        JsonNode summary = lines.get(5);
+        assertEquals("DONE", summary.get("status").asText());
+        assertEquals(5, summary.get("received").asInt());
+        assertEquals(3, summary.get("saved").asInt());
+        assertEquals(2, summary.get("failed").asInt());
+        assertEquals(2, summary.get("batches").asInt());
+
+        for (int i : new int[] {0, 2, 4}) {
+            long id = lines.get(i).get("id").asLong();
+            assertEquals(2, invoiceRepository.findWithItemsById(id).orElseThrow().getItems().size());
+        }
+    }
+
+    @Test
+    void malformedBodyStopsTheIngestWithAnAbortedSummary() throws Exception {
+        String body = invoice("ING-ND-1", "Customer 1") + "\n"
+                + invoice("ING-ND-2", "Customer 2") + "\n"
+                + "{\"invoiceId\": \"ING-ND-3\", \"customerName\": \n";
+
+        List<JsonNode> lines = ingest(body);
+
+        assertEquals(3, lines.size());
+        assertResult(lines.get(0), 0, "ING-ND-1", "OK");
+        assertResult(lines.get(1), 1, "ING-ND-2", "OK");
+        JsonNode summary = lines.get(2);
+        assertEquals("ABORTED", summary.get("status").asText());
+        assertEquals(2, summary.get("received").asInt());
+        assertEquals(2, summary.get("saved").asInt());
+        assertEquals(0, summary.get("failed").asInt());
+        assertTrue(summary.hasNonNull("error"));
+    }
+
+    private List<JsonNode> ingest(String body) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        invoiceIngestService.ingest(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), output);
+        List<JsonNode> lines = new ArrayList<>();
+        for (String line : output.toString(StandardCharsets.UTF_8).split("\n")) {
+            lines.add(objectMapper.readTree(line));
+        }
+        return lines;
+    }
+
+    private static void assertResult(JsonNode line, int sequence, String invoice, String status) {
+        assertEquals(sequence, line.get("sequence").asInt(), line.toString());
+        assertEquals(invoice, line.get("invoice").asText(), line.toString());
+        assertEquals(status, line.get("status").asText(), line.toString());
+    }
+
+    private static String invoice(String invoiceId, String customerName) {
+        return "{\"invoiceId\":\"" + invoiceId + "\",\"customerName\":\"" + customerName + "\","
+                + "\"date\":\"2024-01-15\",\"totalAmount\":30.00,\"items\":["
+                + "{\"name\":\"Product A\",\"quantity\":1,\"price\":10.00},"
+                + "{\"name\":\"Product B\",\"quantity\":2,\"price\":10.00}]}";
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.flyingsaucer.service;
+
+import com.example.flyingsaucer.FlyingsaucerApplication;
+import com.example.flyingsaucer.model.PdfRequest;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.parser.PdfTextExtractor;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Renders a 100,000-item invoice in a separate JVM whose heap is far too small to hold the
+ * HTML, DOM and box tree of the whole invoice at once, so it only passes if chunked rendering
+ * really keeps memory flat. Takes minutes, so it only runs with {@code mvn -Pslow-tests test}.
+ */
+@Tag("slow")
+class LargeDocumentRenderingTest {
+
+    private static final int ITEMS = 100_000;
+    private static final String MAX_HEAP = "-Xmx256m";
+
+    @Test
+    void rendersHundredThousandItemsInBoundedHeap() throws Exception {
+        Path pdf = Files.createTempFile("large-invoice", ".pdf");
+        Path log = Files.createTempFile("large-invoice", ".log");
+        try {
+            Process process = new ProcessBuilder(
+                    Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    MAX_HEAP, "-XX:+ExitOnOutOfMemoryError",
+                    "-cp", System.getProperty("java.class.path"),
+                    LargeDocumentRenderingTest.class.getName(), pdf.toString())
+                    .redirectErrorStream(true)
+                    .redirectOutput(log.toFile())
+                    .start();
+            assertTrue(process.waitFor(15, TimeUnit.MINUTES), "Rendering did not finish in time");
+            assertEquals(0, process.exitValue(), () -> "Rendering failed:\n" + tail(log));
+
+            PdfReader reader = new PdfReader(pdf.toString());
+            try {
+                int pages = reader.getNumberOfPages();
+                assertTrue(pages > ITEMS / 50, "Expected every item to be rendered, got " + pages + " pages");
+                assertTrue(PdfTextExtractor.getTextFromPage(reader, 1).contains("INV-LARGE"));
+                String ending = PdfTextExtractor.getTextFromPage(reader, pages - 1)
+                        + PdfTextExtractor.getTextFromPage(reader, pages);
+                assertTrue(ending.contains("Product " + (ITEMS - 1)));
+                assertTrue(ending.contains("Total Amount"));
+            } finally {
+                reader.close();
+            }
+        } finally {
+            Files.deleteIfExists(pdf);
+            Files.deleteIfExists(log);
+        }
+    }
+
+    // Entry point of the child JVM: render the invoice into the file named by the argument
+    public static void main(String[] args) throws Exception {
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(FlyingsaucerApplication.class)
+                .web(WebApplicationType.NONE)
+                .profiles("test")
+                .run()) {
+            PdfService pdfService = context.getBean(PdfService.class);
+            PdfRequest request = request(ITEMS);
+            if (!pdfService.isLargeDocument(request)) {
+                throw new IllegalStateException("Invoice was not treated as a large document");
+            }
+            try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(Paths.get(args[0])))) {
+                pdfService.writeLargePdf(request, "invoice", outputStream);
+            }
+            System.out.println("Heap in use after render: "
+                    + ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / (1024 * 1024) + " MB");
+        }
+    }
+
+    private static PdfRequest request(int itemCount) {
+        List<PdfRequest.Item> items = new ArrayList<>(itemCount);
+        BigDecimal total = BigDecimal.ZERO;
+        for (int i = 0; i < itemCount; i++) {
+            PdfRequest.Item item = new PdfRequest.Item();
+            item.setName("Product " + i);
+            item.setQuantity(i % 5 + 1);
+            item.setPrice(new BigDecimal("19.99"));
+            items.add(item);
+            total = total.add(item.getPrice().multiply(BigDecimal.valueOf(item.getQuantity())));
+        }
+        PdfRequest request = new PdfRequest();
+        request.setInvoiceId("INV-LARGE");
+        request.setCustomerName("Large Customer");
+        request.setDate("2024-01-15");
+        request.setItems(items);
+        request.setTotalAmount(total);
+        return request;
+    }
+
+    private static String tail(Path log) {
+        try {
+            List<String> lines = Files.readAllLines(log);
+            return String.join("\n", lines.subList(Math.max(0, lines.size() - 40), lines.size()));
+        } catch (Exception e) {
+            return "(no output: " + e.getMessage() + ")";
+        }
+    }
+}
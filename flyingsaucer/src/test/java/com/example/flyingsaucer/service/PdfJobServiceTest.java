@@ -0,0 +1,64 @@
+package com.example.flyingsaucer.service;
+
+import com.example.flyingsaucer.model.PdfJob;
+import com.example.flyingsaucer.model.PdfRequest;
+import com.example.flyingsaucer.renderer.RenderAdmission;
+import com.example.flyingsaucer.renderer.RenderPermits;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PdfJobServiceTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private PdfJobService pdfJobService;
+
+    @AfterEach
+    void stop() {
+        pdfJobService.stop();
+    }
+
+    @Test
+    void finishedJobsAreForgottenWithoutFurtherSubmits() throws Exception {
+        pdfJobService = pdfJobService(50, 50);
+
+        PdfJob job = pdfJobService.submit(new PdfRequest(), 0);
+        String id = job.getId();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (pdfJobService.getJob(id) != null) {
+            assertTrue(System.nanoTime() < deadline, "Finished job was not evicted, status " + job.getStatus());
+            Thread.sleep(10);
+        }
+        assertTrue(job.isFinished());
+    }
+
+    private PdfJobService pdfJobService(long retentionMillis, long evictIntervalMillis) {
+        PdfJobService service = new PdfJobService();
+        ReflectionTestUtils.setField(service, "pdfService", new PdfService() {
+            @Override
+            public int itemCount(Object data) {
+                return 0;
+            }
+
+            @Override
+            public String generatePdfFile(Object data, String templateName, String fileName) {
+                return fileName + ".pdf";
+            }
+        });
+        ReflectionTestUtils.setField(service, "renderAdmission", new RenderAdmission(false, 8, 100, 0.5, "",
+                1L << 30, 0.5, 1024, 1024, 1, 0, 2000, 500, new RenderPermits(1, 1000, meterRegistry), meterRegistry));
+        ReflectionTestUtils.setField(service, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(service, "workers", 1);
+        ReflectionTestUtils.setField(service, "queueCapacity", 10);
+        ReflectionTestUtils.setField(service, "retentionMillis", retentionMillis);
+        ReflectionTestUtils.setField(service, "evictIntervalMillis", evictIntervalMillis);
+        service.start();
+        return service;
+    }
+}
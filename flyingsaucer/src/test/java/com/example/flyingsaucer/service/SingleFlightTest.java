@@ -0,0 +1,133 @@
+package com.example.flyingsaucer.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void joinerGetsTheLeadersResult() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>("test", 10_000, meterRegistry);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+
+        Future<String> leader = executor.submit(() -> flight.execute("key", () -> {
+            runs.incrementAndGet();
+            started.countDown();
+            finish.await();
+            return "pdf";
+        }));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        Future<String> joiner = executor.submit(() -> flight.execute("key", () -> {
+            runs.incrementAndGet();
+            return "second render";
+        }));
+        awaitJoined(1);
+        finish.countDown();
+
+        assertEquals("pdf", leader.get(10, TimeUnit.SECONDS));
+        assertEquals("pdf", joiner.get(10, TimeUnit.SECONDS));
+        assertEquals(1, runs.get());
+        assertEquals(0, flight.getInFlightCount());
+
+        // Nothing is kept once the work finished
+        assertEquals("again", flight.execute("key", () -> "again"));
+    }
+
+    @Test
+    void joinerGetsTheLeadersException() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>("test", 10_000, meterRegistry);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        IllegalStateException failure = new IllegalStateException("render failed");
+
+        Future<String> leader = executor.submit(() -> flight.execute("key", () -> {
+            started.countDown();
+            finish.await();
+            throw failure;
+        }));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        Future<String> joiner = executor.submit(() -> flight.execute("key", () -> "second render"));
+        awaitJoined(1);
+        finish.countDown();
+
+        ExecutionException leaderFailure =
+                assertThrows(ExecutionException.class, () -> leader.get(10, TimeUnit.SECONDS));
+        ExecutionException joinerFailure =
+                assertThrows(ExecutionException.class, () -> joiner.get(10, TimeUnit.SECONDS));
+        assertSame(failure, leaderFailure.getCause());
+        assertSame(failure, joinerFailure.getCause());
+        assertEquals(0, flight.getInFlightCount());
+    }
+
+    @Test
+    void joinerGivesUpAfterTheTimeout() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>("test", 100, meterRegistry);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+
+        Future<String> leader = executor.submit(() -> flight.execute("key", () -> {
+            started.countDown();
+            finish.await();
+            return "pdf";
+        }));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        try {
+            assertThrows(TimeoutException.class, () -> flight.execute("key", () -> "second render"));
+            assertEquals(1.0, meterRegistry.get("pdf.singleflight.timeouts").counter().count());
+        } finally {
+            finish.countDown();
+        }
+        assertEquals("pdf", leader.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void differentKeysRunSeparately() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>("test", 10_000, meterRegistry);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+
+        Future<String> first = executor.submit(() -> flight.execute("a", () -> {
+            started.countDown();
+            finish.await();
+            return "a";
+        }));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertEquals("b", flight.execute("b", () -> "b"));
+        finish.countDown();
+        assertEquals("a", first.get(10, TimeUnit.SECONDS));
+        assertEquals(0.0, meterRegistry.get("pdf.singleflight.joined").counter().count());
+    }
+
+    private void awaitJoined(int joined) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (meterRegistry.get("pdf.singleflight.joined").counter().count() < joined) {
+            assertTrue(System.nanoTime() < deadline, "No call joined the flight in time");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.flyingsaucer.storage;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PdfFileStoreTest {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    @TempDir
+    Path directory;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void storesFilesInAShardFoundAgainByName() throws Exception {
+        PdfFileStore store = store(-1, -1);
+        byte[] content = {'%', 'P', 'D', 'F'};
+
+        Path written = store.write("invoice_1.pdf", outputStream -> outputStream.write(content));
+
+        assertEquals(directory, written.getParent().getParent());
+        assertTrue(written.getParent().getFileName().toString().matches("[0-9a-f]{2}"));
+        assertEquals(written, store.find("invoice_1.pdf"));
+        assertArrayEquals(content, Files.readAllBytes(written));
+        assertNull(store.find("invoice_2.pdf"));
+    }
+
+    @Test
+    void rejectsNamesThatAreNotPlainPdfFileNames() throws Exception {
+        PdfFileStore store = store(-1, -1);
+        for (String name : new String[] {null, "", "invoice.txt", "../invoice.pdf", "a/b.pdf", ".hidden.pdf",
+                "INV 1.pdf", "INV/2024/001.pdf", "invoice.pdf.tmp"}) {
+            assertThrows(IllegalArgumentException.class, () -> store.find(name), String.valueOf(name));
+        }
+        assertThrows(IllegalArgumentException.class, () -> store.write("../escape.pdf", outputStream -> { }));
+    }
+
+    @Test
+    void safeNamePartsAreAcceptedAsFileNames() throws Exception {
+        PdfFileStore store = store(-1, -1);
+        assertEquals("INV_2024_001", PdfFileStore.safeNamePart("INV/2024/001"));
+        assertEquals("A_B_.._C", PdfFileStore.safeNamePart("A B/../C"));
+        assertEquals(100, PdfFileStore.safeNamePart("x".repeat(300)).length());
+
+        String fileName = "invoice_db_" + PdfFileStore.safeNamePart("INV 2024/ä#1") + "_1.pdf";
+        store.write(fileName, outputStream -> outputStream.write(1));
+        assertNotNull(store.find(fileName));
+    }
+
+    @Test
+    void sweepDeletesExpiredFilesAndStaleTemporaryFiles() throws Exception {
+        PdfFileStore store = store(DAY, -1);
+        Path fresh = store.write("fresh.pdf", outputStream -> outputStream.write(new byte[10]));
+        Path expired = store.write("expired.pdf", outputStream -> outputStream.write(new byte[10]));
+        age(expired, 2 * DAY);
+        Path staleTemp = Files.createTempFile(fresh.getParent(), "dead.pdf", ".tmp");
+        age(staleTemp, TimeUnit.HOURS.toMillis(2));
+        Path activeTemp = Files.createTempFile(fresh.getParent(), "writing.pdf", ".tmp");
+        // Written to the top level before files were sharded
+        Path legacy = Files.write(directory.resolve("legacy.pdf"), new byte[10]);
+        age(legacy, 2 * DAY);
+
+        store.sweep();
+
+        assertTrue(Files.exists(fresh));
+        assertFalse(Files.exists(expired));
+        assertFalse(Files.exists(staleTemp));
+        assertTrue(Files.exists(activeTemp));
+        assertFalse(Files.exists(legacy));
+        assertEquals(1.0, meterRegistry.get("pdf.storage.files").gauge().value());
+        assertEquals(3.0, meterRegistry.get("pdf.storage.deleted").counter().count());
+    }
+
+    @Test
+    void sweepDeletesOldestFilesOverTheSizeLimit() throws Exception {
+        PdfFileStore store = store(-1, 25);
+        Path oldest = store.write("oldest.pdf", outputStream -> outputStream.write(new byte[10]));
+        Path older = store.write("older.pdf", outputStream -> outputStream.write(new byte[10]));
+        Path newest = store.write("newest.pdf", outputStream -> outputStream.write(new byte[10]));
+        age(oldest, 3000);
+        age(older, 2000);
+        age(newest, 1000);
+
+        store.sweep();
+
+        assertFalse(Files.exists(oldest));
+        assertTrue(Files.exists(older));
+        assertTrue(Files.exists(newest));
+        assertEquals(20.0, meterRegistry.get("pdf.storage.size").gauge().value());
+    }
+
+    @Test
+    void sweepCoversTheResultCacheDirectory() throws Exception {
+        PdfFileStore store = store(DAY, -1);
+        Path cache = Files.createDirectories(directory.resolve("cache"));
+        Path expired = Files.write(cache.resolve("0123abcd.pdf"), new byte[10]);
+        age(expired, 2 * DAY);
+        Path fresh = Files.write(cache.resolve("4567efab.pdf"), new byte[10]);
+        Path other = Files.write(cache.resolve("notes.txt"), new byte[10]);
+        age(other, 2 * DAY);
+
+        store.sweep();
+
+        assertFalse(Files.exists(expired));
+        assertTrue(Files.exists(fresh));
+        assertTrue(Files.exists(other));
+        assertEquals(10.0, meterRegistry.get("pdf.storage.size").gauge().value());
+    }
+
+    private PdfFileStore store(long maxAgeMillis, long maxBytes) throws IOException {
+        // No background sweeper; the tests sweep themselves
+        PdfFileStore store = new PdfFileStore(directory.toString(), maxAgeMillis, maxBytes, 0, meterRegistry);
+        store.start();
+        return store;
+    }
+
+    private static void age(Path file, long millis) throws IOException {
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - millis));
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.flyingsaucer.template;
+
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.parser.PdfTextExtractor;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "pdf.warmup.enabled=false",
+        "pdf.templates.watch=true"
+})
+@ActiveProfiles("test")
+class TemplateReloadTest {
+
+    private static final Path TEMPLATES;
+
+    static {
+        try {
+            TEMPLATES = Files.createTempDirectory("pdf-templates");
+            Files.writeString(TEMPLATES.resolve("note.html"), note("First"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @DynamicPropertySource
+    static void templateDirectory(DynamicPropertyRegistry registry) {
+        registry.add("pdf.templates.dir", TEMPLATES::toString);
+    }
+
+    @AfterAll
+    static void deleteTemplates() throws IOException {
+        FileSystemUtils.deleteRecursively(TEMPLATES);
+    }
+
+    @LocalServerPort
+    int port;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @Test
+    void editedTemplateIsUsedForTheNextRender() throws Exception {
+        assertEquals("First version for Reload Customer", renderNote());
+
+        Files.writeString(TEMPLATES.resolve("note.html"), note("Second"));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        String text = renderNote();
+        while (!text.startsWith("Second")) {
+            assertTrue(System.nanoTime() < deadline, "Template was not reloaded in time, still rendering: " + text);
+            Thread.sleep(100);
+            text = renderNote();
+        }
+        assertEquals("Second version for Reload Customer", text);
+    }
+
+    private String renderNote() throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/pdf/render/note"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString("{\"customerName\":\"Reload Customer\"}"))
+                .build();
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(200, response.statusCode());
+        return PdfTextExtractor.getTextFromPage(new PdfReader(response.body()), 1).trim();
+    }
+
+    private static String note(String version) {
+        return "<!DOCTYPE html>\n<html xmlns:th=\"http://www.thymeleaf.org\"><head><title>Note</title></head>"
+                + "<body><p>" + version + " version for <span th:text=\"${customerName}\">Customer</span></p></body></html>";
+    }
+}